@@ -0,0 +1,189 @@
+package com.towster15.ImageVideoDateSorter.Benchmarks;
+
+import com.sun.management.ThreadMXBean;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Runs each benchmark for a few warm up iterations, to let the JIT
+ * settle, then times the rest and reports the mean throughput with
+ * its standard deviation.
+ * <p>
+ * The bytes allocated by every thread during the timed iterations are
+ * counted too, and reported per operation, which shows garbage being
+ * made on a path that should make none long before it shows up as
+ * time spent collecting it.
+ * <p>
+ * Results can be saved as a tab separated file, one benchmark per
+ * line, so runs from different commits can be lined up with
+ * {@link CompareResults}.
+ */
+public class BenchmarkHarness {
+    private static final ThreadMXBean ALLOCATIONS = allocationCounter();
+
+    private final int warmups;
+    private final int iterations;
+    private final List<Result> results = new ArrayList<>();
+
+    /**
+     * Something to run before each iteration without being timed, like
+     * putting back the files the last iteration moved.
+     */
+    public interface Setup {
+        void run() throws Exception;
+    }
+
+    /**
+     * One timed iteration of a benchmark.
+     */
+    public interface Trial {
+        /**
+         * @return how many operations were done, such as files dated
+         */
+        long run() throws Exception;
+    }
+
+    /**
+     * @param name         the benchmark's name
+     * @param opsPerSecond the mean throughput
+     * @param error        the standard deviation of the throughput
+     * @param unit         what an operation is
+     * @param bytesPerOp   the bytes allocated for each operation, or
+     *                     -1 if the JVM can't count them
+     */
+    public record Result(String name, double opsPerSecond, double error, String unit,
+                         double bytesPerOp) {
+    }
+
+    /**
+     * @param warmups    how many iterations to run before timing
+     * @param iterations how many iterations to time
+     */
+    public BenchmarkHarness(int warmups, int iterations) {
+        this.warmups = warmups;
+        this.iterations = Math.max(1, iterations);
+    }
+
+    /**
+     * @see #measure(String, String, Setup, Trial)
+     */
+    public Result measure(String name, String unit, Trial trial) throws Exception {
+        return measure(name, unit, () -> {
+        }, trial);
+    }
+
+    /**
+     * Runs and times a benchmark, printing its result.
+     *
+     * @param name  the benchmark's name, kept the same between commits
+     * @param unit  what an operation is, such as "files/s"
+     * @param setUp run before every iteration, but not timed
+     * @param trial the work to time
+     * @return the result
+     */
+    public Result measure(String name, String unit, Setup setUp, Trial trial) throws Exception {
+        for (int i = 0; i < warmups; i++) {
+            setUp.run();
+            trial.run();
+        }
+        double[] scores = new double[iterations];
+        long allocated = 0;
+        long totalOperations = 0;
+        for (int i = 0; i < iterations; i++) {
+            setUp.run();
+            long allocatedBefore = allocatedBytes();
+            long start = System.nanoTime();
+            long operations = trial.run();
+            long nanos = Math.max(1, System.nanoTime() - start);
+            allocated += allocatedBytes() - allocatedBefore;
+            totalOperations += operations;
+            scores[i] = operations * 1_000_000_000.0 / nanos;
+        }
+        double bytesPerOp = ALLOCATIONS != null && totalOperations > 0
+                ? (double) allocated / totalOperations : -1;
+        double mean = 0;
+        for (double score : scores) {
+            mean += score;
+        }
+        mean /= scores.length;
+        double variance = 0;
+        for (double score : scores) {
+            variance += (score - mean) * (score - mean);
+        }
+        double error = scores.length > 1 ? Math.sqrt(variance / (scores.length - 1)) : 0;
+
+        Result result = new Result(name, mean, error, unit, bytesPerOp);
+        results.add(result);
+        System.out.printf(Locale.ROOT, "%-28s %14.1f +- %10.1f %-8s %12.1f B/op%n", name, mean,
+                error, unit, bytesPerOp);
+        return result;
+    }
+
+    /**
+     * @return the bytes allocated by every thread so far, including
+     * ones that have finished, or 0 if the JVM can't count them
+     */
+    private static long allocatedBytes() {
+        return ALLOCATIONS != null ? ALLOCATIONS.getTotalThreadAllocatedBytes() : 0;
+    }
+
+    private static ThreadMXBean allocationCounter() {
+        if (ManagementFactory.getThreadMXBean() instanceof ThreadMXBean threads
+                && threads.isThreadAllocatedMemorySupported()) {
+            threads.setThreadAllocatedMemoryEnabled(true);
+            return threads;
+        }
+        return null;
+    }
+
+    /**
+     * Saves every result so far, replacing the file if it's there.
+     *
+     * @param resultsFile where to save them
+     */
+    public void save(Path resultsFile) throws IOException {
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(resultsFile,
+                StandardCharsets.UTF_8))) {
+            out.printf("# %s, Java %s, %d warm up and %d timed iterations%n", Instant.now(),
+                    System.getProperty("java.version"), warmups, iterations);
+            for (Result result : results) {
+                out.printf(Locale.ROOT, "%s\t%.3f\t%.3f\t%s\t%.1f%n", result.name(),
+                        result.opsPerSecond(), result.error(), result.unit(),
+                        result.bytesPerOp());
+            }
+        }
+    }
+
+    /**
+     * Reads results saved by {@link #save(Path)}.
+     *
+     * @param resultsFile the saved results
+     * @return the results, in the order they were run
+     */
+    public static List<Result> load(Path resultsFile) throws IOException {
+        List<Result> loaded = new ArrayList<>();
+        for (String line : Files.readAllLines(resultsFile, StandardCharsets.UTF_8)) {
+            if (line.isBlank() || line.startsWith("#")) {
+                continue;
+            }
+            String[] fields = line.split("\t");
+            if (fields.length != 4 && fields.length != 5) {
+                throw new IOException("Not a benchmark result: " + line);
+            }
+            // Results saved before allocations were counted have four
+            double bytesPerOp = fields.length == 5 ? Double.parseDouble(fields[4]) : -1;
+            loaded.add(new Result(fields[0], Double.parseDouble(fields[1]),
+                    Double.parseDouble(fields[2]), fields[3], bytesPerOp));
+        }
+        return loaded;
+    }
+}
@@ -0,0 +1,80 @@
+package com.towster15.ImageVideoDateSorter.Benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Lines up two sets of results saved by {@link SortBenchmark}, such as
+ * from before and after a change, and points out the benchmarks that
+ * got slower by more than the threshold.
+ * <p>
+ * Usage: {@code CompareResults <baseline results> <new results> [threshold %]}
+ * <p>
+ * Exits with 1 if anything got slower, so it can fail a build.
+ * Every benchmark reports a throughput, so higher is always better.
+ * A change that's inside the two runs' combined standard deviation
+ * isn't counted, however large it is.
+ * <p>
+ * Allocations are compared too, where both runs counted them. A
+ * benchmark that allocates more than the threshold above what it used
+ * to, and at least {@value #ALLOCATION_SLACK} bytes more for each
+ * operation, is marked as making more garbage and counted along with
+ * the ones that got slower.
+ */
+public class CompareResults {
+    // Small enough to catch a new object for every file
+    private static final double ALLOCATION_SLACK = 16;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: CompareResults <baseline results> <new results> "
+                    + "[threshold %]");
+            System.exit(2);
+        }
+        double threshold = args.length > 2 ? Double.parseDouble(args[2]) : 10;
+        Map<String, BenchmarkHarness.Result> baseline = new LinkedHashMap<>();
+        for (BenchmarkHarness.Result result : BenchmarkHarness.load(Path.of(args[0]))) {
+            baseline.put(result.name(), result);
+        }
+        List<BenchmarkHarness.Result> current = BenchmarkHarness.load(Path.of(args[1]));
+
+        int regressions = 0;
+        System.out.printf("%-28s %14s %14s %9s %12s %12s%n", "benchmark", "baseline", "new",
+                "change", "B/op before", "B/op new");
+        for (BenchmarkHarness.Result result : current) {
+            BenchmarkHarness.Result before = baseline.remove(result.name());
+            if (before == null) {
+                System.out.printf(Locale.ROOT, "%-28s %14s %14.1f %9s%n", result.name(), "-",
+                        result.opsPerSecond(), "new");
+                continue;
+            }
+            double change = (result.opsPerSecond() - before.opsPerSecond())
+                    / before.opsPerSecond() * 100;
+            boolean noise = Math.abs(result.opsPerSecond() - before.opsPerSecond())
+                    <= result.error() + before.error();
+            boolean slower = change < -threshold && !noise;
+            boolean moreGarbage = before.bytesPerOp() >= 0 && result.bytesPerOp() >= 0
+                    && result.bytesPerOp() > before.bytesPerOp() * (1 + threshold / 100)
+                    && result.bytesPerOp() - before.bytesPerOp() >= ALLOCATION_SLACK;
+            if (slower || moreGarbage) {
+                regressions++;
+            }
+            System.out.printf(Locale.ROOT, "%-28s %14.1f %14.1f %+8.1f%% %12.1f %12.1f%s%s%n",
+                    result.name(), before.opsPerSecond(), result.opsPerSecond(), change,
+                    before.bytesPerOp(), result.bytesPerOp(), slower ? "  SLOWER" : "",
+                    moreGarbage ? "  MORE GARBAGE" : "");
+        }
+        for (String missing : baseline.keySet()) {
+            System.out.printf("%-28s %14s %14s %9s%n", missing, "", "-", "gone");
+        }
+        if (regressions > 0) {
+            System.out.println(regressions + " benchmark(s) got more than " + threshold
+                    + "% slower or allocate more than they did");
+            System.exit(1);
+        }
+    }
+}
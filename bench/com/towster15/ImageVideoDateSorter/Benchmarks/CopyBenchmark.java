@@ -0,0 +1,100 @@
+package com.towster15.ImageVideoDateSorter.Benchmarks;
+
+import com.towster15.ImageVideoDateSorter.Sorters.ChannelCopier;
+import com.towster15.ImageVideoDateSorter.Sorters.FileCopier;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Compares the throughput of {@link FileCopier#FILES} against
+ * {@link ChannelCopier} with a few chunk sizes, for a range of file
+ * sizes.
+ * <p>
+ * Usage: {@code CopyBenchmark <scratch folder> [passes] [largest size in MB]}
+ * <p>
+ * Test files are written to the scratch folder and copied within it,
+ * so put it on the disk you want to measure, or give a second disk
+ * by making the folder a link to it. The first pass warms up the JIT
+ * and isn't reported. Everything is read from the page cache after
+ * the first pass, so drop it between runs if that matters.
+ */
+public class CopyBenchmark {
+    private static final int MB = 1024 * 1024;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: CopyBenchmark <scratch folder> [passes] [largest size in MB]");
+            System.exit(1);
+        }
+        Path scratch = Files.createDirectories(Path.of(args[0]));
+        int passes = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        long largest = (args.length > 2 ? Long.parseLong(args[2]) : 256) * MB;
+
+        Map<String, FileCopier> copiers = new LinkedHashMap<>();
+        copiers.put("files-copy", FileCopier.FILES);
+        copiers.put("channel-1MB", new ChannelCopier(MB));
+        copiers.put("channel-8MB", new ChannelCopier(8 * MB));
+        copiers.put("channel-64MB", new ChannelCopier(64 * MB));
+
+        System.out.printf("%-14s %12s %10s %10s%n", "copier", "file size", "files", "MB/s");
+        for (long size = 64 * 1024; size <= largest; size *= 16) {
+            Path source = scratch.resolve("source-" + size);
+            writeRandom(source, size);
+            // Copy about the same amount of data at each size
+            int count = (int) Math.max(1, Math.min(200, largest / size));
+            for (int pass = 0; pass <= passes; pass++) {
+                for (Map.Entry<String, FileCopier> copier : copiers.entrySet()) {
+                    long nanos = run(copier.getValue(), source, scratch, count);
+                    if (pass > 0) {
+                        System.out.printf("%-14s %12s %10d %10.1f%n", copier.getKey(),
+                                describe(size), count, (double) size * count / MB / (nanos / 1e9));
+                    }
+                }
+            }
+            Files.delete(source);
+        }
+    }
+
+    /**
+     * @return the time taken to make the copies in nanoseconds, not
+     * counting deleting them again
+     */
+    private static long run(FileCopier copier, Path source, Path scratch, int count)
+            throws IOException {
+        Path[] targets = new Path[count];
+        for (int i = 0; i < count; i++) {
+            targets[i] = scratch.resolve("copy-" + i);
+            Files.deleteIfExists(targets[i]);
+        }
+        long start = System.nanoTime();
+        for (Path target : targets) {
+            copier.copy(source, target);
+        }
+        long nanos = System.nanoTime() - start;
+        for (Path target : targets) {
+            Files.delete(target);
+        }
+        return nanos;
+    }
+
+    private static void writeRandom(Path file, long size) throws IOException {
+        Random random = new Random(size);
+        byte[] block = new byte[MB];
+        try (OutputStream out = Files.newOutputStream(file)) {
+            for (long written = 0; written < size; written += block.length) {
+                random.nextBytes(block);
+                out.write(block, 0, (int) Math.min(block.length, size - written));
+            }
+        }
+    }
+
+    private static String describe(long size) {
+        return size >= MB ? size / MB + " MB" : size / 1024 + " KB";
+    }
+}
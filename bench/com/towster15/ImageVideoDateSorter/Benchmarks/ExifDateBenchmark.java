@@ -0,0 +1,119 @@
+package com.towster15.ImageVideoDateSorter.Benchmarks;
+
+import com.towster15.ImageVideoDateSorter.Metadata.JpegExifReader;
+import org.apache.commons.imaging.ImageReadException;
+import org.apache.commons.imaging.Imaging;
+import org.apache.commons.imaging.common.ImageMetadata;
+import org.apache.commons.imaging.formats.jpeg.JpegImageMetadata;
+import org.apache.commons.imaging.formats.tiff.constants.ExifTagConstants;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Compares reading JPEG dates through Commons Imaging against
+ * {@link JpegExifReader}, printing the time and bytes read per file.
+ * <p>
+ * Usage: {@code ExifDateBenchmark <folder of JPEGs> [passes]}
+ * <p>
+ * The first pass warms up the JIT and isn't reported. Run it twice
+ * with a cold cache as well if disk reads are what you care about.
+ */
+public class ExifDateBenchmark {
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: ExifDateBenchmark <folder of JPEGs> [passes]");
+            System.exit(1);
+        }
+        int passes = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        List<Path> files;
+        try (Stream<Path> stream = Files.list(Path.of(args[0]))) {
+            files = stream.filter(path -> JpegExifReader.handles(path.toFile())).toList();
+        }
+        if (files.isEmpty()) {
+            System.err.println("No JPEGs found in " + args[0]);
+            System.exit(1);
+        }
+
+        System.out.printf("%d files, %d passes%n", files.size(), passes);
+        System.out.printf("%-16s %12s %14s%n", "path", "us/file", "bytes/file");
+        for (int pass = 0; pass <= passes; pass++) {
+            long[] imaging = runImaging(files);
+            long[] fast = runFastPath(files);
+            if (pass > 0) {
+                report("commons-imaging", imaging, files.size());
+                report("header-only", fast, files.size());
+            }
+        }
+    }
+
+    /**
+     * @return the time taken in nanoseconds and the bytes read
+     */
+    private static long[] runImaging(List<Path> files) throws IOException {
+        long bytes = 0;
+        long start = System.nanoTime();
+        for (Path file : files) {
+            try (CountingInputStream in = new CountingInputStream(Files.newInputStream(file))) {
+                ImageMetadata metadata = Imaging.getMetadata(in, file.getFileName().toString());
+                if (metadata instanceof JpegImageMetadata jpegMetadata
+                        && jpegMetadata.getExif() != null) {
+                    jpegMetadata.getExif().getFieldValue(
+                            ExifTagConstants.EXIF_TAG_DATE_TIME_ORIGINAL);
+                }
+                bytes += in.count;
+            } catch (ImageReadException ignored) {
+                // Counted the same as a successful read
+            }
+        }
+        return new long[]{System.nanoTime() - start, bytes};
+    }
+
+    /**
+     * @return the time taken in nanoseconds and the bytes read
+     */
+    private static long[] runFastPath(List<Path> files) throws IOException {
+        JpegExifReader reader = new JpegExifReader();
+        long start = System.nanoTime();
+        for (Path file : files) {
+            reader.readDate(file);
+        }
+        return new long[]{System.nanoTime() - start, reader.getBytesRead()};
+    }
+
+    private static void report(String name, long[] result, int fileCount) {
+        System.out.printf("%-16s %12.1f %14d%n", name,
+                result[0] / 1000.0 / fileCount, result[1] / fileCount);
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+        private long count = 0;
+
+        private CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+    }
+}
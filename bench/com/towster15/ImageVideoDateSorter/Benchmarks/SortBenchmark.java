@@ -0,0 +1,498 @@
+package com.towster15.ImageVideoDateSorter.Benchmarks;
+
+import com.towster15.ImageVideoDateSorter.Metadata.FileProbe;
+import com.towster15.ImageVideoDateSorter.Metadata.JpegExifReader;
+import com.towster15.ImageVideoDateSorter.Metadata.ResolvedDate;
+import com.towster15.ImageVideoDateSorter.Metrics.SortMetrics;
+import com.towster15.ImageVideoDateSorter.Scanners.DirectoryScanner;
+import com.towster15.ImageVideoDateSorter.Scanners.FileClassifier;
+import com.towster15.ImageVideoDateSorter.Scanners.FileType;
+import com.towster15.ImageVideoDateSorter.Sorters.DateFolderRegistry;
+import com.towster15.ImageVideoDateSorter.Sorters.DestinationResolver;
+import com.towster15.ImageVideoDateSorter.Sorters.FileCopier;
+import com.towster15.ImageVideoDateSorter.Sorters.FileTransferer;
+import com.towster15.ImageVideoDateSorter.Sorters.ImageSorter;
+import com.towster15.ImageVideoDateSorter.Sorters.SortCancellation;
+import com.towster15.ImageVideoDateSorter.Sorters.SortTask;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Benchmarks the parts of a sort that decide how fast it goes, each
+ * on its own, so a change to one of them can be measured without the
+ * others getting in the way:
+ * <ul>
+ *     <li>date: dating images through {@link ImageSorter}, from
+ *     generated JPEGs, PNGs and HEICs, and from a folder of real
+ *     photos if given, and just the probe and EXIF reader on their
+ *     own</li>
+ *     <li>classify: telling images and videos apart by name, and by
+ *     reading the start of generated files that have no extension</li>
+ *     <li>transfer: moving dated files into place with
+ *     {@link FileTransferer}, with and without clashing names</li>
+ *     <li>handoff: passing files between threads on a queue, the way
+ *     the scanner hands them to the sorters</li>
+ *     <li>scan: listing a generated tree of folders with
+ *     {@link DirectoryScanner}, on one thread, several, in order, and
+ *     in disk order</li>
+ * </ul>
+ * <p>
+ * Usage: {@code SortBenchmark <scratch folder> [photo folder] [results file]}
+ * <p>
+ * Everything is generated in a new folder within the scratch folder,
+ * which is deleted afterwards, so nothing else in the scratch folder
+ * is touched. Saving the results lets runs from different commits be
+ * compared with {@link CompareResults}. Use "-" to skip the photo
+ * folder but still save results.
+ */
+public class SortBenchmark {
+    private static final int DATE_FILES = 2000;
+    private static final int TRANSFER_FILES = 2000;
+    private static final int HANDOFF_ITEMS = 1_000_000;
+    private static final int SCAN_WIDTH = 20;
+    private static final int SCAN_FILES_PER_FOLDER = 20;
+    private static final File END = new File("");
+
+    private static final Logger LOGGER = Logger.getLogger("SortBenchmark");
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: SortBenchmark <scratch folder> [photo folder] "
+                    + "[results file]");
+            System.exit(1);
+        }
+        LOGGER.setLevel(Level.OFF);
+        Path scratch = Files.createTempDirectory(Files.createDirectories(Path.of(args[0])),
+                "sort-benchmark");
+        Path photos = args.length > 1 && !args[1].equals("-") ? Path.of(args[1]) : null;
+        BenchmarkHarness harness = new BenchmarkHarness(3, 5);
+
+        try {
+            benchmarkDates(harness, scratch, photos);
+            benchmarkClassification(harness, scratch);
+            benchmarkTransfers(harness, scratch, false);
+            benchmarkTransfers(harness, scratch, true);
+            benchmarkHandoff(harness, 1);
+            benchmarkHandoff(harness, 4);
+            benchmarkScan(harness, scratch);
+        } finally {
+            deleteTree(scratch);
+        }
+        if (args.length > 2) {
+            harness.save(Path.of(args[2]));
+        }
+    }
+
+    private static void benchmarkDates(BenchmarkHarness harness, Path scratch, Path photos)
+            throws Exception {
+        Path folder = Files.createDirectories(scratch.resolve("dates"));
+        List<File> generated = new ArrayList<>();
+        for (int i = 0; i < DATE_FILES; i++) {
+            Path image = folder.resolve("IMG_" + i + ".JPG");
+            writeJpeg(image, 2000 + i % 25, 1 + i % 12, 1 + i % 28);
+            generated.add(image.toFile());
+        }
+        harness.measure("date.generated-jpeg", "files/s", () -> dateAll(generated));
+        harness.measure("date.probe-exif", "files/s", () -> probeAll(generated));
+
+        // These go through Commons Imaging rather than the header-only
+        // reader, with the same EXIF as the JPEGs
+        List<File> pngs = new ArrayList<>();
+        List<File> heics = new ArrayList<>();
+        for (int i = 0; i < DATE_FILES; i++) {
+            byte[] exif = exifTiff(2000 + i % 25, 1 + i % 12, 1 + i % 28);
+            Path png = folder.resolve("IMG_" + i + ".PNG");
+            writePng(png, exif);
+            pngs.add(png.toFile());
+            Path heic = folder.resolve("IMG_" + i + ".HEIC");
+            writeHeic(heic, exif);
+            heics.add(heic.toFile());
+        }
+        harness.measure("date.generated-png", "files/s", () -> dateAll(pngs));
+        harness.measure("date.generated-heic", "files/s", () -> dateAll(heics));
+
+        if (photos != null) {
+            List<File> samples;
+            try (Stream<Path> stream = Files.list(photos)) {
+                samples = stream.map(Path::toFile)
+                        .filter(file -> FileClassifier.byName(file.getName()) == FileType.IMAGE)
+                        .toList();
+            }
+            if (samples.isEmpty()) {
+                System.err.println("No images found in " + photos);
+            } else {
+                harness.measure("date.photos", "files/s", () -> dateAll(samples));
+            }
+        }
+    }
+
+    /**
+     * Dates every image on this thread, through the same code the
+     * image sorters use.
+     */
+    private static long dateAll(List<File> images) throws InterruptedException {
+        BlockingQueue<File> imageQueue = new ArrayBlockingQueue<>(images.size() + 1);
+        BlockingQueue<SortTask> transferQueue = new ArrayBlockingQueue<>(images.size() + 1);
+        imageQueue.addAll(images);
+        imageQueue.add(DirectoryScanner.END_OF_SCAN);
+        new ImageSorter(LOGGER, imageQueue, transferQueue, null, null, new File(""), true,
+                false, true, false, null, cancellation(), metrics()).sortImages();
+        return images.size();
+    }
+
+    /**
+     * Reads each image's date the way a sorter does once it has the
+     * file, opening it as a probe, reading the EXIF header and summing
+     * it up for the duplicate check, without the queues around it. On
+     * its own like this, the bytes per file show what the metadata
+     * path allocates, which is close to nothing apart from opening the
+     * file.
+     */
+    private static long probeAll(List<File> images) throws IOException {
+        JpegExifReader reader = new JpegExifReader();
+        for (File image : images) {
+            try (FileProbe probe = FileProbe.open(image.toPath())) {
+                ResolvedDate date = reader.readDate(probe);
+                if (date == null || !date.hasDate() || probe.summary() == null) {
+                    throw new IllegalStateException(image + " wasn't dated");
+                }
+            }
+        }
+        return images.size();
+    }
+
+    private static void benchmarkClassification(BenchmarkHarness harness, Path scratch)
+            throws Exception {
+        String[] extensions = {".JPG", ".jpeg", ".png", ".HEIC", ".mp4", ".MOV", ".aae",
+                ".txt", ".mts", ".webp", ".dng", ".mkv"};
+        List<File> files = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            files.add(new File("/photos/2021/Trip " + i % 17 + "/IMG_" + i
+                    + extensions[i % extensions.length]));
+        }
+        harness.measure("classify", "files/s", () -> {
+            long images = 0;
+            for (int pass = 0; pass < 20; pass++) {
+                for (File file : files) {
+                    FileType type = FileClassifier.byName(file.getName());
+                    if (type == FileType.IMAGE || type == FileType.VIDEO) {
+                        images++;
+                    }
+                }
+            }
+            if (images == 0) {
+                throw new IllegalStateException("Nothing was classified");
+            }
+            return 20L * files.size();
+        });
+
+        // No extensions, so every file has to be read to tell what it is
+        Path folder = Files.createDirectories(scratch.resolve("sniff"));
+        List<Path> unnamed = new ArrayList<>();
+        List<FileType> expected = new ArrayList<>();
+        for (int i = 0; i < DATE_FILES; i++) {
+            Path file = folder.resolve("file" + i);
+            switch (i % 3) {
+                case 0 -> {
+                    writeJpeg(file, 2021, 6, 15);
+                    expected.add(FileType.IMAGE);
+                }
+                case 1 -> {
+                    Files.write(file, new byte[]{(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A,
+                            '\n', 0, 0, 0, 13, 'I', 'H', 'D', 'R'});
+                    expected.add(FileType.IMAGE);
+                }
+                default -> {
+                    Files.write(file, new byte[]{0, 0, 0, 24, 'f', 't', 'y', 'p', 'i', 's', 'o',
+                            'm', 0, 0, 2, 0, 'i', 's', 'o', 'm', 'm', 'p', '4', '1'});
+                    expected.add(FileType.VIDEO);
+                }
+            }
+            unnamed.add(file);
+        }
+        FileClassifier sniffer = new FileClassifier(true);
+        harness.measure("classify.sniff", "files/s", () -> {
+            for (int i = 0; i < unnamed.size(); i++) {
+                if (sniffer.classify(unnamed.get(i)) != expected.get(i)) {
+                    throw new IllegalStateException(unnamed.get(i) + " wasn't recognised");
+                }
+            }
+            return unnamed.size();
+        });
+    }
+
+    /**
+     * Moves files into a date folder through a single transferer. With
+     * collisions, every file shares its name with others, so most get
+     * numbered.
+     */
+    private static void benchmarkTransfers(BenchmarkHarness harness, Path scratch,
+                                           boolean collisions) throws Exception {
+        Path source = scratch.resolve("transfer-source");
+        Path destination = scratch.resolve("transfer-destination");
+        List<File> files = new ArrayList<>();
+        for (int i = 0; i < TRANSFER_FILES; i++) {
+            String name = collisions ? "IMG_" + i % 100 + ".JPG" : "IMG_" + i + ".JPG";
+            files.add(source.resolve("folder " + i / 100).resolve(name).toFile());
+        }
+        String name = collisions ? "transfer.collisions" : "transfer.unique";
+        harness.measure(name, "files/s", () -> {
+            deleteTree(destination);
+            deleteTree(source);
+            for (File file : files) {
+                Files.createDirectories(file.toPath().getParent());
+                Files.write(file.toPath(), new byte[]{1});
+            }
+            Files.createDirectories(destination);
+        }, () -> {
+            BlockingQueue<SortTask> tasks = new ArrayBlockingQueue<>(files.size() + 1);
+            for (File file : files) {
+                tasks.add(SortTask.dated(file, 20210615));
+            }
+            tasks.add(SortTask.END);
+            SortMetrics metrics = metrics();
+            new FileTransferer(LOGGER, tasks, new DateFolderRegistry(LOGGER, true, metrics),
+                    new DestinationResolver(destination.toFile(), false), null,
+                    destination.toFile(), false, false, FileCopier.FILES, null, null, null,
+                    null, cancellation(), metrics).run();
+            if (metrics.getFilesSorted() != files.size()) {
+                throw new IllegalStateException("Only moved " + metrics.getFilesSorted()
+                        + " files");
+            }
+            return files.size();
+        });
+        deleteTree(destination);
+        deleteTree(source);
+    }
+
+    /**
+     * Passes files from one thread to several through a bounded queue,
+     * ending with a marker that each taker puts back for the others.
+     */
+    private static void benchmarkHandoff(BenchmarkHarness harness, int takers) throws Exception {
+        File file = new File("IMG_0001.JPG");
+        harness.measure("handoff.1x" + takers, "files/s", () -> {
+            BlockingQueue<File> queue = new ArrayBlockingQueue<>(1024);
+            List<Thread> threads = new ArrayList<>();
+            for (int i = 0; i < takers; i++) {
+                threads.add(new Thread(() -> {
+                    try {
+                        File taken;
+                        while ((taken = queue.take()) != END) {
+                            taken.getName();
+                        }
+                        queue.put(END);
+                    } catch (InterruptedException intEx) {
+                        Thread.currentThread().interrupt();
+                    }
+                }));
+                threads.getLast().start();
+            }
+            for (int i = 0; i < HANDOFF_ITEMS; i++) {
+                queue.put(file);
+            }
+            queue.put(END);
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            return HANDOFF_ITEMS;
+        });
+    }
+
+    private static void benchmarkScan(BenchmarkHarness harness, Path scratch) throws Exception {
+        Path tree = scratch.resolve("scan");
+        String[] extensions = {".JPG", ".JPG", ".JPG", ".PNG", ".MOV", ".AAE", ".txt"};
+        int files = 0;
+        for (int i = 0; i < SCAN_WIDTH; i++) {
+            for (int j = 0; j < SCAN_WIDTH; j++) {
+                Path folder = Files.createDirectories(tree.resolve("year " + i)
+                        .resolve("event " + j));
+                for (int k = 0; k < SCAN_FILES_PER_FOLDER; k++) {
+                    Files.createFile(folder.resolve("IMG_" + k
+                            + extensions[k % extensions.length]));
+                    files++;
+                }
+            }
+        }
+        int threads = Runtime.getRuntime().availableProcessors();
+        long entries = files;
+        harness.measure("scan.walk", "files/s", () -> scan(tree, entries, 1, false, 0));
+        harness.measure("scan.parallel", "files/s",
+                () -> scan(tree, entries, threads, false, 0));
+        harness.measure("scan.ordered", "files/s", () -> scan(tree, entries, threads, true, 0));
+        harness.measure("scan.locality", "files/s",
+                () -> scan(tree, entries, threads, false, 1024));
+    }
+
+    /**
+     * Scans the tree on this thread, into queues big enough that
+     * nothing has to wait for a sorter.
+     */
+    private static long scan(Path tree, long files, int threads, boolean ordered,
+                             int localityWindow) {
+        int capacity = (int) files + 1;
+        BlockingQueue<File> images = new ArrayBlockingQueue<>(capacity);
+        BlockingQueue<File> aaes = new ArrayBlockingQueue<>(capacity);
+        BlockingQueue<File> videos = new ArrayBlockingQueue<>(capacity);
+        SortMetrics metrics = metrics();
+        new DirectoryScanner(LOGGER, tree.toFile(), images, aaes, videos, false, threads, ordered,
+                localityWindow, new FileClassifier(false), null, cancellation(), metrics).run();
+        if (metrics.getFilesFound() == 0) {
+            throw new IllegalStateException("Nothing was found");
+        }
+        return files;
+    }
+
+    private static SortCancellation cancellation() {
+        return new SortCancellation(LOGGER, Duration.ZERO);
+    }
+
+    private static SortMetrics metrics() {
+        return new SortMetrics(LOGGER);
+    }
+
+    /**
+     * Writes a small JPEG with just enough EXIF for the date to be
+     * read.
+     */
+    private static void writeJpeg(Path file, int year, int month, int day) throws IOException {
+        byte[] tiff = exifTiff(year, month, day);
+        ByteBuffer jpeg = ByteBuffer.allocate(2 + 4 + 6 + tiff.length + 2 + 1024 + 2);
+        jpeg.putShort((short) 0xFFD8);
+        jpeg.putShort((short) 0xFFE1).putShort((short) (2 + 6 + tiff.length));
+        jpeg.put("Exif\0\0".getBytes(StandardCharsets.US_ASCII)).put(tiff);
+        // Stand in for the image data, which isn't read
+        jpeg.putShort((short) 0xFFDA);
+        jpeg.position(jpeg.position() + 1024);
+        jpeg.putShort((short) 0xFFD9);
+        Files.write(file, jpeg.array());
+    }
+
+    /**
+     * Writes a one pixel PNG with its EXIF in an eXIf chunk.
+     */
+    private static void writePng(Path file, byte[] tiff) throws IOException {
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        png.write(new byte[]{(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'});
+        // One grey pixel, eight bits deep
+        pngChunk(png, "IHDR", ByteBuffer.allocate(13).putInt(1).putInt(1).put((byte) 8)
+                .put((byte) 0).array());
+        pngChunk(png, "eXIf", tiff);
+        Deflater deflater = new Deflater();
+        deflater.setInput(new byte[]{0, 0});
+        deflater.finish();
+        byte[] pixels = new byte[64];
+        int length = deflater.deflate(pixels);
+        deflater.end();
+        pngChunk(png, "IDAT", Arrays.copyOf(pixels, length));
+        pngChunk(png, "IEND", new byte[0]);
+        Files.write(file, png.toByteArray());
+    }
+
+    private static void pngChunk(ByteArrayOutputStream png, String type, byte[] data) {
+        byte[] name = type.getBytes(StandardCharsets.US_ASCII);
+        CRC32 crc = new CRC32();
+        crc.update(name);
+        crc.update(data);
+        png.writeBytes(ByteBuffer.allocate(4).putInt(data.length).array());
+        png.writeBytes(name);
+        png.writeBytes(data);
+        png.writeBytes(ByteBuffer.allocate(4).putInt((int) crc.getValue()).array());
+    }
+
+    /**
+     * Writes a HEIC holding only an Exif item, which is where phones
+     * put the date in theirs. There's no picture, as only the EXIF is
+     * read.
+     */
+    private static void writeHeic(Path file, byte[] tiff) throws IOException {
+        byte[] ftyp = box("ftyp", "heic\0\0\0\0mif1heic".getBytes(StandardCharsets.US_ASCII));
+        byte[] hdlr = fullBox("hdlr", 0, ByteBuffer.allocate(21).putInt(0)
+                .put("pict".getBytes(StandardCharsets.US_ASCII)).array());
+        byte[] infe = fullBox("infe", 2, ByteBuffer.allocate(9).putShort((short) 1)
+                .putShort((short) 0).put("Exif".getBytes(StandardCharsets.US_ASCII)).array());
+        byte[] iinf = fullBox("iinf", 0, ByteBuffer.allocate(2 + infe.length)
+                .putShort((short) 1).put(infe).array());
+        byte[] exif = ByteBuffer.allocate(4 + 6 + tiff.length).putInt(6)
+                .put("Exif\0\0".getBytes(StandardCharsets.US_ASCII)).put(tiff).array();
+        // The item's offset is from the start of the file, so where the
+        // data starts is worked out from the size the boxes will be
+        int ilocSize = 12 + 18;
+        int metaSize = 12 + hdlr.length + iinf.length + ilocSize;
+        int dataStart = ftyp.length + metaSize + 8;
+        byte[] iloc = fullBox("iloc", 0, ByteBuffer.allocate(18).put((byte) 0x44).put((byte) 0)
+                .putShort((short) 1).putShort((short) 1).putShort((short) 0)
+                .putShort((short) 1).putInt(dataStart).putInt(exif.length).array());
+        byte[] meta = fullBox("meta", 0, concat(hdlr, iinf, iloc));
+        Files.write(file, concat(ftyp, meta, box("mdat", exif)));
+    }
+
+    private static byte[] box(String type, byte[] data) {
+        return ByteBuffer.allocate(8 + data.length).putInt(8 + data.length)
+                .put(type.getBytes(StandardCharsets.US_ASCII)).put(data).array();
+    }
+
+    private static byte[] fullBox(String type, int version, byte[] data) {
+        return box(type, ByteBuffer.allocate(4 + data.length).putInt(version << 24).put(data)
+                .array());
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream joined = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            joined.writeBytes(part);
+        }
+        return joined.toByteArray();
+    }
+
+    /**
+     * Makes the smallest EXIF there can be with a date in it: an IFD
+     * pointing to an EXIF IFD holding DateTimeOriginal.
+     */
+    private static byte[] exifTiff(int year, int month, int day) {
+        byte[] date = String.format("%04d:%02d:%02d 12:00:00\0", year, month, day)
+                .getBytes(StandardCharsets.US_ASCII);
+        ByteBuffer tiff = ByteBuffer.allocate(64).order(ByteOrder.LITTLE_ENDIAN);
+        tiff.put((byte) 'I').put((byte) 'I').putShort((short) 42).putInt(8);
+        // IFD0, with only the EXIF IFD pointer
+        tiff.putShort((short) 1);
+        tiff.putShort((short) 0x8769).putShort((short) 4).putInt(1).putInt(26);
+        tiff.putInt(0);
+        // EXIF IFD, with only DateTimeOriginal
+        tiff.putShort((short) 1);
+        tiff.putShort((short) 0x9003).putShort((short) 2).putInt(date.length).putInt(44);
+        tiff.putInt(0);
+        tiff.put(date);
+        return tiff.array();
+    }
+
+    private static void deleteTree(Path root) throws IOException {
+        if (!Files.exists(root)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(root)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+}
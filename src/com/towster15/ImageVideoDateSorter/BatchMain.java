@@ -0,0 +1,291 @@
+package com.towster15.ImageVideoDateSorter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs a sort from the command line, without a window, so it can be
+ * scheduled on machines with no display. Nothing from AWT or Swing is
+ * loaded.
+ * <p>
+ * Usage: {@code java -cp ImageVideoDateSorter.jar
+ * com.towster15.ImageVideoDateSorter.BatchMain [options] <source> <destination>}
+ * <p>
+ * The options match the checkboxes in the window, and start from the
+ * same defaults. They can also be kept in a properties file given with
+ * {@code --config}, using the names in brackets in the usage message,
+ * where anything given on the command line wins. Tuning options from
+ * {@link SortOptions} can be set with {@code --set name=value} or as
+ * {@code imagesorter.name=value} in the config file.
+ * <p>
+ * Logs go to standard error. Once the sort's finished, a single line
+ * of JSON summing it up is printed to standard output, and the exit
+ * code says how it went:
+ * <ul>
+ *     <li>0: every file that was found was sorted</li>
+ *     <li>1: the sort finished, but some files couldn't be sorted</li>
+ *     <li>2: the arguments or config file were wrong</li>
+ *     <li>3: the sort couldn't be done at all</li>
+ *     <li>4: the sort was cancelled, by an interrupt or terminate
+ *     signal, and can be carried on by running it again</li>
+ * </ul>
+ */
+public class BatchMain {
+    public static final int EXIT_OK = 0;
+    public static final int EXIT_FILES_FAILED = 1;
+    public static final int EXIT_USAGE = 2;
+    public static final int EXIT_SORT_FAILED = 3;
+    public static final int EXIT_CANCELLED = 4;
+    private static final String USAGE = """
+            Usage: BatchMain [options] <source> <destination>
+                   BatchMain [options] --execute-plan FILE <destination>
+              --config FILE        read options from a properties file
+              --no-images          leave images alone                         (images)
+              --separate-broken    put broken images in their own folder      (separateBroken)
+              --no-aaes            leave AAE files alone                      (moveAAEs)
+              --no-sort-aaes       put AAEs in one folder, not with images    (sortAAEs)
+              --videos             move videos into a Videos folder           (videos)
+              --sort-videos        sort videos by date                        (sortVideos)
+              --day-sort           sort into a folder for each day            (daySort)
+              --os-date            fall back on the date the OS has           (osDate)
+              --all-files          sort every file, not only images/videos    (allFiles)
+              --move               move files rather than copying them        (copy=false)
+              --plan FILE          write where files would go, moving nothing (imagesorter.plan)
+              --execute-plan FILE  move the files in a plan from --plan       (imagesorter.executePlan)
+              --set NAME=VALUE     set a tuning option, e.g. --set copyThreads=4
+              --quiet              only log warnings
+              -h, --help           show this message
+            Tuning options include duplicates=off|skip|link for files already
+            in the destination, copyEngine=channel|files and copyChunkSize=BYTES
+            for how files are copied, dateCache=FILE and journal=FOLDER, where
+            an empty value turns them off.
+            The source and destination can also be given as source= and
+            destination= in the config file.""";
+
+    private static final Logger LOGGER = Logger.getLogger("com.towster15.ImageDateSorter");
+
+    public static void main(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+        Properties settings = new Properties();
+        SortJob job;
+        try {
+            job = createJob(args, settings);
+        } catch (IllegalArgumentException | IOException ex) {
+            System.err.println(ex.getMessage());
+            System.err.println(USAGE);
+            System.exit(EXIT_USAGE);
+            return;
+        }
+        if (job == null) {
+            System.out.println(USAGE);
+            System.exit(EXIT_OK);
+            return;
+        }
+        System.exit(run(job));
+    }
+
+    /**
+     * Runs the sort, cancelling it if the program is told to stop
+     * part way through, and prints the summary.
+     *
+     * @return the exit code
+     */
+    private static int run(SortJob job) {
+        CountDownLatch finished = new CountDownLatch(1);
+        Thread cancelOnExit = new Thread(() -> {
+            if (finished.getCount() == 0) {
+                return;
+            }
+            job.cancel();
+            try {
+                finished.await(30, TimeUnit.SECONDS);
+            } catch (InterruptedException ignored) {
+                // Stopping anyway
+            }
+            Runtime.getRuntime().halt(EXIT_CANCELLED);
+        });
+        Runtime.getRuntime().addShutdownHook(cancelOnExit);
+
+        int exitCode;
+        String status;
+        try {
+            job.run();
+            if (job.isCancelled()) {
+                exitCode = EXIT_CANCELLED;
+                status = "cancelled";
+            } else if (job.getMetrics().getFilesFailed() > 0) {
+                exitCode = EXIT_FILES_FAILED;
+                status = "files_failed";
+            } else {
+                exitCode = EXIT_OK;
+                status = "ok";
+            }
+        } catch (IOException | RuntimeException ex) {
+            LOGGER.log(Level.SEVERE, "Sort failed", ex);
+            exitCode = EXIT_SORT_FAILED;
+            status = "failed";
+        }
+        System.out.println("{\"status\":\"" + status + "\",\"exitCode\":" + exitCode
+                + ",\"filesSkipped\":" + job.getSkipped()
+                + ",\"metrics\":" + job.getMetrics().toJson() + "}");
+        System.out.flush();
+        finished.countDown();
+        try {
+            Runtime.getRuntime().removeShutdownHook(cancelOnExit);
+        } catch (IllegalStateException shuttingDown) {
+            // The hook is already running, and will exit once it sees
+            // the sort has finished
+        }
+        return exitCode;
+    }
+
+    /**
+     * Builds the sort from the command line and config file.
+     *
+     * @param args     the command line
+     * @param settings filled in with the settings that were given
+     * @return the sort, ready to run, or null if the usage message was
+     * asked for
+     */
+    private static SortJob createJob(String[] args, Properties settings) throws IOException {
+        Path config = null;
+        String source = null;
+        String destination = null;
+        Properties overrides = new Properties();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            switch (arg) {
+                case "--config" -> config = Path.of(value(args, ++i, arg));
+                case "--no-images" -> overrides.setProperty("images", "false");
+                case "--separate-broken" -> overrides.setProperty("separateBroken", "true");
+                case "--no-aaes" -> overrides.setProperty("moveAAEs", "false");
+                case "--no-sort-aaes" -> overrides.setProperty("sortAAEs", "false");
+                case "--videos" -> overrides.setProperty("videos", "true");
+                case "--sort-videos" -> {
+                    overrides.setProperty("videos", "true");
+                    overrides.setProperty("sortVideos", "true");
+                }
+                case "--day-sort" -> overrides.setProperty("daySort", "true");
+                case "--os-date" -> overrides.setProperty("osDate", "true");
+                case "--all-files" -> overrides.setProperty("allFiles", "true");
+                case "--move" -> overrides.setProperty("copy", "false");
+                case "--quiet" -> overrides.setProperty("quiet", "true");
+                case "--plan" -> overrides.setProperty("imagesorter.plan", value(args, ++i, arg));
+                case "--execute-plan" -> overrides.setProperty("imagesorter.executePlan",
+                        value(args, ++i, arg));
+                case "--set" -> {
+                    String option = value(args, ++i, arg);
+                    int equals = option.indexOf('=');
+                    if (equals <= 0) {
+                        throw new IllegalArgumentException("--set needs NAME=VALUE, not "
+                                + option);
+                    }
+                    overrides.setProperty("imagesorter." + option.substring(0, equals),
+                            option.substring(equals + 1));
+                }
+                case "-h", "--help" -> {
+                    return null;
+                }
+                default -> {
+                    if (arg.startsWith("-")) {
+                        throw new IllegalArgumentException("Unknown option " + arg);
+                    } else if (source == null) {
+                        source = arg;
+                    } else if (destination == null) {
+                        destination = arg;
+                    } else {
+                        throw new IllegalArgumentException("Unexpected argument " + arg);
+                    }
+                }
+            }
+        }
+
+        if (config != null) {
+            try (Reader reader = Files.newBufferedReader(config, StandardCharsets.UTF_8)) {
+                settings.load(reader);
+            }
+        }
+        settings.putAll(overrides);
+        if (destination == null && settings.getProperty("imagesorter.executePlan") != null) {
+            // A plan already says where its files are coming from
+            destination = source;
+            source = null;
+        }
+        if (source != null) {
+            settings.setProperty("source", source);
+        }
+        if (destination != null) {
+            settings.setProperty("destination", destination);
+        }
+
+        // SortOptions reads its defaults from the system properties
+        for (String name : settings.stringPropertyNames()) {
+            if (name.startsWith("imagesorter.")) {
+                System.setProperty(name, settings.getProperty(name));
+            }
+        }
+        if (flag(settings, "quiet", false)) {
+            Logger.getLogger("").setLevel(Level.WARNING);
+        }
+        SortOptions options = new SortOptions();
+
+        String destinationDir = settings.getProperty("destination");
+        String sourceDir = settings.getProperty("source");
+        if (destinationDir == null
+                || (sourceDir == null && options.getExecutePlanFile() == null)) {
+            throw new IllegalArgumentException("A source and destination folder are needed");
+        }
+        if (sourceDir != null && !new File(sourceDir).isDirectory()) {
+            throw new IllegalArgumentException(sourceDir + " isn't a folder");
+        }
+        if (new File(destinationDir).isFile()) {
+            throw new IllegalArgumentException(destinationDir + " isn't a folder");
+        }
+        // Scheduled sorts may be the first into a new folder
+        Files.createDirectories(Path.of(destinationDir));
+        return new SortJob(LOGGER,
+                new File(sourceDir != null ? sourceDir : ""),
+                new File(destinationDir),
+                flag(settings, "images", true),
+                flag(settings, "separateBroken", false),
+                flag(settings, "moveAAEs", true),
+                flag(settings, "sortAAEs", true),
+                flag(settings, "videos", false),
+                flag(settings, "sortVideos", false),
+                flag(settings, "daySort", false),
+                flag(settings, "osDate", false),
+                flag(settings, "allFiles", false),
+                flag(settings, "copy", true),
+                options);
+    }
+
+    private static String value(String[] args, int index, String option) {
+        if (index >= args.length) {
+            throw new IllegalArgumentException(option + " needs a value");
+        }
+        return args[index];
+    }
+
+    private static boolean flag(Properties settings, String name, boolean defaultValue) {
+        String value = settings.getProperty(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        if (value.equalsIgnoreCase("true")) {
+            return true;
+        }
+        if (value.equalsIgnoreCase("false")) {
+            return false;
+        }
+        throw new IllegalArgumentException(name + " should be true or false, not " + value);
+    }
+}
@@ -124,8 +124,7 @@ public class Main extends JFrame implements ActionListener, ItemListener, Proper
 
         sortAAEsCheckBox = new JCheckBox("Sort AAEs");
         sortAAEsCheckBox.setToolTipText("Sorts the AAE files to be with their matching images " +
-                "where possible. This will hinder speed as it forces images to be sorted in a " +
-                "single-threaded manner.");
+                "where possible. The AAEs are sorted once all of the images have been.");
         sortAAEsCheckBox.setFont(FONT);
         sortAAEsCheckBox.addItemListener(this);
 
@@ -311,7 +310,7 @@ public class Main extends JFrame implements ActionListener, ItemListener, Proper
                 worker = new Worker(
                         LOGGER, sourceDir, destinationDir, sortImages, separateBrokenImages,
                         moveAAEs, sortAAEs, moveVideos, sortVideos, daySort, OSCreateDateSort,
-                        sortAllFiles, copyInsteadOfMove
+                        sortAllFiles, copyInsteadOfMove, new SortOptions()
                 );
                 worker.addPropertyChangeListener(this);
                 worker.execute();
@@ -0,0 +1,55 @@
+package com.towster15.ImageVideoDateSorter.Metadata;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Direct buffers of one size, handed out to whichever thread needs
+ * one. Each sorter thread keeps its own, as with {@link PerThread}.
+ * Direct buffers are slow to make, so rather than a new one each, a
+ * virtual thread borrows one from a shared pool and gives it back
+ * when it's done.
+ * <p>
+ * The pool only grows to as many buffers as there have been virtual
+ * threads using one at the same time.
+ */
+public final class BufferPool {
+    private final int size;
+    private final PerThread<ByteBuffer> buffers;
+    private final ConcurrentLinkedQueue<ByteBuffer> shared = new ConcurrentLinkedQueue<>();
+
+    /**
+     * @param size how big each buffer is
+     */
+    public BufferPool(int size) {
+        this.size = size;
+        buffers = new PerThread<>(() -> ByteBuffer.allocateDirect(size), this::borrow);
+    }
+
+    /**
+     * Gets a buffer for this thread to use, which has to be given back
+     * with {@link #give(ByteBuffer)} on the same thread once it's
+     * finished with.
+     *
+     * @return a cleared buffer
+     */
+    public ByteBuffer take() {
+        return buffers.get().clear();
+    }
+
+    /**
+     * Gives back a buffer from {@link #take()}.
+     *
+     * @param buffer the buffer, which mustn't be used again
+     */
+    public void give(ByteBuffer buffer) {
+        if (!buffers.isKept(buffer)) {
+            shared.offer(buffer);
+        }
+    }
+
+    private ByteBuffer borrow() {
+        ByteBuffer buffer = shared.poll();
+        return buffer != null ? buffer : ByteBuffer.allocateDirect(size);
+    }
+}
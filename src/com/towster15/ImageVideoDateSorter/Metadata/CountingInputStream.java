@@ -0,0 +1,46 @@
+package com.towster15.ImageVideoDateSorter.Metadata;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Counts the bytes read, so we know where the last whole record in
+ * an append-only file ends and anything cut off after it can be
+ * dropped.
+ */
+public class CountingInputStream extends FilterInputStream {
+    private long count = 0;
+
+    /**
+     * @param in the stream to count
+     */
+    public CountingInputStream(InputStream in) {
+        super(in);
+    }
+
+    /**
+     * @return how many bytes have been read so far
+     */
+    public long getCount() {
+        return count;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b >= 0) {
+            count++;
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int read = super.read(b, off, len);
+        if (read > 0) {
+            count += read;
+        }
+        return read;
+    }
+}
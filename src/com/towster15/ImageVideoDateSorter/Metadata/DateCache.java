@@ -0,0 +1,379 @@
+package com.towster15.ImageVideoDateSorter.Metadata;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Remembers the dates read from images between runs, so sorting the
+ * same files again only needs a stat of each one rather than parsing
+ * its metadata.
+ * <p>
+ * Entries are keyed on the file key (or the absolute path, where the
+ * file system doesn't have file keys), and are only used while the
+ * file's size and last modified time still match. The cache file is
+ * only read the first time it's needed, and new entries are appended
+ * to the end of it, so a run that's cut short keeps everything it
+ * had already written.
+ * <p>
+ * Only files that are looked up or added during a run are kept past
+ * it. Once enough of the cache file is superseded or unused, it's
+ * rewritten on {@link #close()} with just those, so files that have
+ * since been sorted elsewhere or deleted don't stay in it, or in
+ * memory, forever.
+ * <p>
+ * The cache file is locked from when it's first read until the cache
+ * is closed, as adding to it and rewriting it would otherwise cut off
+ * or throw away another sort's entries. A sort that finds it locked
+ * still uses the dates already in it, but only keeps the dates it reads
+ * itself in memory.
+ * <p>
+ * Only dates read from metadata are kept, not the OS creation date
+ * fallback, which comes from the same stat as the lookup anyway.
+ */
+public class DateCache implements AutoCloseable {
+    private static final int MAGIC = 0x49564443;
+    private static final byte VERSION = 1;
+    private static final DateSource[] SOURCES = DateSource.values();
+
+    private final Logger LOGGER;
+    private final Path cacheFile;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    // Guards reading, writing and closing the cache file
+    private final ReentrantLock lock = new ReentrantLock();
+    private volatile boolean loaded = false;
+    // The locked cache file, or null if it's in use by another sort
+    private FileChannel channel;
+    private DataOutputStream output;
+    // Set once the cache is closed, after which nothing more is written
+    private boolean closed = false;
+    private long recordsOnDisk = 0;
+    private long validLength = 0;
+
+    // The date is kept as it's handed out, so a hit doesn't make a new one
+    private static final class Entry {
+        private final long size;
+        private final long modified;
+        private final ResolvedDate date;
+        // Set once the entry's been looked up or added this run
+        private volatile boolean used;
+
+        private Entry(long size, long modified, ResolvedDate date, boolean used) {
+            this.size = size;
+            this.modified = modified;
+            this.date = date;
+            this.used = used;
+        }
+
+        private boolean sameAs(Entry other) {
+            return other != null && size == other.size && modified == other.modified
+                    && date.equals(other.date);
+        }
+    }
+
+    /**
+     * @param log       the logger to report events to
+     * @param cacheFile where the cache is kept, created if it doesn't
+     *                  exist yet
+     */
+    public DateCache(Logger log, Path cacheFile) {
+        LOGGER = log;
+        this.cacheFile = cacheFile;
+    }
+
+    /**
+     * Looks up the date previously read from a file.
+     *
+     * @param file  the file
+     * @param attrs the file's current attributes
+     * @return the cached date, or null if the file hasn't been seen
+     * or has changed since
+     */
+    public ResolvedDate get(File file, BasicFileAttributes attrs) {
+        ensureLoaded();
+        Entry entry = entries.get(key(file, attrs));
+        if (entry == null || entry.size != attrs.size()
+                || entry.modified != attrs.lastModifiedTime().toMillis()) {
+            return null;
+        }
+        if (!entry.used) {
+            entry.used = true;
+        }
+        return entry.date;
+    }
+
+    /**
+     * Records the date read from a file. Results that might change
+     * next time, like read errors, aren't kept.
+     *
+     * @param file  the file
+     * @param attrs the attributes the file had when it was read
+     * @param date  the date read from the file's metadata
+     */
+    public void put(File file, BasicFileAttributes attrs, ResolvedDate date) {
+        if (date.source() == DateSource.EXIF_ORIGINAL
+                || date.source() == DateSource.EXIF_DIGITIZED) {
+            if (!date.hasDate()) {
+                return;
+            }
+        } else if (date.source() != DateSource.NONE) {
+            return;
+        }
+        ensureLoaded();
+        String key = key(file, attrs);
+        Entry entry = new Entry(attrs.size(), attrs.lastModifiedTime().toMillis(),
+                date.source() == DateSource.NONE ? ResolvedDate.NONE : date, true);
+        if (!entry.sameAs(entries.put(key, entry))) {
+            append(key, entry);
+        }
+    }
+
+    /**
+     * Writes out anything still buffered, then compacts the cache file
+     * down to the entries used this run if most of it is superseded or
+     * unused, and lets go of the lock on it. Dates put after this, by
+     * sorters that didn't stop in time after a cancel, aren't written,
+     * as reopening the file would cut it back to where it was when it
+     * was read.
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (channel == null) {
+                return;
+            }
+            try {
+                if (output != null) {
+                    output.flush();
+                    output = null;
+                }
+                long used = entries.values().stream().filter(entry -> entry.used).count();
+                if (recordsOnDisk > 2L * used + 1024) {
+                    compact();
+                }
+            } finally {
+                channel.close();
+                channel = null;
+            }
+        } catch (IOException ioEx) {
+            LOGGER.log(Level.WARNING, "Failed to save date cache", ioEx);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static String key(File file, BasicFileAttributes attrs) {
+        Object fileKey = attrs.fileKey();
+        return fileKey != null ? fileKey.toString() : file.getAbsolutePath();
+    }
+
+    /**
+     * Locks and reads the cache file the first time it's needed. If
+     * it's locked by another sort, it's only read.
+     */
+    private void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+        lock.lock();
+        try {
+            if (loaded) {
+                return;
+            }
+            if (lockFile()) {
+                // Read through the locked channel, as on some systems
+                // nothing else can read a locked file, and not closed,
+                // as that would let go of the lock
+                read(Channels.newInputStream(channel));
+            } else {
+                LOGGER.log(Level.INFO, "Date cache is in use by another sort, "
+                        + "dates read this time won't be kept");
+                try (InputStream in = Files.newInputStream(cacheFile)) {
+                    read(in);
+                } catch (NoSuchFileException ignored) {
+                    // Nothing cached yet
+                } catch (IOException ioEx) {
+                    LOGGER.log(Level.WARNING, "Failed to read the date cache", ioEx);
+                }
+            }
+            loaded = true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Opens and locks the cache file, making it if it doesn't exist
+     * yet.
+     *
+     * @return true if it's locked, false if it's in use by another
+     * sort or couldn't be opened
+     */
+    private boolean lockFile() {
+        try {
+            Path parent = cacheFile.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            channel = FileChannel.open(cacheFile, StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            FileLock fileLock;
+            try {
+                fileLock = channel.tryLock();
+            } catch (OverlappingFileLockException lockedHere) {
+                // Another sort in this program has it
+                fileLock = null;
+            }
+            if (fileLock != null) {
+                return true;
+            }
+            channel.close();
+        } catch (IOException ioEx) {
+            LOGGER.log(Level.WARNING, "Failed to open the date cache", ioEx);
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                    // Already given up on it
+                }
+            }
+        }
+        channel = null;
+        return false;
+    }
+
+    private void read(InputStream stream) {
+        CountingInputStream counter = new CountingInputStream(new BufferedInputStream(stream));
+        DataInputStream in = new DataInputStream(counter);
+        try {
+            if (in.readInt() == MAGIC && in.readByte() == VERSION) {
+                validLength = counter.getCount();
+                readEntries(in, counter);
+            } else {
+                LOGGER.log(Level.INFO, "Date cache is from another version, starting again");
+            }
+        } catch (EOFException ignored) {
+            // Nothing cached yet
+        } catch (IOException ioEx) {
+            LOGGER.log(Level.WARNING, "Failed to read all of the date cache", ioEx);
+        }
+    }
+
+    private void readEntries(DataInputStream in, CountingInputStream counter)
+            throws IOException {
+        try {
+            while (true) {
+                String key = in.readUTF();
+                long size = in.readLong();
+                long modified = in.readLong();
+                int source = in.readByte();
+                int date = in.readInt();
+                if (source < 0 || source >= SOURCES.length) {
+                    LOGGER.log(Level.WARNING, "Date cache is damaged, ignoring the rest of it");
+                    return;
+                }
+                entries.put(key, new Entry(size, modified, source == DateSource.NONE.ordinal()
+                        ? ResolvedDate.NONE : new ResolvedDate(date, SOURCES[source]), false));
+                recordsOnDisk++;
+                validLength = counter.getCount();
+            }
+        } catch (EOFException endOfCache) {
+            // A run that was cut short can leave half an entry at the
+            // end, which is cut off before anything else is added
+        }
+    }
+
+    private void append(String key, Entry entry) {
+        lock.lock();
+        try {
+            if (closed || channel == null) {
+                return;
+            }
+            if (output == null) {
+                output = openForAppend();
+            }
+            writeEntry(output, key, entry);
+            recordsOnDisk++;
+        } catch (IOException ioEx) {
+            LOGGER.log(Level.WARNING, "Failed to write to date cache", ioEx);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Starts adding to the cache file, after the last entry that could
+     * be read. The file is started again if the header couldn't be.
+     */
+    private DataOutputStream openForAppend() throws IOException {
+        channel.truncate(validLength);
+        channel.position(validLength);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                Channels.newOutputStream(channel)));
+        if (validLength == 0) {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+        }
+        return out;
+    }
+
+    /**
+     * Rewrites the cache file with only the entries used this run. It's
+     * rewritten in place rather than replaced, so it stays locked the
+     * whole time. A run that dies part way through can leave the end
+     * of it damaged, which is ignored when it's next read.
+     */
+    private void compact() throws IOException {
+        channel.position(0);
+        // Not closed, as that would let go of the lock before the
+        // file's been cut down to size
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                Channels.newOutputStream(channel)));
+        long written = 0;
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            if (entry.getValue().used) {
+                writeEntry(out, entry.getKey(), entry.getValue());
+                written++;
+            }
+        }
+        out.flush();
+        channel.truncate(channel.position());
+        recordsOnDisk = written;
+        validLength = channel.size();
+    }
+
+    private static void writeEntry(DataOutputStream out, String key, Entry entry)
+            throws IOException {
+        out.writeUTF(key);
+        out.writeLong(entry.size);
+        out.writeLong(entry.modified);
+        out.writeByte(entry.date.source().ordinal());
+        out.writeInt(entry.date.date());
+    }
+}
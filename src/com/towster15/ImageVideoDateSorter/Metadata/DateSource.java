@@ -0,0 +1,35 @@
+package com.towster15.ImageVideoDateSorter.Metadata;
+
+/**
+ * Where a file's date was read from.
+ * <p>
+ * These are stored in the date cache by position, so new ones have to
+ * go at the end.
+ */
+public enum DateSource {
+    /**
+     * The EXIF date the photo was taken.
+     */
+    EXIF_ORIGINAL,
+    /**
+     * The EXIF date the photo was digitised, used when there's no
+     * original date.
+     */
+    EXIF_DIGITIZED,
+    /**
+     * The metadata was read, but it didn't have a date.
+     */
+    NONE,
+    /**
+     * The date the OS says the file was created.
+     */
+    FILESYSTEM,
+    /**
+     * The metadata couldn't be read this time, so there's no date yet.
+     */
+    UNREADABLE,
+    /**
+     * The date a video was recorded, from its container.
+     */
+    VIDEO_METADATA
+}
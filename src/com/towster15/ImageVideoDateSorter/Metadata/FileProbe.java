@@ -0,0 +1,243 @@
+package com.towster15.ImageVideoDateSorter.Metadata;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.zip.CRC32C;
+
+/**
+ * A file opened once for everything that needs to look inside it
+ * before it's moved, so each file costs one open and one read of its
+ * head, rather than one for each of telling what it is, reading its
+ * date and hashing it to look for duplicates. On a cold hard drive or
+ * a network share, every open and first read is a seek.
+ * <p>
+ * The head of the file is read straight away into a direct buffer
+ * that's reused by every probe on the same thread, so a thread can
+ * only have one probe open at a time. Virtual threads borrow one from
+ * a {@link BufferPool} until the probe's closed instead. Being direct,
+ * the file channel reads into it without copying through a temporary
+ * buffer of its own.
+ * Anything past the head is read through the same open file with
+ * {@link #read(long, ByteBuffer)}.
+ */
+public class FileProbe implements AutoCloseable {
+    /**
+     * How much of the start of each file is read when it's opened,
+     * enough for the EXIF header of most photos and for the first
+     * block the duplicate index hashes.
+     */
+    public static final int HEAD_SIZE = 64 * 1024;
+    private static final BufferPool HEADS = new BufferPool(HEAD_SIZE);
+    private static final PerThread<CRC32C> CRCS = new PerThread<>(CRC32C::new);
+
+    private final Path path;
+    private final FileChannel channel;
+    private final ByteBuffer head;
+    private BasicFileAttributes attributes;
+    private long bytesRead = 0;
+
+    /**
+     * What the transferers need to know about a file that's been
+     * probed, so they don't have to open it again to find out.
+     *
+     * @param size     the file's size
+     * @param headHash CRC32C of the first {@link #HEAD_SIZE} bytes, or
+     *                 the whole file if it's smaller
+     */
+    public record Summary(long size, long headHash) {
+    }
+
+    private FileProbe(Path path, BasicFileAttributes attributes, FileChannel channel,
+                      ByteBuffer head) {
+        this.path = path;
+        this.attributes = attributes;
+        this.channel = channel;
+        this.head = head;
+    }
+
+    /**
+     * Opens a file and reads its head.
+     *
+     * @param path the file
+     * @return the probe, which has to be closed
+     */
+    public static FileProbe open(Path path) throws IOException {
+        return open(path, null, HEAD_SIZE);
+    }
+
+    /**
+     * Opens a file whose attributes have already been read, and reads
+     * its head.
+     *
+     * @param path       the file
+     * @param attributes the file's attributes
+     * @return the probe, which has to be closed
+     */
+    public static FileProbe open(Path path, BasicFileAttributes attributes) throws IOException {
+        return open(path, attributes, HEAD_SIZE);
+    }
+
+    /**
+     * Opens a file and reads only as much of its head as is needed.
+     *
+     * @param path       the file
+     * @param attributes the file's attributes, or null to only read
+     *                   them if they're asked for
+     * @param headSize   how much of the head to read, up to
+     *                   {@link #HEAD_SIZE}
+     * @return the probe, which has to be closed
+     */
+    public static FileProbe open(Path path, BasicFileAttributes attributes, int headSize)
+            throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        ByteBuffer head = HEADS.take();
+        try {
+            head.limit(Math.min(headSize, HEAD_SIZE));
+            FileProbe probe = new FileProbe(path, attributes, channel, head);
+            probe.read(0, head);
+            return probe;
+        } catch (IOException | RuntimeException ex) {
+            HEADS.give(head);
+            channel.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * @return the file
+     */
+    public Path path() {
+        return path;
+    }
+
+    /**
+     * @return the file's attributes
+     */
+    public BasicFileAttributes attributes() throws IOException {
+        if (attributes == null) {
+            attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        }
+        return attributes;
+    }
+
+    /**
+     * Gets the start of the file. The buffer is shared, so it should
+     * only be read with absolute gets, or through a duplicate or
+     * slice, and never changed.
+     *
+     * @return the head, from 0 up to its limit, which is less than was
+     * asked for if the file is smaller
+     */
+    public ByteBuffer head() {
+        return head;
+    }
+
+    /**
+     * @return how many bytes have been read from the file, including
+     * its head
+     */
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * Reads part of the file, filling the buffer up to its limit or
+     * to the end of the file, then flipping it ready to be read.
+     *
+     * @param position where to start reading
+     * @param into     the buffer to read into, from its position
+     * @return how many bytes were read
+     */
+    public int read(long position, ByteBuffer into) throws IOException {
+        int start = into.position();
+        while (into.hasRemaining()) {
+            int read = channel.read(into, position + into.position() - start);
+            if (read < 0) {
+                break;
+            }
+            bytesRead += read;
+        }
+        into.flip();
+        return into.limit() - start;
+    }
+
+    /**
+     * Sums up the file for the transferers. The whole head has to have
+     * been read, so this is only for probes opened with the full
+     * {@link #HEAD_SIZE}.
+     *
+     * @return the summary, or null if not enough of the head was read
+     */
+    public Summary summary() throws IOException {
+        long size = attributes().size();
+        if (head.limit() < Math.min(size, HEAD_SIZE)) {
+            return null;
+        }
+        CRC32C crc = CRCS.get();
+        crc.reset();
+        crc.update(head);
+        // Only this thread uses the head, so it can just be rewound
+        head.position(0);
+        return new Summary(size, crc.getValue());
+    }
+
+    /**
+     * Gets a stream of the whole file for code that can only read
+     * streams, starting with the head that's already been read.
+     * Closing the stream leaves the probe open.
+     *
+     * @return the stream
+     */
+    public InputStream stream() {
+        return new InputStream() {
+            private long position = 0;
+
+            @Override
+            public int read() throws IOException {
+                byte[] single = new byte[1];
+                return read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] bytes, int offset, int length) throws IOException {
+                if (length == 0) {
+                    return 0;
+                }
+                int count;
+                if (position < head.limit()) {
+                    count = Math.min(length, head.limit() - (int) position);
+                    head.get((int) position, bytes, offset, count);
+                } else {
+                    count = channel.read(ByteBuffer.wrap(bytes, offset, length), position);
+                    if (count < 0) {
+                        return -1;
+                    }
+                    bytesRead += count;
+                }
+                position += count;
+                return count;
+            }
+
+            @Override
+            public long skip(long count) throws IOException {
+                long skipped = Math.max(0, Math.min(count, channel.size() - position));
+                position += skipped;
+                return skipped;
+            }
+        };
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel.isOpen()) {
+            HEADS.give(head);
+        }
+        channel.close();
+    }
+}
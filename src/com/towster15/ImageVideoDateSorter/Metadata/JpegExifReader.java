@@ -0,0 +1,293 @@
+package com.towster15.ImageVideoDateSorter.Metadata;
+
+import com.towster15.ImageVideoDateSorter.Scanners.FileClassifier;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Set;
+
+/**
+ * Reads the date a JPEG was taken straight from its EXIF header,
+ * without parsing the rest of the file.
+ * <p>
+ * Only the start of the file is read: the head a {@link FileProbe} has
+ * already read, which is almost always enough to find the APP1
+ * segment, then IFD0, then the EXIF IFD and its DateTimeOriginal and
+ * DateTimeDigitized tags, and a positioned read for anything further
+ * in. Anything unusual, such as a header split across more segments
+ * than we look at, is left for Commons Imaging to deal with.
+ * <p>
+ * The tags are read where they are in the buffer and the date is
+ * parsed straight into a {@link PackedDate}, so nothing is allocated
+ * for a file beyond the date handed back. An instance reuses its
+ * buffer between files, so each sorter thread should have its own.
+ */
+public class JpegExifReader {
+    private static final int HEAD_SIZE = 4096;
+    private static final int MAX_SEGMENTS = 32;
+    private static final int MARKER_SOS = 0xDA;
+    private static final int MARKER_EOI = 0xD9;
+    private static final int MARKER_APP1 = 0xE1;
+    private static final int TAG_EXIF_IFD = 0x8769;
+    private static final int TAG_DATE_TIME_ORIGINAL = 0x9003;
+    private static final int TAG_DATE_TIME_DIGITIZED = 0x9004;
+    private static final int TYPE_ASCII = 2;
+    private static final Set<String> EXTENSIONS = Set.of("jpg", "jpeg", "jpe", "jif", "jfif",
+            "jfi");
+
+    // Parts of the file past the probe's head are read into here
+    private ByteBuffer spare = ByteBuffer.allocateDirect(HEAD_SIZE);
+    private ByteBuffer buffer;
+    private long windowStart;
+    // Where the TIFF data is in the buffer, and its byte order
+    private int tiffStart;
+    private int tiffLength;
+    private boolean littleEndian;
+    private FileProbe probe;
+    private long bytesRead = 0;
+
+    /**
+     * Checks whether the file has a JPEG file extension, so it's
+     * worth trying this reader first.
+     *
+     * @param file the file to check
+     * @return true if the file looks like a JPEG
+     */
+    public static boolean handles(File file) {
+        String extension = FileClassifier.extension(file.getName());
+        return extension != null && EXTENSIONS.contains(extension);
+    }
+
+    /**
+     * @return how many bytes {@link #readDate(Path)} has read from
+     * disk so far
+     */
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * Reads the date the image was taken from its EXIF header, opening
+     * the file for just this.
+     *
+     * @param path the JPEG to read
+     * @return the date, {@link ResolvedDate#NONE} if the header was
+     * read but has no date in it, or null if this reader couldn't
+     * tell and Commons Imaging should have a go instead
+     */
+    public ResolvedDate readDate(Path path) throws IOException {
+        try (FileProbe opened = FileProbe.open(path)) {
+            ResolvedDate date = readDate(opened);
+            bytesRead += opened.getBytesRead();
+            return date;
+        }
+    }
+
+    /**
+     * Reads the date the image was taken from its EXIF header.
+     *
+     * @param probe the JPEG to read, already opened
+     * @return the date, {@link ResolvedDate#NONE} if the header was
+     * read but has no date in it, or null if this reader couldn't
+     * tell, including if it isn't a JPEG, and Commons Imaging should
+     * have a go instead
+     */
+    public ResolvedDate readDate(FileProbe probe) throws IOException {
+        this.probe = probe;
+        buffer = probe.head();
+        windowStart = 0;
+        try {
+            if (buffer.limit() < 4 || (buffer.getShort(0) & 0xFFFF) != 0xFFD8) {
+                return null;
+            }
+
+            long position = 2;
+            for (int i = 0; i < MAX_SEGMENTS; i++) {
+                if (!inWindow(position, 4)) {
+                    load(position, HEAD_SIZE);
+                    if (!inWindow(position, 4)) {
+                        return null;
+                    }
+                }
+                int index = (int) (position - windowStart);
+                if ((buffer.get(index) & 0xFF) != 0xFF) {
+                    return null;
+                }
+                int marker = buffer.get(index + 1) & 0xFF;
+                if (marker == 0xFF) {
+                    // Padding before the real marker
+                    position++;
+                    continue;
+                }
+                if (marker == MARKER_SOS || marker == MARKER_EOI) {
+                    // Reached the image data without finding any EXIF
+                    return ResolvedDate.NONE;
+                }
+                int length = buffer.getShort(index + 2) & 0xFFFF;
+                if (marker == MARKER_APP1 && length >= 16) {
+                    if (!inWindow(position, length + 2)) {
+                        load(position, length + 2);
+                        if (!inWindow(position, length + 2)) {
+                            return null;
+                        }
+                        index = 0;
+                    }
+                    if (isExifHeader(index + 4)) {
+                        return readTiff(index + 10, length - 8);
+                    }
+                }
+                position += 2 + length;
+            }
+            return null;
+        } catch (IndexOutOfBoundsException ex) {
+            // An offset pointed outside the header, so it isn't laid
+            // out the way we expect
+            return null;
+        } finally {
+            this.probe = null;
+            buffer = null;
+        }
+    }
+
+    /**
+     * Reads the date tags from the TIFF structure inside the APP1
+     * segment, in place, straight into packed dates.
+     *
+     * @param start  index in the buffer where the TIFF header starts
+     * @param length length of the TIFF data
+     * @return the date, or {@link ResolvedDate#NONE}
+     */
+    private ResolvedDate readTiff(int start, int length) {
+        tiffStart = start;
+        tiffLength = length;
+        if (byteAt(0) == 'I' && byteAt(1) == 'I') {
+            littleEndian = true;
+        } else if (byteAt(0) == 'M' && byteAt(1) == 'M') {
+            littleEndian = false;
+        } else {
+            throw new IndexOutOfBoundsException("Not a TIFF header");
+        }
+        if (shortAt(2) != 42) {
+            throw new IndexOutOfBoundsException("Not a TIFF header");
+        }
+
+        int ifd0 = intAt(4);
+        int exifIfd = -1;
+        int entry = findTag(ifd0, TAG_EXIF_IFD);
+        if (entry >= 0) {
+            exifIfd = intAt(entry + 8);
+        }
+
+        int original = readDateTag(exifIfd, TAG_DATE_TIME_ORIGINAL);
+        if (original == PackedDate.NONE) {
+            original = readDateTag(ifd0, TAG_DATE_TIME_ORIGINAL);
+        }
+        if (original != PackedDate.NONE) {
+            return new ResolvedDate(original, DateSource.EXIF_ORIGINAL);
+        }
+
+        int digitized = readDateTag(exifIfd, TAG_DATE_TIME_DIGITIZED);
+        if (digitized == PackedDate.NONE) {
+            digitized = readDateTag(ifd0, TAG_DATE_TIME_DIGITIZED);
+        }
+        if (digitized != PackedDate.NONE) {
+            return new ResolvedDate(digitized, DateSource.EXIF_DIGITIZED);
+        }
+        return ResolvedDate.NONE;
+    }
+
+    /**
+     * Finds the entry for a tag within an IFD.
+     *
+     * @param ifd offset of the IFD, or -1 if there isn't one
+     * @param tag the tag to look for
+     * @return offset of the 12 byte entry, or -1 if it isn't there
+     */
+    private int findTag(int ifd, int tag) {
+        if (ifd < 0) {
+            return -1;
+        }
+        int count = shortAt(ifd);
+        for (int i = 0; i < count; i++) {
+            int entry = ifd + 2 + i * 12;
+            if (shortAt(entry) == tag) {
+                return entry;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Reads the date part of an ASCII date tag, YYYY:MM:DD HH:MM:SS.
+     *
+     * @param ifd offset of the IFD to look in, or -1
+     * @param tag the tag to read
+     * @return the packed date, or {@link PackedDate#NONE} if the tag
+     * isn't there or its date isn't all digits
+     */
+    private int readDateTag(int ifd, int tag) {
+        int entry = findTag(ifd, tag);
+        if (entry < 0 || shortAt(entry + 2) != TYPE_ASCII || intAt(entry + 4) < 10) {
+            return PackedDate.NONE;
+        }
+        // Always longer than the four bytes that fit in the entry
+        int offset = intAt(entry + 8);
+        check(offset, 10);
+        return PackedDate.parse(buffer, tiffStart + offset);
+    }
+
+    private int byteAt(int offset) {
+        return buffer.get(tiffStart + check(offset, 1));
+    }
+
+    private int shortAt(int offset) {
+        short value = buffer.getShort(tiffStart + check(offset, 2));
+        return (littleEndian ? Short.reverseBytes(value) : value) & 0xFFFF;
+    }
+
+    private int intAt(int offset) {
+        int value = buffer.getInt(tiffStart + check(offset, 4));
+        return littleEndian ? Integer.reverseBytes(value) : value;
+    }
+
+    /**
+     * Keeps offsets within the TIFF data, as the buffer carries on
+     * past it.
+     */
+    private int check(int offset, int length) {
+        if (offset < 0 || offset > tiffLength - length) {
+            throw new IndexOutOfBoundsException("Outside the TIFF data");
+        }
+        return offset;
+    }
+
+    private boolean isExifHeader(int index) {
+        return buffer.get(index) == 'E' && buffer.get(index + 1) == 'x'
+                && buffer.get(index + 2) == 'i' && buffer.get(index + 3) == 'f'
+                && buffer.get(index + 4) == 0 && buffer.get(index + 5) == 0;
+    }
+
+    private boolean inWindow(long position, int length) {
+        return position >= windowStart && position + length <= windowStart + buffer.limit();
+    }
+
+    /**
+     * Reads part of the file past the probe's head, growing the spare
+     * buffer if needed.
+     *
+     * @param position where to start reading
+     * @param length   how many bytes to read, fewer at the end of the
+     *                 file
+     */
+    private void load(long position, int length) throws IOException {
+        if (spare.capacity() < length) {
+            spare = ByteBuffer.allocateDirect(length);
+        }
+        spare.clear().limit(length);
+        probe.read(position, spare);
+        buffer = spare;
+        windowStart = position;
+    }
+}
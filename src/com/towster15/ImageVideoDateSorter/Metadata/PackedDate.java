@@ -0,0 +1,132 @@
+package com.towster15.ImageVideoDateSorter.Metadata;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Dates packed into an int as the number YYYYMMDD, so they can be
+ * read from metadata and passed along to the transferers without a
+ * String being made for every file. All of the sort works in these
+ * from the moment a date is read.
+ * <p>
+ * A packed date always has a month from 1 to 12 and a day from 1 to
+ * 31, so 0 is never a date and stands for not having one.
+ */
+public final class PackedDate {
+    /**
+     * No date.
+     */
+    public static final int NONE = 0;
+
+    private PackedDate() {
+    }
+
+    /**
+     * Packs a year, month and day.
+     *
+     * @return the packed date, or {@link #NONE} if it isn't one we
+     * can sort by
+     */
+    public static int of(int year, int month, int day) {
+        if (year < 0 || year > 9999 || month < 1 || month > 12 || day < 1 || day > 31) {
+            return NONE;
+        }
+        return year * 10000 + month * 100 + day;
+    }
+
+    /**
+     * Reads a date written as YYYY-MM-DD or YYYY:MM:DD, ignoring the
+     * separators and anything after the day, such as the time.
+     *
+     * @param text the date
+     * @return the packed date, or {@link #NONE} if it isn't all
+     * digits, as some cameras fill in blanks or spaces
+     */
+    public static int parse(CharSequence text) {
+        if (text == null || text.length() < 10) {
+            return NONE;
+        }
+        int packed = 0;
+        for (int i = 0; i < 10; i++) {
+            if (i == 4 || i == 7) {
+                continue;
+            }
+            int digit = text.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return NONE;
+            }
+            packed = packed * 10 + digit;
+        }
+        return of(packed / 10000, packed / 100 % 100, packed % 100);
+    }
+
+    /**
+     * Reads a date written in ASCII as YYYY:MM:DD straight from a
+     * buffer, the way EXIF stores them, without copying it out first.
+     *
+     * @param buffer the buffer, read with absolute gets only
+     * @param index  where the date starts, with at least 10 bytes
+     *               after it
+     * @return the packed date, or {@link #NONE} if it isn't all digits
+     */
+    public static int parse(ByteBuffer buffer, int index) {
+        int packed = 0;
+        for (int i = 0; i < 10; i++) {
+            if (i == 4 || i == 7) {
+                continue;
+            }
+            int digit = buffer.get(index + i) - '0';
+            if (digit < 0 || digit > 9) {
+                return NONE;
+            }
+            packed = packed * 10 + digit;
+        }
+        return of(packed / 10000, packed / 100 % 100, packed % 100);
+    }
+
+    /**
+     * Turns a count of days since 1970-01-01 into a date.
+     *
+     * @param epochDay days since 1970-01-01, negative for before it
+     * @return the packed date, or {@link #NONE} if it's outside the
+     * years 0 to 9999
+     */
+    public static int fromEpochDay(long epochDay) {
+        // Counted in 400 year cycles starting from 0000-03-01, so the
+        // leap day is always at the end of the year
+        long days = epochDay + 719_468;
+        long era = Math.floorDiv(days, 146_097);
+        long dayOfEra = days - era * 146_097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36_524 - dayOfEra / 146_096)
+                / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long shiftedMonth = (5 * dayOfYear + 2) / 153;
+        int day = (int) (dayOfYear - (153 * shiftedMonth + 2) / 5 + 1);
+        int month = (int) (shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9);
+        long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+        if (year < 0 || year > 9999) {
+            return NONE;
+        }
+        return of((int) year, month, day);
+    }
+
+    /**
+     * @return the year of a packed date
+     */
+    public static int year(int date) {
+        return date / 10000;
+    }
+
+    /**
+     * @return the month of a packed date, from 1 to 12
+     */
+    public static int month(int date) {
+        return date / 100 % 100;
+    }
+
+    /**
+     * @return the day of a packed date, from 1 to 31
+     */
+    public static int day(int date) {
+        return date % 100;
+    }
+}
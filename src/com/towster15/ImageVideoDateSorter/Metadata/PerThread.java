@@ -0,0 +1,57 @@
+package com.towster15.ImageVideoDateSorter.Metadata;
+
+import java.util.function.Supplier;
+
+/**
+ * A scratch object, such as a buffer or a checksum, that each thread
+ * reuses for every file it works on rather than making one per file.
+ * <p>
+ * A platform thread keeps its own for as long as it runs, as the
+ * sorter threads live for the whole sort. A virtual thread is made
+ * for a single file and then thrown away, so a thread-local object on
+ * one would be made, used once and left behind, which costs more than
+ * not keeping one at all. A virtual thread is given a fresh object
+ * each time it asks instead.
+ *
+ * @param <T> the kind of object
+ */
+public final class PerThread<T> {
+    private final ThreadLocal<T> kept;
+    private final Supplier<T> fresh;
+
+    /**
+     * @param factory makes the objects, both the ones kept and the
+     *                ones given to virtual threads
+     */
+    public PerThread(Supplier<T> factory) {
+        this(factory, factory);
+    }
+
+    /**
+     * @param kept  makes the object each platform thread keeps
+     * @param fresh gets an object for a virtual thread to use once
+     */
+    public PerThread(Supplier<T> kept, Supplier<T> fresh) {
+        this.kept = ThreadLocal.withInitial(kept);
+        this.fresh = fresh;
+    }
+
+    /**
+     * Gets an object for this thread to use. One that's kept has
+     * whatever was left in it last time, so it has to be reset first.
+     *
+     * @return this thread's object, or a fresh one on a virtual thread
+     */
+    public T get() {
+        return Thread.currentThread().isVirtual() ? fresh.get() : kept.get();
+    }
+
+    /**
+     * @param object an object from {@link #get()}
+     * @return true if the object is the one this thread keeps, false
+     * if it was only given out for this once
+     */
+    public boolean isKept(T object) {
+        return !Thread.currentThread().isVirtual() && kept.get() == object;
+    }
+}
@@ -0,0 +1,28 @@
+package com.towster15.ImageVideoDateSorter.Metadata;
+
+/**
+ * A date read from a file's metadata, along with where it came from.
+ *
+ * @param date   the date, packed as a {@link PackedDate}, or
+ *               {@link PackedDate#NONE} if the file doesn't have one
+ * @param source where the date was read from
+ */
+public record ResolvedDate(int date, DateSource source) {
+    /**
+     * The file's metadata was read, but it didn't have a date.
+     */
+    public static final ResolvedDate NONE = new ResolvedDate(PackedDate.NONE, DateSource.NONE);
+    /**
+     * The file's metadata couldn't be read, which might not happen
+     * next time.
+     */
+    public static final ResolvedDate UNREADABLE = new ResolvedDate(PackedDate.NONE,
+            DateSource.UNREADABLE);
+
+    /**
+     * @return true if a date was found
+     */
+    public boolean hasDate() {
+        return date != PackedDate.NONE;
+    }
+}
@@ -0,0 +1,481 @@
+package com.towster15.ImageVideoDateSorter.Metadata;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.time.ZoneId;
+import java.util.TimeZone;
+
+/**
+ * Reads the date a video was recorded from its container, without
+ * reading or decoding any of the video itself.
+ * <p>
+ * Three kinds of container are understood:
+ * <ul>
+ *     <li>MP4, MOV and 3GP: the box headers are followed from one to
+ *     the next, jumping over the media data, to the creation time in
+ *     moov/mvhd. Only the headers are read, so this stays at a few KB
+ *     however large the file is, even when moov is at the end.</li>
+ *     <li>Matroska and WebM: the elements at the start of the segment
+ *     are followed to DateUTC in the segment info.</li>
+ *     <li>MTS and M2TS from AVCHD camcorders: the first part of the
+ *     stream is searched for the MDPM block the camera writes with
+ *     each frame, which has the date it was recorded.</li>
+ * </ul>
+ * The MP4 and Matroska dates are stored in UTC, so they're turned into
+ * the date in the given time zone. The AVCHD date is already the
+ * camera's local date.
+ * <p>
+ * The start of the file comes from the head a {@link FileProbe} has
+ * already read, and anything past it is read through the probe.
+ * An instance reuses its buffer between files, so each sorter thread
+ * should have its own.
+ */
+public class VideoDateReader {
+    private static final int HEAD_SIZE = 4096;
+    private static final int MAX_BOXES = 256;
+    private static final int BOX_MOOV = 0x6D6F6F76;
+    private static final int BOX_MVHD = 0x6D766864;
+    // Seconds from 1904, when MP4 times start, to 1970
+    private static final long MP4_EPOCH = -2_082_844_800L;
+    private static final int EBML_HEADER = 0x1A45DFA3;
+    private static final int EBML_SEGMENT = 0x18538067;
+    private static final int EBML_INFO = 0x1549A966;
+    private static final int EBML_CLUSTER = 0x1F43B675;
+    private static final int EBML_DATE_UTC = 0x4461;
+    // Seconds from 1970 to 2001, when Matroska times start
+    private static final long MATROSKA_EPOCH = 978_307_200L;
+    private static final int TS_PACKET_SIZE = 188;
+    private static final int M2TS_PACKET_SIZE = 192;
+    private static final int TS_SYNC = 0x47;
+    private static final int TS_SCAN_SIZE = 1024 * 1024;
+    private static final int TS_CHUNK_SIZE = 64 * 1024;
+    private static final int MDPM = 0x4D44504D;
+    private static final int MDPM_DATE = 0x18;
+    private static final int MDPM_TIME = 0x19;
+
+    // The earliest and latest times that give a date we'd believe
+    private static final long FIRST_SECOND = 365L * 86_400;
+    private static final long LAST_SECOND = 253_402_300_799L;
+
+    private final TimeZone zone;
+    // Parts of the file past the probe's head are read into here
+    private ByteBuffer spare = ByteBuffer.allocateDirect(HEAD_SIZE);
+    private ByteBuffer buffer;
+    private long windowStart;
+    private FileProbe probe;
+    private long bytesRead = 0;
+    // The last EBML element header read
+    private int elementId;
+    private long elementSize;
+    private long elementData;
+    private int numberLength;
+
+    /**
+     * Turns UTC dates into dates in the system's time zone.
+     */
+    public VideoDateReader() {
+        this(ZoneId.systemDefault());
+    }
+
+    /**
+     * @param zone the time zone to turn UTC dates into dates in
+     */
+    public VideoDateReader(ZoneId zone) {
+        // Its offsets can be looked up without making anything
+        this.zone = TimeZone.getTimeZone(zone);
+    }
+
+    /**
+     * @return how many bytes {@link #readDate(Path)} has read from
+     * disk so far
+     */
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * Reads the date the video was recorded from its container,
+     * opening the file for just this.
+     *
+     * @param path the video to read
+     * @return the date, {@link ResolvedDate#NONE} if the container was
+     * read but has no date in it, or null if the file isn't in a
+     * container this reader understands
+     */
+    public ResolvedDate readDate(Path path) throws IOException {
+        try (FileProbe opened = FileProbe.open(path)) {
+            ResolvedDate date = readDate(opened);
+            bytesRead += opened.getBytesRead();
+            return date;
+        }
+    }
+
+    /**
+     * Reads the date the video was recorded from its container.
+     *
+     * @param probe the video to read, already opened
+     * @return the date, {@link ResolvedDate#NONE} if the container was
+     * read but has no date in it, or null if the file isn't in a
+     * container this reader understands
+     */
+    public ResolvedDate readDate(FileProbe probe) throws IOException {
+        this.probe = probe;
+        buffer = probe.head();
+        windowStart = 0;
+        try {
+            if (buffer.limit() < 12) {
+                return null;
+            }
+            if (isBoxType(buffer.getInt(4))) {
+                return readMp4(probe.attributes().size());
+            }
+            if (buffer.getInt(0) == EBML_HEADER) {
+                return readMatroska();
+            }
+            if (transportPacketSize() > 0) {
+                return readTransportStream();
+            }
+            return null;
+        } catch (IndexOutOfBoundsException ex) {
+            // A size or offset pointed outside the file, so it isn't
+            // laid out the way we expect
+            return null;
+        } finally {
+            this.probe = null;
+            buffer = null;
+        }
+    }
+
+    /**
+     * Follows the box headers to moov/mvhd.
+     *
+     * @param fileSize the size of the file
+     * @return the creation date, or null if there's no mvhd
+     */
+    private ResolvedDate readMp4(long fileSize) throws IOException {
+        long position = 0;
+        long end = fileSize;
+        for (int i = 0; i < MAX_BOXES && position + 8 <= end; i++) {
+            int index = ensure(position, 16);
+            long boxSize = buffer.getInt(index) & 0xFFFFFFFFL;
+            int type = buffer.getInt(index + 4);
+            int headerSize = 8;
+            if (boxSize == 1) {
+                boxSize = buffer.getLong(index + 8);
+                headerSize = 16;
+            } else if (boxSize == 0) {
+                // Runs to the end of the file
+                boxSize = end - position;
+            }
+            if (boxSize < headerSize || boxSize > end - position) {
+                // Too small to be a box, or runs past the end of the
+                // file or the box it's in
+                return null;
+            }
+            if (type == BOX_MOOV) {
+                // Carry on through moov's children instead
+                end = position + boxSize;
+                position += headerSize;
+            } else if (type == BOX_MVHD) {
+                return readMvhd(position + headerSize);
+            } else {
+                position += boxSize;
+            }
+        }
+        return null;
+    }
+
+    private ResolvedDate readMvhd(long position) throws IOException {
+        int index = ensure(position, 12);
+        int version = buffer.get(index);
+        long seconds = version == 1
+                ? buffer.getLong(index + 4)
+                : buffer.getInt(index + 4) & 0xFFFFFFFFL;
+        if (seconds == 0) {
+            return ResolvedDate.NONE;
+        }
+        return utcDate(seconds + MP4_EPOCH);
+    }
+
+    /**
+     * Follows the EBML header and the start of the segment to the
+     * segment info, which comes before any of the video.
+     *
+     * @return the date, or null if the segment info couldn't be found
+     */
+    private ResolvedDate readMatroska() throws IOException {
+        readElement(0);
+        if (elementSize < 0) {
+            return null;
+        }
+        readElement(elementData + elementSize);
+        if (elementId != EBML_SEGMENT) {
+            return null;
+        }
+        long position = elementData;
+        long end = elementSize < 0 ? Long.MAX_VALUE : elementData + elementSize;
+        for (int i = 0; i < MAX_BOXES && position < end; i++) {
+            readElement(position);
+            if (elementId == EBML_INFO && elementSize >= 0) {
+                return readMatroskaInfo(elementData, elementData + elementSize);
+            }
+            if (elementId == EBML_CLUSTER || elementSize < 0) {
+                // Into the video without finding the info
+                return null;
+            }
+            position = elementData + elementSize;
+        }
+        return null;
+    }
+
+    private ResolvedDate readMatroskaInfo(long position, long end)
+            throws IOException {
+        while (position < end) {
+            readElement(position);
+            if (elementSize < 0) {
+                return null;
+            }
+            if (elementId == EBML_DATE_UTC && elementSize == 8) {
+                long nanos = buffer.getLong(ensure(elementData, 8));
+                return utcDate(Math.floorDiv(nanos, 1_000_000_000L) + MATROSKA_EPOCH);
+            }
+            position = elementData + elementSize;
+        }
+        return ResolvedDate.NONE;
+    }
+
+    /**
+     * Reads an EBML element's ID and size into {@link #elementId},
+     * {@link #elementSize} and {@link #elementData}.
+     *
+     * @param position where the element starts
+     */
+    private void readElement(long position) throws IOException {
+        int index = ensure(position, 12);
+        elementId = (int) readNumber(index, true);
+        int idLength = numberLength;
+        elementSize = readNumber(index + idLength, false);
+        elementData = position + idLength + numberLength;
+    }
+
+    /**
+     * Reads an EBML variable length number, with its length in
+     * {@link #numberLength}.
+     *
+     * @param index      where the number starts in the buffer
+     * @param keepMarker true for IDs, which keep their length marker
+     * @return the number, or -1 for a size that's unknown
+     */
+    private long readNumber(int index, boolean keepMarker) {
+        int first = buffer.get(index) & 0xFF;
+        if (first == 0) {
+            throw new IndexOutOfBoundsException("Not an EBML number");
+        }
+        int length = Integer.numberOfLeadingZeros(first) - 23;
+        int mask = (1 << (8 - length)) - 1;
+        long value = keepMarker ? first : first & mask;
+        boolean unknown = (first & mask) == mask;
+        for (int i = 1; i < length; i++) {
+            int next = buffer.get(index + i) & 0xFF;
+            value = (value << 8) | next;
+            unknown &= next == 0xFF;
+        }
+        numberLength = length;
+        return !keepMarker && unknown ? -1 : value;
+    }
+
+    /**
+     * @return the packet size if the start of the file looks like an
+     * MPEG transport stream, or 0 if it doesn't
+     */
+    private int transportPacketSize() {
+        if (buffer.limit() > 2 * M2TS_PACKET_SIZE + 4) {
+            if (isSynced(0, TS_PACKET_SIZE)) {
+                return TS_PACKET_SIZE;
+            }
+            if (isSynced(4, M2TS_PACKET_SIZE)) {
+                return M2TS_PACKET_SIZE;
+            }
+        }
+        return 0;
+    }
+
+    private boolean isSynced(int start, int packetSize) {
+        for (int i = 0; i < 3; i++) {
+            if ((buffer.get(start + i * packetSize) & 0xFF) != TS_SYNC) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Searches the start of the stream for the first MDPM block.
+     *
+     * @return the date, or {@link ResolvedDate#NONE} if there wasn't
+     * one near the start
+     */
+    private ResolvedDate readTransportStream() throws IOException {
+        long position = 0;
+        while (position < TS_SCAN_SIZE) {
+            load(position, TS_CHUNK_SIZE);
+            int limit = buffer.limit();
+            for (int i = 0; i + 4 <= limit; i++) {
+                if (buffer.getInt(i) == MDPM) {
+                    ResolvedDate date = readMdpm(position + i + 4);
+                    if (date != null) {
+                        return date;
+                    }
+                    if (windowStart != position) {
+                        // Reading the block moved the buffer on
+                        load(position, TS_CHUNK_SIZE);
+                    }
+                }
+            }
+            if (limit < TS_CHUNK_SIZE) {
+                break;
+            }
+            // Go back a little, in case the marker was split
+            position += limit - 3;
+        }
+        return ResolvedDate.NONE;
+    }
+
+    /**
+     * Reads the recording date from an MDPM block: a count, then that
+     * many five byte entries of a tag and four bytes of data. The date
+     * is split between two tags, in binary coded decimal.
+     *
+     * @return the date, or null if the block doesn't have a valid one
+     */
+    private ResolvedDate readMdpm(long position) throws IOException {
+        int count = buffer.get(ensure(position, 1 + 5 * 32)) & 0xFF;
+        int index = ensure(position, 1 + 5 * count);
+        // A damaged block, or one cut off by the end of the file, can
+        // count more entries than there are
+        count = Math.min(count, (buffer.limit() - index - 1) / 5);
+        int year = -1;
+        int month = -1;
+        int day = -1;
+        for (int i = 0; i < count; i++) {
+            int entry = index + 1 + i * 5;
+            int tag = buffer.get(entry) & 0xFF;
+            if (tag == MDPM_DATE) {
+                // Time zone, then the year's two halves, then the month
+                year = bcd(buffer.get(entry + 2)) * 100 + bcd(buffer.get(entry + 3));
+                month = bcd(buffer.get(entry + 4));
+            } else if (tag == MDPM_TIME) {
+                day = bcd(buffer.get(entry + 1));
+            }
+        }
+        if (year < 1971) {
+            return null;
+        }
+        int date = PackedDate.of(year, month, day);
+        return date != PackedDate.NONE ? new ResolvedDate(date, DateSource.VIDEO_METADATA) : null;
+    }
+
+    /**
+     * @return the value of a binary coded decimal byte, or a large
+     * negative number if it isn't one
+     */
+    private static int bcd(byte value) {
+        int high = (value >> 4) & 0xF;
+        int low = value & 0xF;
+        if (high > 9 || low > 9) {
+            return -10_000;
+        }
+        return high * 10 + low;
+    }
+
+    /**
+     * Turns a UTC time into a date, ignoring times before 1971 as
+     * they're almost always a clock that was never set.
+     *
+     * @param epochSeconds seconds since 1970 in UTC
+     * @return the date, or {@link ResolvedDate#NONE} if it can't be
+     * right
+     */
+    private ResolvedDate utcDate(long epochSeconds) {
+        if (epochSeconds < FIRST_SECOND || epochSeconds > LAST_SECOND) {
+            return ResolvedDate.NONE;
+        }
+        long local = epochSeconds + zone.getOffset(epochSeconds * 1000) / 1000;
+        int date = PackedDate.fromEpochDay(Math.floorDiv(local, 86_400L));
+        if (PackedDate.year(date) < 1971) {
+            return ResolvedDate.NONE;
+        }
+        return new ResolvedDate(date, DateSource.VIDEO_METADATA);
+    }
+
+    /**
+     * @param type the four bytes after the first box's size
+     * @return true if they're the type of a box that can start an MP4
+     * or QuickTime file
+     */
+    private static boolean isBoxType(int type) {
+        return switch (type) {
+            case 0x66747970, // ftyp
+                 BOX_MOOV,
+                 0x6D646174, // mdat
+                 0x77696465, // wide
+                 0x66726565, // free
+                 0x736B6970, // skip
+                 0x706E6F74 -> true; // pnot
+            default -> false;
+        };
+    }
+
+    /**
+     * Makes sure part of the file is in the buffer, reading it if it
+     * isn't, and finds where it starts in the buffer. Near the end of
+     * the file, fewer bytes may be there than asked for.
+     *
+     * @param position where the part starts
+     * @param length   how long the part is
+     * @return where the part starts in the buffer
+     */
+    private int ensure(long position, int length) throws IOException {
+        if (position < 0) {
+            throw new IndexOutOfBoundsException("Before the start of the file");
+        }
+        if (!inWindow(position, length)) {
+            load(position, Math.max(length, HEAD_SIZE));
+        }
+        if (position < windowStart || position >= windowStart + buffer.limit()) {
+            throw new IndexOutOfBoundsException("Past the end of the file");
+        }
+        return (int) (position - windowStart);
+    }
+
+    private boolean inWindow(long position, int length) {
+        return position >= windowStart && position + length <= windowStart + buffer.limit();
+    }
+
+    /**
+     * Moves the window onto part of the file, using the probe's head
+     * if it's there, and otherwise reading it into the spare buffer,
+     * growing it if needed.
+     *
+     * @param position where to start reading
+     * @param length   how many bytes to read, fewer at the end of the
+     *                 file
+     */
+    private void load(long position, int length) throws IOException {
+        if (position < 0) {
+            throw new IndexOutOfBoundsException("Before the start of the file");
+        }
+        if (position == 0 && probe.head().limit() >= length) {
+            buffer = probe.head();
+        } else {
+            if (spare.capacity() < length) {
+                spare = ByteBuffer.allocateDirect(length);
+            }
+            spare.clear().limit(length);
+            probe.read(position, spare);
+            buffer = spare;
+        }
+        windowStart = position;
+    }
+}
@@ -0,0 +1,118 @@
+package com.towster15.ImageVideoDateSorter.Metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts how long something took, in buckets that get wider as the
+ * times get longer, so recording a time never allocates or locks and
+ * the percentiles come out within a quarter of the true value.
+ * <p>
+ * Each power of two is split into four buckets, which covers anything
+ * from a nanosecond to the age of the universe in 248 counters.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 2;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (63 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+    /**
+     * @param nanos how long it took
+     */
+    public void record(long nanos) {
+        nanos = Math.max(0, nanos);
+        buckets.incrementAndGet(bucket(nanos));
+        count.increment();
+        totalNanos.add(nanos);
+        maxNanos.accumulate(nanos);
+    }
+
+    /**
+     * @return how many times have been recorded
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * Summarises the times recorded so far. Times recorded while it's
+     * being worked out may or may not be included.
+     *
+     * @return the count, mean, percentiles and longest time
+     */
+    public LatencySummary summarise() {
+        long[] counts = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets.get(i);
+            total += counts[i];
+        }
+        if (total == 0) {
+            return new LatencySummary(0, 0, 0, 0, 0, 0);
+        }
+        long max = maxNanos.get();
+        return new LatencySummary(
+                total,
+                millis(totalNanos.sum() / Math.max(1, count.sum())),
+                millis(percentile(counts, total, 0.50, max)),
+                millis(percentile(counts, total, 0.90, max)),
+                millis(percentile(counts, total, 0.99, max)),
+                millis(max));
+    }
+
+    /**
+     * @return the top of the bucket the percentile falls in, but never
+     * more than the longest time actually seen
+     */
+    private static long percentile(long[] counts, long total, double fraction, long max) {
+        long rank = (long) Math.ceil(total * fraction);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(bucketTop(i), max);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Finds the bucket a time goes in. Times under four nanoseconds
+     * get a bucket each, after that it's the power of two the time
+     * falls in, then the next two bits below the top one.
+     */
+    static int bucket(long nanos) {
+        if (nanos < SUB_BUCKETS) {
+            return (int) nanos;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        int subBucket = (int) (nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * @return the longest time that goes in the given bucket
+     */
+    static long bucketTop(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long subBucket = bucket % SUB_BUCKETS;
+        int shift = exponent - SUB_BUCKET_BITS;
+        if (exponent == 62 && subBucket == SUB_BUCKETS - 1) {
+            return Long.MAX_VALUE;
+        }
+        return ((SUB_BUCKETS + subBucket + 1) << shift) - 1;
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1_000_000.0;
+    }
+}
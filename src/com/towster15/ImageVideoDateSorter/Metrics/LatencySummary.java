@@ -0,0 +1,27 @@
+package com.towster15.ImageVideoDateSorter.Metrics;
+
+import java.util.Locale;
+
+/**
+ * How long one stage of a sort has been taking for each file or
+ * folder, in milliseconds.
+ *
+ * @param count      how many times were recorded
+ * @param meanMillis the mean
+ * @param p50Millis  the median
+ * @param p90Millis  the 90th percentile
+ * @param p99Millis  the 99th percentile
+ * @param maxMillis  the longest
+ */
+public record LatencySummary(long count, double meanMillis, double p50Millis, double p90Millis,
+                             double p99Millis, double maxMillis) {
+    /**
+     * @return the summary as a JSON object
+     */
+    public String toJson() {
+        return String.format(Locale.ROOT,
+                "{\"count\":%d,\"meanMs\":%.3f,\"p50Ms\":%.3f,\"p90Ms\":%.3f,\"p99Ms\":%.3f,"
+                        + "\"maxMs\":%.3f}",
+                count, meanMillis, p50Millis, p90Millis, p99Millis, maxMillis);
+    }
+}
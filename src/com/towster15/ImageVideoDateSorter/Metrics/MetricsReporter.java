@@ -0,0 +1,74 @@
+package com.towster15.ImageVideoDateSorter.Metrics;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Writes a snapshot of the sort's metrics to a file every so often,
+ * one line of JSON each time, and a last one once the sort's finished.
+ * Lines are added to the end of the file, so several runs can be
+ * compared from the one file.
+ */
+public class MetricsReporter extends Thread {
+    private final Logger LOGGER;
+    private final SortMetrics metrics;
+    private final Path metricsFile;
+    private final long intervalMillis;
+
+    /**
+     * @param log         the logger to report events to
+     * @param metrics     the metrics to write out
+     * @param metricsFile the file to add the snapshots to
+     * @param interval    how long to leave between snapshots
+     */
+    public MetricsReporter(Logger log, SortMetrics metrics, Path metricsFile,
+                           Duration interval) {
+        super("Metrics reporter");
+        LOGGER = log;
+        this.metrics = metrics;
+        this.metricsFile = metricsFile;
+        intervalMillis = Math.max(1, interval.toMillis());
+    }
+
+    /**
+     * Run method for when an instance of this class, as a thread, is
+     * called. Interrupting it writes the last snapshot and stops it.
+     */
+    public void run() {
+        try (BufferedWriter writer = open()) {
+            while (true) {
+                try {
+                    Thread.sleep(intervalMillis);
+                } catch (InterruptedException intEx) {
+                    write(writer);
+                    return;
+                }
+                write(writer);
+            }
+        } catch (IOException ioEx) {
+            LOGGER.log(Level.WARNING, "Failed to write the metrics file", ioEx);
+        }
+    }
+
+    private BufferedWriter open() throws IOException {
+        Path parent = metricsFile.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        return Files.newBufferedWriter(metricsFile, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    private void write(BufferedWriter writer) throws IOException {
+        writer.write(metrics.toJson());
+        writer.newLine();
+        writer.flush();
+    }
+}
@@ -0,0 +1,333 @@
+package com.towster15.ImageVideoDateSorter.Metrics;
+
+import java.lang.management.ManagementFactory;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Counts what a sort has got through and times each of its stages, so
+ * it's possible to tell whether a run is held up by reading dates,
+ * making folders or the disks.
+ * <p>
+ * The stages share one instance, and recording never locks, so it's
+ * cheap enough to leave on for every sort. The numbers can be watched
+ * live over JMX once {@link #register()} has been called, and are
+ * written out every so often by {@link MetricsReporter}.
+ * <ul>
+ *     <li>scan: listing a source folder and reading its entries'
+ *     attributes, not counting time spent waiting for the sorters</li>
+ *     <li>date: working out the date of an image or video</li>
+ *     <li>mkdir: making a destination folder and listing what's in it</li>
+ *     <li>transfer: renaming or copying a file into place</li>
+ * </ul>
+ */
+public class SortMetrics implements SortMetricsMXBean {
+    /**
+     * The name the metrics are registered under with JMX.
+     */
+    public static final String OBJECT_NAME = "com.towster15.ImageVideoDateSorter:type=SortMetrics";
+
+    private final Logger LOGGER;
+    private final long startTime = System.nanoTime();
+    private volatile long endTime = 0;
+    private final LongAdder filesFound = new LongAdder();
+    private final LongAdder filesSorted = new LongAdder();
+    private final LongAdder bytesSorted = new LongAdder();
+    private final LongAdder filesFailed = new LongAdder();
+    private final LongAdder foldersMade = new LongAdder();
+    private final LongAdder namesNumbered = new LongAdder();
+    private final LongAdder collisionRetries = new LongAdder();
+    private final LongAdder duplicatesSkipped = new LongAdder();
+    private final LongAdder duplicatesLinked = new LongAdder();
+    private final LatencyHistogram scanLatency = new LatencyHistogram();
+    private final LatencyHistogram dateLatency = new LatencyHistogram();
+    private final LatencyHistogram mkdirLatency = new LatencyHistogram();
+    private final LatencyHistogram transferLatency = new LatencyHistogram();
+    private final Map<String, BlockingQueue<?>> queues = new ConcurrentHashMap<>();
+    private ObjectName registeredAs;
+
+    /**
+     * @param log the logger to report events to
+     */
+    public SortMetrics(Logger log) {
+        LOGGER = log;
+    }
+
+    /**
+     * Records a file the scanner has handed to the sorters.
+     */
+    public void fileFound() {
+        filesFound.increment();
+    }
+
+    /**
+     * @param nanos how long a source folder took to list
+     */
+    public void folderScanned(long nanos) {
+        scanLatency.record(nanos);
+    }
+
+    /**
+     * @param nanos how long a file took to date
+     */
+    public void fileDated(long nanos) {
+        dateLatency.record(nanos);
+    }
+
+    /**
+     * @param nanos how long a destination folder took to make
+     */
+    public void folderMade(long nanos) {
+        foldersMade.increment();
+        mkdirLatency.record(nanos);
+    }
+
+    /**
+     * Records a file that was put in place, or added to the plan.
+     *
+     * @param nanos how long it took
+     * @param bytes the size of the file, or 0 if it's not known
+     */
+    public void fileSorted(long nanos, long bytes) {
+        filesSorted.increment();
+        bytesSorted.add(bytes);
+        transferLatency.record(nanos);
+    }
+
+    /**
+     * Records a file that couldn't be sorted, and was left where it
+     * was.
+     */
+    public void fileFailed() {
+        filesFailed.increment();
+    }
+
+    /**
+     * Records a file that was given a numbered name, because its own
+     * was already taken in the folder.
+     */
+    public void nameNumbered() {
+        namesNumbered.increment();
+    }
+
+    /**
+     * Records a name that turned out to be taken by something outside
+     * the sort, so the transfer was tried again under the next one.
+     */
+    public void collisionRetry() {
+        collisionRetries.increment();
+    }
+
+    /**
+     * Records a file that was left where it was, as a copy of it was
+     * already in the destination.
+     */
+    public void duplicateSkipped() {
+        duplicatesSkipped.increment();
+    }
+
+    /**
+     * Records a file that was linked to a copy of it already in the
+     * destination, rather than being moved or copied itself.
+     */
+    public void duplicateLinked() {
+        duplicatesLinked.increment();
+    }
+
+    /**
+     * Adds a queue whose depth is reported with the rest.
+     *
+     * @param name  what to call it
+     * @param queue the queue, or null if it isn't used in this sort
+     */
+    public void watchQueue(String name, BlockingQueue<?> queue) {
+        if (queue != null) {
+            queues.put(name, queue);
+        }
+    }
+
+    /**
+     * Stops the clock, so the rates stay as they were at the end of
+     * the sort.
+     */
+    public void finish() {
+        if (endTime == 0) {
+            endTime = System.nanoTime();
+        }
+    }
+
+    /**
+     * Makes the metrics visible over JMX, replacing the last sort's.
+     * They stay there after the sort has finished, until the next one
+     * starts.
+     */
+    public synchronized void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(this, name);
+            registeredAs = name;
+        } catch (JMException | SecurityException ex) {
+            LOGGER.log(Level.WARNING, "Failed to register the sort metrics with JMX", ex);
+        }
+    }
+
+    @Override
+    public double getElapsedSeconds() {
+        long end = endTime != 0 ? endTime : System.nanoTime();
+        return Math.max(1, end - startTime) / 1_000_000_000.0;
+    }
+
+    @Override
+    public long getFilesFound() {
+        return filesFound.sum();
+    }
+
+    @Override
+    public long getFilesDated() {
+        return dateLatency.getCount();
+    }
+
+    @Override
+    public long getFilesSorted() {
+        return filesSorted.sum();
+    }
+
+    @Override
+    public long getBytesSorted() {
+        return bytesSorted.sum();
+    }
+
+    @Override
+    public long getFilesFailed() {
+        return filesFailed.sum();
+    }
+
+    @Override
+    public double getFilesPerSecond() {
+        return getFilesSorted() / getElapsedSeconds();
+    }
+
+    @Override
+    public double getBytesPerSecond() {
+        return getBytesSorted() / getElapsedSeconds();
+    }
+
+    @Override
+    public long getFoldersMade() {
+        return foldersMade.sum();
+    }
+
+    @Override
+    public long getNamesNumbered() {
+        return namesNumbered.sum();
+    }
+
+    @Override
+    public long getCollisionRetries() {
+        return collisionRetries.sum();
+    }
+
+    @Override
+    public long getDuplicatesSkipped() {
+        return duplicatesSkipped.sum();
+    }
+
+    @Override
+    public long getDuplicatesLinked() {
+        return duplicatesLinked.sum();
+    }
+
+    @Override
+    public Map<String, Integer> getQueueDepths() {
+        Map<String, Integer> depths = new LinkedHashMap<>();
+        queues.forEach((name, queue) -> depths.put(name, queue.size()));
+        return depths;
+    }
+
+    @Override
+    public LatencySummary getScanLatency() {
+        return scanLatency.summarise();
+    }
+
+    @Override
+    public LatencySummary getDateLatency() {
+        return dateLatency.summarise();
+    }
+
+    @Override
+    public LatencySummary getMkdirLatency() {
+        return mkdirLatency.summarise();
+    }
+
+    @Override
+    public LatencySummary getTransferLatency() {
+        return transferLatency.summarise();
+    }
+
+    /**
+     * @return everything as a single line of JSON, for the metrics
+     * file
+     */
+    public String toJson() {
+        StringBuilder json = new StringBuilder(512);
+        json.append(String.format(Locale.ROOT,
+                "{\"time\":\"%s\",\"elapsedSeconds\":%.3f,\"filesFound\":%d,\"filesDated\":%d,"
+                        + "\"filesSorted\":%d,\"bytesSorted\":%d,\"filesFailed\":%d,"
+                        + "\"filesPerSecond\":%.1f,"
+                        + "\"bytesPerSecond\":%.0f,\"foldersMade\":%d,\"namesNumbered\":%d,"
+                        + "\"collisionRetries\":%d,\"duplicatesSkipped\":%d,\"duplicatesLinked\":%d,"
+                        + "\"queues\":{",
+                Instant.now(), getElapsedSeconds(), getFilesFound(), getFilesDated(),
+                getFilesSorted(), getBytesSorted(), getFilesFailed(), getFilesPerSecond(),
+                getBytesPerSecond(),
+                getFoldersMade(), getNamesNumbered(), getCollisionRetries(),
+                getDuplicatesSkipped(), getDuplicatesLinked()));
+        boolean first = true;
+        for (Map.Entry<String, Integer> depth : getQueueDepths().entrySet()) {
+            if (!first) {
+                json.append(',');
+            }
+            json.append('"').append(depth.getKey()).append("\":").append(depth.getValue());
+            first = false;
+        }
+        json.append("},\"scan\":").append(getScanLatency().toJson())
+                .append(",\"date\":").append(getDateLatency().toJson())
+                .append(",\"mkdir\":").append(getMkdirLatency().toJson())
+                .append(",\"transfer\":").append(getTransferLatency().toJson())
+                .append('}');
+        return json.toString();
+    }
+
+    /**
+     * @return a short summary for the log at the end of a sort
+     */
+    public String summary() {
+        LatencySummary date = getDateLatency();
+        LatencySummary transfer = getTransferLatency();
+        return String.format(Locale.ROOT,
+                "Sorted %d of %d files, %.1f MB, in %.2fs, %d failed: %.0f files/s, %.1f MB/s. "
+                        + "Dating took %.2fms (p99 %.2fms), transfers %.2fms (p99 %.2fms), "
+                        + "%d folders made, %d names numbered, %d collision retries, "
+                        + "%d duplicates skipped, %d linked",
+                getFilesSorted(), getFilesFound(), getBytesSorted() / 1_000_000.0,
+                getElapsedSeconds(), getFilesFailed(), getFilesPerSecond(),
+                getBytesPerSecond() / 1_000_000.0,
+                date.p50Millis(), date.p99Millis(), transfer.p50Millis(), transfer.p99Millis(),
+                getFoldersMade(), getNamesNumbered(), getCollisionRetries(),
+                getDuplicatesSkipped(), getDuplicatesLinked());
+    }
+}
@@ -0,0 +1,46 @@
+package com.towster15.ImageVideoDateSorter.Metrics;
+
+import java.util.Map;
+
+/**
+ * The live numbers for the sort that's running, as seen through JMX,
+ * for example in JConsole or VisualVM under
+ * {@value SortMetrics#OBJECT_NAME}.
+ */
+public interface SortMetricsMXBean {
+    double getElapsedSeconds();
+
+    long getFilesFound();
+
+    long getFilesDated();
+
+    long getFilesSorted();
+
+    long getBytesSorted();
+
+    long getFilesFailed();
+
+    double getFilesPerSecond();
+
+    double getBytesPerSecond();
+
+    long getFoldersMade();
+
+    long getNamesNumbered();
+
+    long getCollisionRetries();
+
+    long getDuplicatesSkipped();
+
+    long getDuplicatesLinked();
+
+    Map<String, Integer> getQueueDepths();
+
+    LatencySummary getScanLatency();
+
+    LatencySummary getDateLatency();
+
+    LatencySummary getMkdirLatency();
+
+    LatencySummary getTransferLatency();
+}
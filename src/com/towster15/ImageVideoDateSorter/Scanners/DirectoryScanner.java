@@ -0,0 +1,588 @@
+package com.towster15.ImageVideoDateSorter.Scanners;
+
+import com.towster15.ImageVideoDateSorter.Metrics.SortMetrics;
+import com.towster15.ImageVideoDateSorter.Sorters.SortCancellation;
+import com.towster15.ImageVideoDateSorter.Sorters.TransferJournal;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Walks the source directory and hands each file to the queue of the
+ * sorter that should deal with it, while the walk is still going.
+ * <p>
+ * The queues are bounded, so the scan only ever runs a little ahead
+ * of the sorters instead of holding the whole tree in memory. Once
+ * the walk is done, {@link #END_OF_SCAN} is put on every queue.
+ * <p>
+ * With more than one scan thread, folders are listed in parallel on
+ * a {@link ForkJoinPool}, with each sub-folder becoming its own task
+ * so idle threads can steal them. An ordered scan still lists in
+ * parallel, but hands files over folder by folder in name order, so
+ * the sorters see the same order on every run. That means holding on
+ * to the listings of folders the sorters haven't reached yet.
+ * <p>
+ * On a spinning disk, reading files in the order they're listed
+ * moves the head back and forth across the disk. With a locality
+ * window, files are held back a window at a time, from one folder,
+ * and handed over in the order they're most likely to be on the disk,
+ * by inode number, which file systems like ext4 give out close to
+ * where a file's data is. Files from folders being listed on other
+ * threads can be handed over in between, but each window's own files
+ * still go in disk order.
+ */
+public class DirectoryScanner extends Thread {
+    /**
+     * Marker put on each queue once the scan has finished. Compare
+     * by reference, never with equals.
+     */
+    public static final File END_OF_SCAN = new File("");
+    private static final Comparator<Located> BY_POSITION =
+            Comparator.comparingLong(Located::position);
+    private final Logger LOGGER;
+    private final File sourceDir;
+    private final BlockingQueue<File> imageQueue;
+    private final BlockingQueue<File> aaeQueue;
+    private final BlockingQueue<File> videoQueue;
+    private final boolean sortAllFiles;
+    private final int scanThreads;
+    private final boolean orderedScan;
+    private final int localityWindow;
+    private final FileClassifier classifier;
+    private final TransferJournal journal;
+    private final SortCancellation cancellation;
+    private final SortMetrics metrics;
+    private final LongAdder folderCount = new LongAdder();
+    private final LongAdder entryCount = new LongAdder();
+    private final Set<Object> visitedFolders = ConcurrentHashMap.newKeySet();
+    private volatile boolean stopped = false;
+
+    /**
+     * Any of the queues can be null, in which case files of that type
+     * are left alone.
+     *
+     * @param log            the logger to report events to
+     * @param sourceDir      directory to search through, including
+     *                       sub-folders
+     * @param imageQueue     queue to put images onto
+     * @param aaeQueue       queue to put AAE files onto
+     * @param videoQueue     queue to put videos onto
+     * @param sortAllFiles   boolean to send any non-image file to the
+     *                       video queue
+     * @param scanThreads    how many folders can be listed at once
+     * @param orderedScan    boolean to hand files over in the same order
+     *                       on every run
+     * @param localityWindow how many files from a folder are put in
+     *                       disk order at a time, or 0 to hand them
+     *                       over in the order they're listed
+     * @param classifier     works out which queue each file goes on
+     * @param journal        the last sort's transfers, to skip the files
+     *                       it already sorted, or null
+     * @param cancellation   tells the scan to stop early
+     * @param metrics        where to record how long folders take to scan
+     */
+    public DirectoryScanner(
+            Logger log,
+            File sourceDir,
+            BlockingQueue<File> imageQueue,
+            BlockingQueue<File> aaeQueue,
+            BlockingQueue<File> videoQueue,
+            boolean sortAllFiles,
+            int scanThreads,
+            boolean orderedScan,
+            int localityWindow,
+            FileClassifier classifier,
+            TransferJournal journal,
+            SortCancellation cancellation,
+            SortMetrics metrics) {
+        LOGGER = log;
+        this.sourceDir = sourceDir;
+        this.imageQueue = imageQueue;
+        this.aaeQueue = aaeQueue;
+        this.videoQueue = videoQueue;
+        this.sortAllFiles = sortAllFiles;
+        this.scanThreads = scanThreads;
+        this.orderedScan = orderedScan;
+        this.localityWindow = Math.max(0, localityWindow);
+        this.classifier = classifier;
+        this.journal = journal;
+        this.cancellation = cancellation;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Run method for when an instance of this class, as a thread, is
+     * called.
+     */
+    public void run() {
+        long startTime = System.nanoTime();
+        try {
+            if (scanThreads > 1 || orderedScan) {
+                scanInParallel();
+            } else {
+                walkFolders();
+            }
+        } catch (InterruptedException intEx) {
+            LOGGER.log(Level.WARNING, "Directory scan interrupted");
+        } catch (IOException ioEx) {
+            LOGGER.log(Level.WARNING, "IOException scanning source folder", ioEx);
+        } finally {
+            endQueue(imageQueue);
+            endQueue(aaeQueue);
+            endQueue(videoQueue);
+            reportThroughput(System.nanoTime() - startTime);
+        }
+    }
+
+    /**
+     * @return how many folders have been listed so far
+     */
+    public long getFolderCount() {
+        return folderCount.sum();
+    }
+
+    /**
+     * @return how many files and folders have been found so far
+     */
+    public long getEntryCount() {
+        return entryCount.sum();
+    }
+
+    /**
+     * Walks the source folder on this thread alone.
+     * <p>
+     * Each folder's scan time leaves out the time spent in its
+     * sub-folders, and waiting for the sorters, to match the time a
+     * parallel scan takes to list it. A locality window only ever holds
+     * files from the folder being listed, as it's handed over before
+     * going into a sub-folder and once the folder's finished.
+     */
+    private void walkFolders() throws IOException {
+        // The start of each open folder, then the time to leave out
+        Deque<long[]> openFolders = new ArrayDeque<>();
+        Files.walkFileTree(sourceDir.toPath(), EnumSet.of(FileVisitOption.FOLLOW_LINKS),
+                Integer.MAX_VALUE, new SimpleFileVisitor<>() {
+                    private final List<Located> window = new ArrayList<>();
+
+                    @Override
+                    public FileVisitResult preVisitDirectory(Path path,
+                                                             BasicFileAttributes attrs) {
+                        if (cancellation.isCancelled() || !flushWindow()) {
+                            return FileVisitResult.TERMINATE;
+                        }
+                        folderCount.increment();
+                        entryCount.increment();
+                        openFolders.push(new long[]{System.nanoTime(), 0});
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult postVisitDirectory(Path path, IOException exc)
+                            throws IOException {
+                        if (!flushWindow()) {
+                            return FileVisitResult.TERMINATE;
+                        }
+                        long[] folder = openFolders.pop();
+                        long elapsed = System.nanoTime() - folder[0];
+                        metrics.folderScanned(elapsed - folder[1]);
+                        if (!openFolders.isEmpty()) {
+                            openFolders.peek()[1] += elapsed;
+                        }
+                        return super.postVisitDirectory(path, exc);
+                    }
+
+                    @Override
+                    public FileVisitResult visitFile(Path path, BasicFileAttributes attrs) {
+                        entryCount.increment();
+                        if (!attrs.isRegularFile()) {
+                            return FileVisitResult.CONTINUE;
+                        }
+                        if (cancellation.isCancelled()) {
+                            return FileVisitResult.TERMINATE;
+                        }
+                        try {
+                            long waited;
+                            if (localityWindow > 0) {
+                                window.add(locate(path, attrs));
+                                waited = window.size() < localityWindow ? 0
+                                        : handOverWindow(window);
+                            } else {
+                                waited = offerFile(path.toFile());
+                            }
+                            if (!openFolders.isEmpty()) {
+                                openFolders.peek()[1] += waited;
+                            }
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            return FileVisitResult.TERMINATE;
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFileFailed(Path path, IOException exc) {
+                        LOGGER.log(Level.WARNING, "Failed to read " + path, exc);
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    /**
+                     * Hands over what's left in the window, leaving
+                     * the wait out of the open folder's scan time.
+                     *
+                     * @return false if the scan was interrupted
+                     */
+                    private boolean flushWindow() {
+                        if (window.isEmpty()) {
+                            return true;
+                        }
+                        try {
+                            long waited = handOverWindow(window);
+                            if (!openFolders.isEmpty()) {
+                                openFolders.peek()[1] += waited;
+                            }
+                            return true;
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            return false;
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Lists the source folder using a pool of scan threads.
+     */
+    private void scanInParallel() throws InterruptedException {
+        ForkJoinPool pool = new ForkJoinPool(scanThreads);
+        try {
+            ScanTask root = new ScanTask(sourceDir.toPath());
+            visitedFolders.add(folderKey(root.folder, null));
+            pool.execute(root);
+            if (orderedScan) {
+                handOver(root);
+            } else {
+                root.join();
+            }
+        } finally {
+            stopped = true;
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Hands the files found by an ordered scan to the sorters, waiting
+     * for each folder to be listed in turn.
+     *
+     * @param task the folder to hand over, followed by its sub-folders
+     */
+    private void handOver(ScanTask task) throws InterruptedException {
+        task.join();
+        for (File file : task.files) {
+            if (cancellation.isCancelled()) {
+                return;
+            }
+            offerFile(file);
+        }
+        task.files.clear();
+        for (ScanTask subfolder : task.subfolders) {
+            handOver(subfolder);
+        }
+        task.subfolders.clear();
+    }
+
+    /**
+     * Logs how quickly the scan got through the source folder, to help
+     * with picking the number of scan threads.
+     *
+     * @param nanos how long the scan took
+     */
+    private void reportThroughput(long nanos) {
+        double seconds = Math.max(nanos, 1) / 1_000_000_000.0;
+        long folders = folderCount.sum();
+        long entries = entryCount.sum();
+        LOGGER.log(Level.INFO, String.format(
+                "Scanned %d folders and %d entries in %.2fs with %d thread(s): "
+                        + "%.0f folders/s, %.0f entries/s",
+                folders, entries, seconds, scanThreads, folders / seconds, entries / seconds));
+    }
+
+    /**
+     * Returns something that identifies a folder, so folders reached
+     * more than once through links are only scanned once.
+     *
+     * @param folder the folder
+     * @param attrs  the folder's attributes, if already read
+     * @return the file key, or the real path where there isn't one
+     */
+    private static Object folderKey(Path folder, BasicFileAttributes attrs) {
+        try {
+            if (attrs == null) {
+                attrs = Files.readAttributes(folder, BasicFileAttributes.class);
+            }
+            if (attrs.fileKey() != null) {
+                return attrs.fileKey();
+            }
+            return folder.toRealPath();
+        } catch (IOException ioEx) {
+            return folder.toAbsolutePath().normalize();
+        }
+    }
+
+    /**
+     * Lists a single folder, forking a new task for every sub-folder.
+     * Files are handed straight to the sorters, or a locality window
+     * at a time, unless the scan is ordered, where they're kept in
+     * name order, or in disk order within each window, for
+     * {@link #handOver(ScanTask)}.
+     */
+    // Serializable through ForkJoinTask, but never serialized
+    @SuppressWarnings("serial")
+    private class ScanTask extends RecursiveAction {
+        private final Path folder;
+        private final List<File> files = new ArrayList<>();
+        private final List<ScanTask> subfolders = new ArrayList<>();
+
+        private ScanTask(Path folder) {
+            this.folder = folder;
+        }
+
+        @Override
+        protected void compute() {
+            if (stopped || cancellation.isCancelled()) {
+                return;
+            }
+            long startTime = System.nanoTime();
+            long handingOver = 0;
+            List<Path> entries = new ArrayList<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(folder)) {
+                for (Path entry : stream) {
+                    entries.add(entry);
+                }
+            } catch (IOException | DirectoryIteratorException ex) {
+                LOGGER.log(Level.WARNING, "Failed to read " + folder, ex);
+                return;
+            }
+            folderCount.increment();
+            entryCount.add(entries.size());
+            if (orderedScan) {
+                entries.sort(null);
+            }
+            List<Located> window = localityWindow > 0 ? new ArrayList<>() : null;
+
+            for (Path entry : entries) {
+                if (cancellation.isCancelled()) {
+                    break;
+                }
+                BasicFileAttributes attrs;
+                try {
+                    attrs = Files.readAttributes(entry, BasicFileAttributes.class);
+                } catch (IOException ioEx) {
+                    LOGGER.log(Level.WARNING, "Failed to read " + entry, ioEx);
+                    continue;
+                }
+                if (attrs.isDirectory()) {
+                    if (visitedFolders.add(folderKey(entry, attrs))) {
+                        ScanTask subfolder = new ScanTask(entry);
+                        subfolder.fork();
+                        subfolders.add(subfolder);
+                    }
+                } else if (attrs.isRegularFile()) {
+                    if (window != null) {
+                        window.add(locate(entry, attrs));
+                        if (!orderedScan && window.size() >= localityWindow) {
+                            try {
+                                handingOver += handOverWindow(window);
+                            } catch (InterruptedException intEx) {
+                                stopped = true;
+                                return;
+                            }
+                        }
+                    } else if (orderedScan) {
+                        files.add(entry.toFile());
+                    } else {
+                        try {
+                            handingOver += offerFile(entry.toFile());
+                        } catch (InterruptedException intEx) {
+                            stopped = true;
+                            return;
+                        }
+                    }
+                }
+            }
+
+            if (window != null && orderedScan) {
+                for (int from = 0; from < window.size(); from += localityWindow) {
+                    List<Located> part = window.subList(from,
+                            Math.min(window.size(), from + localityWindow));
+                    part.sort(BY_POSITION);
+                    for (Located located : part) {
+                        files.add(located.file());
+                    }
+                }
+            } else if (window != null && !window.isEmpty()) {
+                try {
+                    handingOver += handOverWindow(window);
+                } catch (InterruptedException intEx) {
+                    stopped = true;
+                    return;
+                }
+            }
+
+            metrics.folderScanned(System.nanoTime() - startTime - handingOver);
+
+            if (!orderedScan) {
+                for (ScanTask subfolder : subfolders) {
+                    subfolder.join();
+                }
+                subfolders.clear();
+            }
+        }
+    }
+
+    /**
+     * A file waiting in a locality window.
+     *
+     * @param file     the file
+     * @param position roughly where it is on the disk
+     */
+    private record Located(File file, long position) {
+    }
+
+    private static Located locate(Path file, BasicFileAttributes attrs) {
+        return new Located(file.toFile(), diskPosition(attrs));
+    }
+
+    /**
+     * Finds roughly where a file is on the disk, from its inode
+     * number. Asking for where its data really is needs the FIEMAP
+     * ioctl, which Java can't call, but file systems like ext4 put a
+     * file's data close to its inode, so inode order is a good guess.
+     * <p>
+     * The inode number is taken from the file key of the attributes
+     * already read while listing, which on Unix looks like
+     * {@code (dev=803,ino=1234)}, rather than asking for it again.
+     *
+     * @param attrs the file's attributes
+     * @return the file's inode number, or 0 where there isn't one, so
+     * the files keep the order they were listed in
+     */
+    static long diskPosition(BasicFileAttributes attrs) {
+        Object key = attrs.fileKey();
+        if (key == null) {
+            return 0;
+        }
+        String text = key.toString();
+        int start = text.indexOf("ino=");
+        if (start < 0) {
+            return 0;
+        }
+        start += 4;
+        int end = start;
+        while (end < text.length() && Character.isDigit(text.charAt(end))) {
+            end++;
+        }
+        try {
+            return Long.parseLong(text, start, end, 10);
+        } catch (NumberFormatException badKey) {
+            return 0;
+        }
+    }
+
+    /**
+     * Hands over a locality window of files from one folder in disk
+     * order. No lock is held, so other scan threads carry on handing
+     * over their own files while this one waits for room.
+     *
+     * @param window the files, which is left empty
+     * @return how long it took to hand the files over, which isn't
+     * counted as scanning
+     */
+    private long handOverWindow(List<Located> window) throws InterruptedException {
+        window.sort(BY_POSITION);
+        long waited = 0;
+        for (Located located : window) {
+            if (cancellation.isCancelled()) {
+                break;
+            }
+            waited += offerFile(located.file());
+        }
+        window.clear();
+        return waited;
+    }
+
+    /**
+     * Puts the file onto the queue matching its type, waiting for
+     * space if the sorters have fallen behind.
+     *
+     * @param file the file that was found
+     * @return how long it took to hand the file over, which isn't
+     * counted as scanning
+     */
+    private long offerFile(File file) throws InterruptedException {
+        if (journal != null && journal.isDone(file)) {
+            // Sorted before the last sort was stopped, so there's no
+            // need to read its date again
+            return 0;
+        }
+        BlockingQueue<File> queue = switch (classifier.classify(file.toPath())) {
+            case IMAGE -> imageQueue;
+            case SIDECAR -> aaeQueue;
+            case VIDEO -> videoQueue;
+            case OTHER -> sortAllFiles ? videoQueue : null;
+        };
+        if (queue == null) {
+            return 0;
+        }
+        long startTime = System.nanoTime();
+        queue.put(file);
+        metrics.fileFound();
+        return System.nanoTime() - startTime;
+    }
+
+    /**
+     * Puts the end marker onto the given queue. This has to happen
+     * even if we've been interrupted, otherwise the sorters would
+     * wait forever.
+     *
+     * @param queue the queue to end, or null
+     */
+    private static void endQueue(BlockingQueue<File> queue) {
+        if (queue == null) {
+            return;
+        }
+        boolean interrupted = Thread.interrupted();
+        while (true) {
+            try {
+                queue.put(END_OF_SCAN);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
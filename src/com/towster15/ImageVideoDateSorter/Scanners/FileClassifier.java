@@ -0,0 +1,195 @@
+package com.towster15.ImageVideoDateSorter.Scanners;
+
+import com.towster15.ImageVideoDateSorter.Metadata.FileProbe;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Works out what kind of file each file the scanner finds is.
+ * <p>
+ * Normally this goes by the file's extension alone, which is a single
+ * lookup. With sniffing turned on, the first few bytes of every file
+ * are read and checked against the signatures of the common image and
+ * video formats, so files with the wrong extension, or none, are
+ * sorted by what they really are. A file whose format isn't
+ * recognised goes by its extension. Sniffing means opening every file
+ * an extra time, which is why it's off unless asked for.
+ * <p>
+ * Without sniffing, files are still checked against the same
+ * signatures with {@link #sniff(FileProbe)} when they're dated, using
+ * the head that's been read for their date anyway, so a video named as
+ * an image is still dated as a video, though it's sorted along with
+ * the images.
+ */
+public class FileClassifier {
+    private static final int SNIFF_SIZE = 32;
+    private static final Map<String, FileType> EXTENSIONS = new HashMap<>();
+
+    static {
+        for (String extension : new String[]{"jpg", "jpeg", "jpe", "jif", "jfif", "jfi", "jp2",
+                "j2k", "jpf", "jpx", "jpm", "mj2", "raw", "dib", "svg", "svgz", "png", "webp",
+                "gif", "bmp", "heic", "heif", "tiff", "tif"}) {
+            EXTENSIONS.put(extension, FileType.IMAGE);
+        }
+        for (String extension : new String[]{"webm", "mkv", "flv", "ogv", "avi", "mts", "m2ts",
+                "ts", "mov", "qt", "wmv", "rm", "rmvb", "viv", "asf", "amv", "mp4", "m4p", "m4v",
+                "mpg", "mp2", "mpeg", "mpe", "mpv", "m2v", "svi", "3gp", "3g2", "mxf", "roq",
+                "nsv", "f4v", "f4p", "f4a", "f4b"}) {
+            EXTENSIONS.put(extension, FileType.VIDEO);
+        }
+        EXTENSIONS.put("aae", FileType.SIDECAR);
+    }
+
+    private final boolean sniffContent;
+
+    /**
+     * @param sniffContent true to check the start of each file for
+     *                     the signature of its format
+     */
+    public FileClassifier(boolean sniffContent) {
+        this.sniffContent = sniffContent;
+    }
+
+    /**
+     * @return true if the start of each file is checked
+     */
+    public boolean isSniffContent() {
+        return sniffContent;
+    }
+
+    /**
+     * Works out what kind of file this is.
+     *
+     * @param path the file
+     * @return the file's type
+     */
+    public FileType classify(Path path) {
+        String fileName = path.getFileName().toString();
+        FileType type = byName(fileName);
+        if (!sniffContent || type == FileType.SIDECAR || fileName.startsWith(".")) {
+            return type;
+        }
+        try (FileProbe probe = FileProbe.open(path, null, SNIFF_SIZE)) {
+            FileType sniffed = sniff(probe);
+            return sniffed != null ? sniffed : type;
+        } catch (IOException ioEx) {
+            return type;
+        }
+    }
+
+    /**
+     * Works out what kind of file this is from its extension alone.
+     * Hidden files, such as the ones macOS leaves on other drives,
+     * are never images or videos.
+     *
+     * @param fileName the file's name
+     * @return the file's type
+     */
+    public static FileType byName(String fileName) {
+        String extension = extension(fileName);
+        if (extension == null || fileName.startsWith(".")) {
+            return FileType.OTHER;
+        }
+        return EXTENSIONS.getOrDefault(extension, FileType.OTHER);
+    }
+
+    /**
+     * Gets a file's extension.
+     *
+     * @param fileName the file's name
+     * @return the extension in lower case, without the dot, or null
+     * if there isn't one
+     */
+    public static String extension(String fileName) {
+        int dot = fileName.lastIndexOf('.');
+        if (dot < 0 || dot == fileName.length() - 1) {
+            return null;
+        }
+        return fileName.substring(dot + 1).toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Checks the start of a file to see which format it's in.
+     *
+     * @param probe the opened file
+     * @return the file's type, or null if its format wasn't recognised
+     */
+    public static FileType sniff(FileProbe probe) {
+        return signature(probe.head());
+    }
+
+    /**
+     * Matches the start of a file against the signatures of the image
+     * and video formats that can be recognised from it.
+     *
+     * @param head the first bytes of the file
+     * @return the file's type, or null if it wasn't recognised
+     */
+    private static FileType signature(ByteBuffer head) {
+        int length = head.limit();
+        if (length < 4) {
+            return null;
+        }
+        int first = head.getInt(0);
+        if ((first & 0xFFFFFF00) == 0xFFD8FF00 // JPEG
+                || first == 0x89504E47 // PNG
+                || first == 0x47494638 // GIF8
+                || first == 0x49492A00 || first == 0x4D4D002A) { // TIFF, and most raw formats
+            return FileType.IMAGE;
+        }
+        if (first == 0x1A45DFA3 // Matroska and WebM
+                || first == 0x000001BA || first == 0x000001B3 // MPEG program stream
+                || (first & 0xFFFFFF00) == 0x464C5600 // FLV
+                || first == 0x3026B275 // ASF and WMV
+                || first == 0x2E524D46) { // RealMedia
+            return FileType.VIDEO;
+        }
+        if (length >= 12 && first == 0x52494646) { // RIFF
+            String form = ascii(head, 8);
+            if (form.equals("WEBP")) {
+                return FileType.IMAGE;
+            }
+            if (form.equals("AVI ")) {
+                return FileType.VIDEO;
+            }
+            return null;
+        }
+        if (length >= 12 && first == 0x0000000C && head.getInt(4) == 0x6A502020) {
+            return FileType.IMAGE; // JPEG 2000
+        }
+        if (length >= 8) {
+            String box = ascii(head, 4);
+            if (box.equals("ftyp") && length >= 12) {
+                // Lots of formats are built from the same boxes, raw
+                // photos and audio among them, so only the brands
+                // known to be one or the other are trusted
+                return switch (ascii(head, 8)) {
+                    case "heic", "heix", "hevc", "hevx", "heim", "heis", "mif1", "msf1", "avif",
+                         "avis", "jp2 " -> FileType.IMAGE;
+                    case "isom", "iso2", "iso3", "iso4", "iso5", "iso6", "mp41", "mp42", "avc1",
+                         "M4V ", "M4VH", "M4VP", "qt  ", "3gp4", "3gp5", "3gp6", "3gp7", "3g2a",
+                         "3g2b", "3g2c", "mmp4", "MSNV", "XAVC", "f4v ", "dash" -> FileType.VIDEO;
+                    default -> null;
+                };
+            }
+            // Older QuickTime files can start with any of these
+            if (box.equals("moov") || box.equals("mdat") || box.equals("wide")
+                    || box.equals("free") || box.equals("skip")) {
+                return FileType.VIDEO;
+            }
+        }
+        return null;
+    }
+
+    private static String ascii(ByteBuffer buffer, int offset) {
+        byte[] bytes = new byte[4];
+        buffer.get(offset, bytes);
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+}
@@ -0,0 +1,15 @@
+package com.towster15.ImageVideoDateSorter.Scanners;
+
+/**
+ * The kinds of file the scanner hands to the sorters.
+ */
+public enum FileType {
+    IMAGE,
+    VIDEO,
+    /**
+     * An AAE file, holding the edits made to an image on an iPhone,
+     * which goes with its image
+     */
+    SIDECAR,
+    OTHER
+}
@@ -1,33 +1,59 @@
 package com.towster15.ImageVideoDateSorter.SortControllers;
 
+import com.towster15.ImageVideoDateSorter.Metadata.DateCache;
+import com.towster15.ImageVideoDateSorter.Metrics.SortMetrics;
+import com.towster15.ImageVideoDateSorter.Scanners.DirectoryScanner;
 import com.towster15.ImageVideoDateSorter.Sorters.ImageSorter;
+import com.towster15.ImageVideoDateSorter.Sorters.IoLimiter;
+import com.towster15.ImageVideoDateSorter.Sorters.SortCancellation;
+import com.towster15.ImageVideoDateSorter.Sorters.SortTask;
 import com.towster15.ImageVideoDateSorter.Sorters.aaeSorter;
 
 import java.io.File;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.logging.Logger;
 
 public class ImgSortController extends SortController {
     private final Logger LOGGER;
-    private final List<File> images;
-    private final List<File> aaeList;
+    private final BlockingQueue<File> images;
+    private final BlockingQueue<File> aaeQueue;
+    private final BlockingQueue<SortTask> transfers;
+    private final DateCache dateCache;
+    private final Map<String, Path> sortedFolders;
     private final boolean sortAAEs;
     private final boolean separateBroken;
     private final boolean OSCreateDateSort;
 
     public ImgSortController(
             Logger log,
-            List<File> imageList,
+            BlockingQueue<File> imageQueue,
+            BlockingQueue<SortTask> transferQueue,
+            DateCache dateCache,
             File destinationDir,
             boolean separateBroken,
             boolean daySort,
             boolean OSCreateDateSort,
-            boolean copyInsteadOfMove) {
-        super(destinationDir, daySort, copyInsteadOfMove);
+            boolean copyInsteadOfMove,
+            int threadCount,
+            boolean virtualThreads,
+            IoLimiter limiter,
+            SortCancellation cancellation,
+            SortMetrics metrics) {
+        super(destinationDir, daySort, copyInsteadOfMove, threadCount, virtualThreads, limiter,
+                cancellation, metrics);
         LOGGER = log;
-        images = imageList;
-        this.aaeList = new ArrayList<>();
+        images = imageQueue;
+        transfers = transferQueue;
+        this.dateCache = dateCache;
+        this.sortedFolders = null;
+        this.aaeQueue = null;
         this.sortAAEs = false;
         this.separateBroken = separateBroken;
         this.OSCreateDateSort = OSCreateDateSort;
@@ -35,50 +61,106 @@ public class ImgSortController extends SortController {
 
     public ImgSortController(
             Logger log,
-            List<File> imageList,
-            List<File> aaeList,
+            BlockingQueue<File> imageQueue,
+            BlockingQueue<File> aaeQueue,
+            BlockingQueue<SortTask> transferQueue,
+            DateCache dateCache,
+            Map<String, Path> sortedFolders,
             File destinationDir,
             boolean separateBroken,
             boolean sortAAEs,
             boolean daySort,
             boolean OSCreateDateSort,
-            boolean copyInsteadOfMove) {
-        super(destinationDir, daySort, copyInsteadOfMove);
+            boolean copyInsteadOfMove,
+            int threadCount,
+            boolean virtualThreads,
+            IoLimiter limiter,
+            SortCancellation cancellation,
+            SortMetrics metrics) {
+        super(destinationDir, daySort, copyInsteadOfMove, threadCount, virtualThreads, limiter,
+                cancellation, metrics);
         LOGGER = log;
-        images = imageList;
-        this.aaeList = aaeList;
+        images = imageQueue;
+        transfers = transferQueue;
+        this.dateCache = dateCache;
+        this.sortedFolders = sortedFolders;
+        this.aaeQueue = aaeQueue;
         this.sortAAEs = sortAAEs;
         this.separateBroken = separateBroken;
         this.OSCreateDateSort = OSCreateDateSort;
     }
 
+    /**
+     * Starts the image sorters, all taking from the same image
+     * queue, so each image is claimed by exactly one of them, or with
+     * virtual threads, dates each image on a virtual thread of its own
+     * instead. AAEs are handled by a separate sorter alongside; when
+     * they're being sorted, it waits until every image has been dated
+     * before matching them up.
+     */
     public void run() {
-        if (sortAAEs) {
-            ImageSorter imageSorter = new ImageSorter(LOGGER, images, aaeList, destinationDir,
-                    separateBroken, true, daySort, OSCreateDateSort, copyInsteadOfMove);
-            imageSorter.start();
-            try {
-                imageSorter.join();
-            } catch (InterruptedException e) {
-                // TODO: handle this properly to allow cancellation of
-                //  the process
+        Map<String, Integer> datedImages = sortAAEs ? new ConcurrentHashMap<>() : null;
+        aaeSorter aaeThread = null;
+        if (aaeQueue != null) {
+            if (sortAAEs) {
+                aaeThread = new aaeSorter(LOGGER, aaeQueue, transfers, datedImages,
+                        sortedFolders, destinationDir, daySort, copyInsteadOfMove, cancellation,
+                        metrics);
+            } else {
+                aaeThread = new aaeSorter(LOGGER, aaeQueue, transfers, destinationDir,
+                        copyInsteadOfMove, cancellation, metrics);
             }
+            aaeThread.start();
+        }
+
+        if (virtualThreads) {
+            dateOnVirtualThreads(datedImages);
         } else {
             List<Thread> sorterThreads = new ArrayList<>();
-            for (int i = 0; i < core_count; i++) {
-                sorterThreads.add(new ImageSorter(LOGGER, images,destinationDir,
-                        separateBroken, daySort, OSCreateDateSort, copyInsteadOfMove));
+            for (int i = 0; i < threadCount; i++) {
+                sorterThreads.add(newSorter(datedImages));
                 sorterThreads.getLast().start();
             }
-            sorterThreads.add(new aaeSorter(LOGGER, aaeList, destinationDir, copyInsteadOfMove));
-            for (Thread thread : sorterThreads) {
-                try {
-                    thread.join();
-                } catch (InterruptedException e) {
-                    // TODO: handle this properly to allow cancellation of
-                    //  the process
-                }
-            }
+            joinAll(sorterThreads);
         }
+
+        if (aaeThread != null) {
+            aaeThread.imagesDated();
+            joinAll(List.of(aaeThread));
+        }
+    }
+
+    /**
+     * Dates each image on a virtual thread of its own. The sorters
+     * aren't started, just kept to date one image at a time, as each
+     * has its own readers and buffers, and only as many are made as
+     * there are images being dated at once.
+     */
+    private void dateOnVirtualThreads(Map<String, Integer> datedImages) {
+        Queue<ImageSorter> idle = new ConcurrentLinkedQueue<>();
+        runVirtual(images, DirectoryScanner.END_OF_SCAN, image -> image, null, (image, permit) -> {
+            ImageSorter sorter = idle.poll();
+            if (sorter == null) {
+                sorter = newSorter(datedImages);
+            }
+            SortTask task;
+            try {
+                task = sorter.date(image);
+            } finally {
+                idle.offer(sorter);
+            }
+            // Done with the drive, so it can be given to another image
+            // while this one waits for room on the transfer queue
+            permit.close();
+            if (task != null) {
+                transfers.put(task);
+            }
+        });
+    }
+
+    private ImageSorter newSorter(Map<String, Integer> datedImages) {
+        return new ImageSorter(LOGGER, images, transfers, datedImages, dateCache, destinationDir,
+                separateBroken, daySort, OSCreateDateSort, copyInsteadOfMove,
+                virtualThreads ? null : limiter, cancellation, metrics);
     }
 }
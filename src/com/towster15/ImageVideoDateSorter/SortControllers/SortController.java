@@ -1,31 +1,156 @@
 package com.towster15.ImageVideoDateSorter.SortControllers;
 
+import com.towster15.ImageVideoDateSorter.Metrics.SortMetrics;
+import com.towster15.ImageVideoDateSorter.Sorters.IoLimiter;
+import com.towster15.ImageVideoDateSorter.Sorters.SortCancellation;
+
 import java.io.File;
-import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
 
 public class SortController extends Thread {
     protected final File destinationDir;
     protected final boolean daySort;
     protected final boolean copyInsteadOfMove;
-    protected final int core_count = Runtime.getRuntime().availableProcessors();
+    protected final int threadCount;
+    protected final boolean virtualThreads;
+    protected final IoLimiter limiter;
+    protected final SortCancellation cancellation;
+    protected final SortMetrics metrics;
+
+    /**
+     * Work done on one item from a queue, on a virtual thread of its
+     * own.
+     */
+    protected interface VirtualTask<T> {
+        /**
+         * @param item   the item
+         * @param permit the item's permit, which is closed once this
+         *               returns, but can be closed sooner
+         */
+        void run(T item, IoLimiter.Permit permit) throws InterruptedException;
+    }
 
-    public SortController(File destinationDir, boolean daySort, boolean copyInsteadOfMove) {
+    /**
+     * @param destinationDir    destination directory File
+     * @param daySort           boolean to enable or disable sorting by days
+     * @param copyInsteadOfMove boolean to copy rather than move
+     * @param threadCount       how many sorter threads to start
+     * @param virtualThreads    boolean to give each file a virtual
+     *                          thread of its own, rather than starting
+     *                          the sorter threads
+     * @param limiter           limits how many files are worked on at
+     *                          once on each drive
+     * @param cancellation      tells the sorters to stop early
+     * @param metrics           where to record how the sort is going
+     */
+    public SortController(File destinationDir, boolean daySort, boolean copyInsteadOfMove,
+                          int threadCount, boolean virtualThreads, IoLimiter limiter,
+                          SortCancellation cancellation, SortMetrics metrics) {
         this.destinationDir = destinationDir;
         this.daySort = daySort;
         this.copyInsteadOfMove = copyInsteadOfMove;
+        this.threadCount = threadCount;
+        this.virtualThreads = virtualThreads;
+        this.limiter = limiter;
+        this.cancellation = cancellation;
+        this.metrics = metrics;
     }
 
-    protected List<List<File>> splitFileList(List<File> inputList) {
-        List<List<File>> outputList = new ArrayList<>();
-        int step = Math.floorDiv(inputList.size(), core_count);
-        for (int i = 0; i < core_count; i++) {
-            if (inputList.size() - (step * i) < step) {
-                outputList.add(inputList.subList(step * i, inputList.size()));
-            } else {
-                outputList.add(inputList.subList(step * i, step * (i + 1)));
+    /**
+     * Waits for each of the sorters to finish. Being interrupted
+     * cancels the sort, but still waits for them, as they stop
+     * quickly once cancelled and the queues have to be ended properly
+     * for everything downstream to stop.
+     *
+     * @param threads the sorter threads
+     */
+    protected void joinAll(List<? extends Thread> threads) {
+        boolean interrupted = false;
+        for (Thread thread : threads) {
+            while (true) {
+                try {
+                    thread.join();
+                    break;
+                } catch (InterruptedException intEx) {
+                    interrupted = true;
+                    cancellation.cancel();
+                }
             }
         }
-        return outputList;
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Takes every item from a queue and works on each one on a virtual
+     * thread of its own, once the limiter has room for another file,
+     * until the end marker is reached. Returns once every item's
+     * thread has finished.
+     * <p>
+     * Waiting for room overall holds up the queue, which in turn holds
+     * up whatever is filling it, the same as when every sorter thread
+     * is busy. Each thread waits for its own file's drives, so one busy
+     * drive doesn't stop files on the others being handed out. Once
+     * the sort's cancelled, whatever's left is taken and left where it
+     * is. Being interrupted cancels the sort, but still waits for the
+     * end of the queue, so everything downstream stops properly.
+     *
+     * @param queue       the queue to take from
+     * @param endMarker   the marker that ends the queue
+     * @param fileOf      finds the file an item is for
+     * @param destination the folder files are moved to, or null if
+     *                    they're only being read
+     * @param task        the work to do on each item
+     */
+    protected <T> void runVirtual(BlockingQueue<T> queue, T endMarker, Function<T, File> fileOf,
+                                  File destination, VirtualTask<T> task) {
+        boolean interrupted = false;
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            while (true) {
+                T item;
+                try {
+                    item = queue.take();
+                } catch (InterruptedException intEx) {
+                    interrupted = true;
+                    cancellation.cancel();
+                    continue;
+                }
+                if (item == endMarker) {
+                    break;
+                }
+                File file = fileOf.apply(item);
+                if (cancellation.isCancelled()) {
+                    cancellation.skipped(file);
+                    continue;
+                }
+                IoLimiter.Permit permit;
+                try {
+                    permit = limiter.reserve();
+                } catch (InterruptedException intEx) {
+                    interrupted = true;
+                    cancellation.cancel();
+                    cancellation.skipped(file);
+                    continue;
+                }
+                executor.execute(() -> {
+                    try {
+                        permit.waitForDrives(file, destination);
+                        task.run(item, permit);
+                    } catch (InterruptedException intEx) {
+                        cancellation.skipped(file);
+                    } finally {
+                        permit.close();
+                    }
+                });
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
     }
 }
@@ -0,0 +1,249 @@
+package com.towster15.ImageVideoDateSorter.SortControllers;
+
+import com.towster15.ImageVideoDateSorter.Metrics.SortMetrics;
+import com.towster15.ImageVideoDateSorter.Sorters.DateFolderRegistry;
+import com.towster15.ImageVideoDateSorter.Sorters.DestinationResolver;
+import com.towster15.ImageVideoDateSorter.Sorters.DriveCache;
+import com.towster15.ImageVideoDateSorter.Sorters.DuplicateIndex;
+import com.towster15.ImageVideoDateSorter.Sorters.DuplicateMode;
+import com.towster15.ImageVideoDateSorter.Sorters.FileCopier;
+import com.towster15.ImageVideoDateSorter.Sorters.FileTransferer;
+import com.towster15.ImageVideoDateSorter.Sorters.IoLimiter;
+import com.towster15.ImageVideoDateSorter.Sorters.SortCancellation;
+import com.towster15.ImageVideoDateSorter.Sorters.SortPlan;
+import com.towster15.ImageVideoDateSorter.Sorters.SortTask;
+import com.towster15.ImageVideoDateSorter.Sorters.TransferJournal;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Hands dated files out to the transferers, in two lanes. Renames
+ * within a drive take next to no time, while copies take as long as
+ * the data does, so copies get their own, smaller, set of transferers
+ * and a rename is never stuck waiting behind a large video.
+ * <p>
+ * Whether a move is a rename or a copy is worked out for each file,
+ * from the drive it's on and the drive it's going to.
+ * <p>
+ * With virtual threads, each file is moved on a virtual thread of its own
+ * instead, with the limiter rather than the lanes keeping renames from
+ * waiting behind copies.
+ */
+public class TransferController extends SortController {
+    /**
+     * How many files can be waiting in each lane before the
+     * controller pauses to let the transferers catch up.
+     */
+    private static final int LANE_CAPACITY = 256;
+    private final Logger LOGGER;
+    private final BlockingQueue<SortTask> tasks;
+    private final int copyThreadCount;
+    private final DuplicateMode duplicateMode;
+    private final FileCopier copier;
+    private final SortPlan plan;
+    private final TransferJournal journal;
+    private final List<FileTransferer> transferers = new CopyOnWriteArrayList<>();
+
+    /**
+     * @param log               the logger to report events to
+     * @param transferQueue     queue of dated files to move or copy
+     * @param destinationDir    destination directory File
+     * @param daySort           boolean to enable or disable sorting by days
+     * @param copyInsteadOfMove boolean to copy rather than move
+     * @param threadCount       how many transferers rename files
+     * @param copyThreadCount   how many transferers copy files
+     * @param duplicateMode     what to do with duplicate files
+     * @param copier            how files are copied
+     * @param plan              the plan to write the transfers to
+     *                          instead of doing them, or null
+     * @param journal           where finished transfers are recorded,
+     *                          or null
+     * @param virtualThreads    boolean to move each file on a virtual
+     *                          thread of its own, rather than starting
+     *                          the transferers
+     * @param limiter           limits how many files are moved at once
+     *                          on each drive
+     * @param cancellation      tells the transferers to stop early
+     * @param metrics           where to record how the sort is going
+     */
+    public TransferController(
+            Logger log,
+            BlockingQueue<SortTask> transferQueue,
+            File destinationDir,
+            boolean daySort,
+            boolean copyInsteadOfMove,
+            int threadCount,
+            int copyThreadCount,
+            DuplicateMode duplicateMode,
+            FileCopier copier,
+            SortPlan plan,
+            TransferJournal journal,
+            boolean virtualThreads,
+            IoLimiter limiter,
+            SortCancellation cancellation,
+            SortMetrics metrics) {
+        super(destinationDir, daySort, copyInsteadOfMove, threadCount, virtualThreads, limiter,
+                cancellation, metrics);
+        LOGGER = log;
+        tasks = transferQueue;
+        this.copyThreadCount = copyThreadCount;
+        this.duplicateMode = duplicateMode;
+        this.copier = copier;
+        this.plan = plan;
+        this.journal = journal;
+    }
+
+    public void run() {
+        DriveCache drives = new DriveCache(LOGGER);
+        DateFolderRegistry folders = new DateFolderRegistry(LOGGER, plan == null, metrics);
+        DestinationResolver destinations = new DestinationResolver(destinationDir, daySort);
+        DuplicateIndex duplicates = null;
+        if (duplicateMode != DuplicateMode.OFF && plan == null) {
+            duplicates = new DuplicateIndex(LOGGER, duplicateMode);
+        }
+        if (virtualThreads) {
+            transferOnVirtualThreads(drives, folders, destinations, duplicates);
+            return;
+        }
+
+        BlockingQueue<SortTask> renames = new ArrayBlockingQueue<>(LANE_CAPACITY);
+        BlockingQueue<SortTask> copies = new ArrayBlockingQueue<>(LANE_CAPACITY);
+        for (int i = 0; i < threadCount; i++) {
+            transferers.add(new FileTransferer(LOGGER, renames, folders, destinations,
+                    duplicates, destinationDir, daySort, copyInsteadOfMove, copier, drives,
+                    plan, journal, limiter, cancellation, metrics));
+            transferers.getLast().start();
+        }
+        for (int i = 0; i < copyThreadCount; i++) {
+            transferers.add(new FileTransferer(LOGGER, copies, folders, destinations,
+                    duplicates, destinationDir, daySort, copyInsteadOfMove, copier, drives,
+                    plan, journal, limiter, cancellation, metrics));
+            transferers.getLast().start();
+        }
+        metrics.watchQueue("renames", renames);
+        metrics.watchQueue("copies", copies);
+
+        long renamed = 0;
+        long copied = 0;
+        try {
+            SortTask task;
+            while ((task = tasks.take()) != SortTask.END) {
+                if (cancellation.isCancelled()) {
+                    cancellation.skipped(task.file());
+                } else if (isCopied(drives, task, copyInsteadOfMove, destinationDir)) {
+                    copies.put(task);
+                    copied++;
+                } else {
+                    renames.put(task);
+                    renamed++;
+                }
+            }
+            renames.put(SortTask.END);
+            copies.put(SortTask.END);
+        } catch (InterruptedException intEx) {
+            LOGGER.log(Level.WARNING, "Transfer controller interrupted");
+            cancellation.cancel();
+            endLane(renames);
+            endLane(copies);
+        }
+
+        joinAll(transferers);
+        if (plan == null && !cancellation.isCancelled()) {
+            LOGGER.log(Level.INFO, "Renamed " + renamed + " files and copied " + copied);
+        }
+    }
+
+    /**
+     * Moves each file on a virtual thread of its own. The two
+     * transferers aren't started, just shared by the threads, one for
+     * renames and one for copies.
+     */
+    private void transferOnVirtualThreads(DriveCache drives, DateFolderRegistry folders,
+                                          DestinationResolver destinations,
+                                          DuplicateIndex duplicates) {
+        FileTransferer renamer = new FileTransferer(LOGGER, tasks, folders, destinations,
+                duplicates, destinationDir, daySort, copyInsteadOfMove, copier, drives, plan,
+                journal, null, cancellation, metrics);
+        FileTransferer copier = new FileTransferer(LOGGER, tasks, folders, destinations,
+                duplicates, destinationDir, daySort, copyInsteadOfMove, this.copier, drives,
+                plan, journal, null, cancellation, metrics);
+        transferers.add(renamer);
+        transferers.add(copier);
+
+        runVirtual(tasks, SortTask.END, SortTask::file, destinationDir, (task, permit) -> {
+            if (isCopied(drives, task, copyInsteadOfMove, destinationDir)) {
+                copier.transfer(task);
+            } else {
+                renamer.transfer(task);
+            }
+        });
+        if (plan == null && !cancellation.isCancelled()) {
+            LOGGER.log(Level.INFO, "Renamed " + renamer.getTransferred() + " files and copied "
+                    + copier.getTransferred());
+        }
+    }
+
+    /**
+     * @return how many files have been put in place so far, or added
+     * to the plan
+     */
+    public long getTransferred() {
+        long transferred = 0;
+        for (FileTransferer transferer : transferers) {
+            transferred += transferer.getTransferred();
+        }
+        return transferred;
+    }
+
+    /**
+     * Ends a lane after the controller's been interrupted. There's
+     * always room once the transferers are skipping what's left.
+     *
+     * @param lane the lane to end
+     */
+    private void endLane(BlockingQueue<SortTask> lane) {
+        boolean interrupted = Thread.interrupted();
+        while (true) {
+            try {
+                lane.put(SortTask.END);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Checks whether a file will be copied, either because it's asked
+     * to be or because it's on a different drive to where it's going,
+     * so moving it means copying all of it.
+     *
+     * @param drives            the drives folders are on
+     * @param task              the file and where it's going
+     * @param copyInsteadOfMove boolean to copy rather than move
+     * @param destinationDir    destination directory File
+     * @return true if all of the file will be copied
+     */
+    static boolean isCopied(DriveCache drives, SortTask task, boolean copyInsteadOfMove,
+                            File destinationDir) {
+        if (task.isCopy(copyInsteadOfMove)) {
+            return true;
+        }
+        // A replayed plan says exactly where each file goes, which
+        // needn't be in the destination
+        Path destination = task.target() != null ? task.target().getParent()
+                : destinationDir.toPath();
+        return drives.isCrossDevice(task.file().toPath(), destination);
+    }
+}
@@ -1,44 +1,93 @@
 package com.towster15.ImageVideoDateSorter.SortControllers;
 
+import com.towster15.ImageVideoDateSorter.Metrics.SortMetrics;
+import com.towster15.ImageVideoDateSorter.Scanners.DirectoryScanner;
+import com.towster15.ImageVideoDateSorter.Sorters.IoLimiter;
+import com.towster15.ImageVideoDateSorter.Sorters.SortCancellation;
+import com.towster15.ImageVideoDateSorter.Sorters.SortTask;
 import com.towster15.ImageVideoDateSorter.Sorters.VideoSorter;
 
 import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.logging.Logger;
 
 public class VidSortController extends SortController {
     private final Logger LOGGER;
-    private final List<List<File>> videoLists;
+    private final BlockingQueue<File> videos;
+    private final BlockingQueue<SortTask> transfers;
     private final boolean sortVideos;
 
     public VidSortController(
             Logger log,
-            List<File> videoList,
+            BlockingQueue<File> videoQueue,
+            BlockingQueue<SortTask> transferQueue,
             File destinationDir,
             boolean daySort,
             boolean sortVideos,
-            boolean copyInsteadOfMove) {
-        super(destinationDir, daySort, copyInsteadOfMove);
+            boolean copyInsteadOfMove,
+            int threadCount,
+            boolean virtualThreads,
+            IoLimiter limiter,
+            SortCancellation cancellation,
+            SortMetrics metrics) {
+        super(destinationDir, daySort, copyInsteadOfMove, threadCount, virtualThreads, limiter,
+                cancellation, metrics);
         LOGGER = log;
-        videoLists = splitFileList(videoList);
+        videos = videoQueue;
+        transfers = transferQueue;
         this.sortVideos = sortVideos;
     }
 
+    /**
+     * Starts the video sorters, all taking from the same video queue,
+     * or with virtual threads, dates each video on a virtual thread of
+     * its own instead.
+     */
     public void run() {
+        if (virtualThreads) {
+            dateOnVirtualThreads();
+            return;
+        }
         List<Thread> sorterThreads = new ArrayList<>();
-        for (int i = 0; i < core_count; i++) {
-            sorterThreads.add(new VideoSorter(LOGGER, videoLists.get(i), destinationDir, daySort,
-                    sortVideos, copyInsteadOfMove));
+        for (int i = 0; i < threadCount; i++) {
+            sorterThreads.add(newSorter());
             sorterThreads.getLast().start();
         }
-        for (Thread thread : sorterThreads) {
+        joinAll(sorterThreads);
+    }
+
+    /**
+     * Dates each video on a virtual thread of its own, reusing the
+     * sorters, which aren't started, for their readers.
+     */
+    private void dateOnVirtualThreads() {
+        Queue<VideoSorter> idle = new ConcurrentLinkedQueue<>();
+        runVirtual(videos, DirectoryScanner.END_OF_SCAN, video -> video, null, (video, permit) -> {
+            VideoSorter sorter = idle.poll();
+            if (sorter == null) {
+                sorter = newSorter();
+            }
+            SortTask task;
             try {
-                thread.join();
-            } catch (InterruptedException e) {
-                // TODO: handle this properly to allow cancellation of
-                //  the process
+                task = sorter.date(video);
+            } finally {
+                idle.offer(sorter);
             }
-        }
+            permit.close();
+            if (task != null) {
+                transfers.put(task);
+            }
+        });
+    }
+
+    private VideoSorter newSorter() {
+        // With virtual threads, each video's permit is taken before its
+        // thread starts instead
+        return new VideoSorter(LOGGER, videos, transfers, destinationDir, daySort, sortVideos,
+                copyInsteadOfMove, virtualThreads ? null : limiter, cancellation, metrics);
     }
 }
\ No newline at end of file
@@ -0,0 +1,456 @@
+package com.towster15.ImageVideoDateSorter;
+
+import com.towster15.ImageVideoDateSorter.Metadata.DateCache;
+import com.towster15.ImageVideoDateSorter.Metrics.MetricsReporter;
+import com.towster15.ImageVideoDateSorter.Metrics.SortMetrics;
+import com.towster15.ImageVideoDateSorter.Scanners.DirectoryScanner;
+import com.towster15.ImageVideoDateSorter.SortControllers.ImgSortController;
+import com.towster15.ImageVideoDateSorter.SortControllers.TransferController;
+import com.towster15.ImageVideoDateSorter.SortControllers.VidSortController;
+import com.towster15.ImageVideoDateSorter.Sorters.IoLimiter;
+import com.towster15.ImageVideoDateSorter.Sorters.SortCancellation;
+import com.towster15.ImageVideoDateSorter.Sorters.SortPlan;
+import com.towster15.ImageVideoDateSorter.Sorters.SortTask;
+import com.towster15.ImageVideoDateSorter.Sorters.TransferJournal;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A whole sort, from scanning the source folder to the last file
+ * being put in place, run on the calling thread. The window runs it
+ * through {@link Worker}, and {@link BatchMain} runs it straight from
+ * the command line, so nothing here touches AWT or Swing.
+ */
+public class SortJob {
+    /**
+     * How many files can be waiting for each type of sorter before
+     * the directory scan pauses to let them catch up, and how many
+     * dated files can be waiting to be moved before the sorters
+     * pause.
+     */
+    private static final int QUEUE_CAPACITY = 1024;
+    private final Logger logger;
+    private final File sourceDir;
+    private final File destinationDir;
+    private final boolean sortImages;
+    private final boolean separateBrokenImages;
+    private final boolean moveAAEs;
+    private final boolean sortAAEs;
+    private final boolean moveVideos;
+    private final boolean sortVideos;
+    private final boolean daySort;
+    private final boolean OSCreateDateSort;
+    private final boolean sortAllFiles;
+    private final boolean copyInsteadOfMove;
+    private final SortOptions options;
+    // Shared by every stage, so files being dated and moved count
+    // towards the same limits on each drive
+    private final IoLimiter limiter;
+    private final SortCancellation cancellation;
+    private final SortMetrics metrics;
+    private volatile Thread runner;
+
+    /**
+     * @param log               the logger to report events to
+     * @param sourceDir         source directory File, unused when
+     *                          replaying a plan
+     * @param destinationDir    destination directory File
+     * @param sortImages        boolean to enable or disable sorting images
+     * @param separateBroken    boolean to separate broken images from
+     *                          the rest
+     * @param moveAAEs          boolean to move AAE files with the images
+     * @param sortAAEs          boolean to sort AAEs alongside their images
+     * @param moveVideos        boolean to enable or disable moving videos
+     * @param sortVideos        boolean to sort videos by date, rather
+     *                          than into one videos folder
+     * @param daySort           boolean to enable or disable sorting by days
+     * @param OSCreateDateSort  boolean to fall back on the OS's creation
+     *                          date
+     * @param sortAllFiles      boolean to sort every file, not only
+     *                          images and videos
+     * @param copyInsteadOfMove boolean to copy rather than move
+     * @param options           tuning options for the sort
+     */
+    public SortJob(
+            Logger log,
+            File sourceDir,
+            File destinationDir,
+            boolean sortImages,
+            boolean separateBroken,
+            boolean moveAAEs,
+            boolean sortAAEs,
+            boolean moveVideos,
+            boolean sortVideos,
+            boolean daySort,
+            boolean OSCreateDateSort,
+            boolean sortAllFiles,
+            boolean copyInsteadOfMove,
+            SortOptions options
+    ) {
+        logger = log;
+        this.sourceDir = sourceDir;
+        this.destinationDir = destinationDir;
+        this.sortImages = sortImages;
+        this.separateBrokenImages = separateBroken;
+        this.moveAAEs = moveAAEs;
+        this.sortAAEs = sortAAEs;
+        this.moveVideos = moveVideos;
+        this.sortVideos = sortVideos;
+        this.daySort = daySort;
+        this.OSCreateDateSort = OSCreateDateSort;
+        this.sortAllFiles = sortAllFiles;
+        this.copyInsteadOfMove = copyInsteadOfMove;
+        this.options = options;
+        cancellation = new SortCancellation(log, options.getCancelTimeout());
+        metrics = new SortMetrics(log);
+        limiter = options.getIoLimiter(log);
+    }
+
+    /**
+     * Runs the sort, returning once it's finished. A job can only be
+     * run once.
+     * <p>
+     * Interrupting this thread, or calling {@link #cancel()}, cancels
+     * the sort. Each stage stops taking on new files, and this waits
+     * at most the cancel timeout for them to finish the ones they're
+     * part way through.
+     *
+     * @throws IOException if the sort couldn't be done at all, such as
+     *                     when the plan can't be written or read
+     */
+    public void run() throws IOException {
+        runner = Thread.currentThread();
+        metrics.register();
+        MetricsReporter reporter = null;
+        if (options.getMetricsFile() != null) {
+            reporter = new MetricsReporter(logger, metrics, options.getMetricsFile(),
+                    options.getMetricsInterval());
+            reporter.setDaemon(true);
+            reporter.start();
+        }
+        if (options.isVirtualThreads()) {
+            logger.log(Level.INFO, "Each file gets a virtual thread, at most "
+                    + limiter.getOverallLimit() + " at once and " + limiter.getDeviceLimit()
+                    + " on each drive, or " + limiter.getRotationalLimit()
+                    + " on spinning disks");
+        }
+        try {
+            if (options.getExecutePlanFile() != null) {
+                executePlan(options.getExecutePlanFile());
+            } else {
+                sort();
+            }
+        } finally {
+            metrics.finish();
+            if (reporter != null) {
+                stopReporter(reporter);
+            }
+            logger.log(Level.INFO, metrics.summary());
+            runner = null;
+        }
+    }
+
+    /**
+     * Cancels the sort from another thread.
+     */
+    public void cancel() {
+        cancellation.cancel();
+        Thread running = runner;
+        if (running != null) {
+            // Cuts short whatever it's waiting for, so the cancel
+            // timeout applies
+            running.interrupt();
+        }
+    }
+
+    /**
+     * @return true if the sort was cancelled before it finished
+     */
+    public boolean isCancelled() {
+        return cancellation.isCancelled();
+    }
+
+    /**
+     * @return how many files were found but left alone because the
+     * sort was cancelled
+     */
+    public long getSkipped() {
+        return cancellation.getSkipped();
+    }
+
+    /**
+     * @return the sort's metrics, live while it's running
+     */
+    public SortMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Scans the source folder and sorts everything that's found.
+     */
+    private void sort() throws IOException {
+        SortPlan plan = null;
+        if (options.getPlanFile() != null) {
+            plan = new SortPlan(options.getPlanFile());
+        }
+
+        BlockingQueue<File> imageQueue = null;
+        BlockingQueue<File> aaeQueue = null;
+        BlockingQueue<File> videoQueue = null;
+        if (sortImages) {
+            imageQueue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+            if (moveAAEs) {
+                aaeQueue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+            }
+        }
+        if (moveVideos) {
+            videoQueue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        }
+
+        TransferJournal journal = null;
+        if (plan == null) {
+            journal = openJournal(sourceDir.getAbsolutePath());
+        }
+
+        BlockingQueue<SortTask> transferQueue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        TransferController transfers = startTransfers(transferQueue, plan, journal);
+        metrics.watchQueue("images", imageQueue);
+        metrics.watchQueue("aaes", aaeQueue);
+        metrics.watchQueue("videos", videoQueue);
+        metrics.watchQueue("transfers", transferQueue);
+
+        DirectoryScanner scanner = new DirectoryScanner(logger, sourceDir, imageQueue, aaeQueue,
+                videoQueue, sortAllFiles, options.getScanThreads(), options.isOrderedScan(),
+                options.isLocalityOrder() ? options.getLocalityWindow() : 0,
+                options.getClassifier(), journal,
+                cancellation, metrics);
+        scanner.start();
+
+        DateCache dateCache = null;
+        if (options.getDateCacheFile() != null) {
+            dateCache = new DateCache(logger, options.getDateCacheFile());
+        }
+
+        ImgSortController imgSort = null;
+        VidSortController vidSort = null;
+        if (sortImages) {
+            if (moveAAEs) {
+                // Files the journal says are already sorted are skipped
+                // by the scanner, so AAEs are matched up with where their
+                // images went instead
+                imgSort = new ImgSortController(logger, imageQueue, aaeQueue, transferQueue,
+                        dateCache, journal != null ? journal.getSortedFolders() : Map.of(),
+                        destinationDir, separateBrokenImages, sortAAEs, daySort, OSCreateDateSort,
+                        copyInsteadOfMove, options.getDateThreads(),
+                        options.isVirtualThreads(), limiter, cancellation, metrics);
+            } else {
+                imgSort = new ImgSortController(logger, imageQueue, transferQueue, dateCache,
+                        destinationDir, separateBrokenImages, daySort, OSCreateDateSort, copyInsteadOfMove,
+                        options.getDateThreads(), options.isVirtualThreads(), limiter,
+                        cancellation, metrics);
+            }
+            imgSort.start();
+        }
+        if (moveVideos) {
+            vidSort = new VidSortController(logger, videoQueue, transferQueue, destinationDir,
+                    daySort, sortVideos, copyInsteadOfMove, options.getDateThreads(),
+                    options.isVirtualThreads(), limiter, cancellation, metrics);
+            vidSort.start();
+        }
+
+        await(scanner);
+        if (imgSort != null) {
+            await(imgSort);
+        }
+        if (dateCache != null) {
+            dateCache.close();
+        }
+        if (vidSort != null) {
+            await(vidSort);
+        }
+
+        // Everything has been dated, so the transferers can stop once
+        // they've caught up
+        finishTransfers(transferQueue, transfers);
+        if (journal != null) {
+            journal.close(!cancellation.isCancelled());
+        }
+        if (cancellation.isCancelled()) {
+            reportCancelled(transfers, journal != null);
+        } else if (plan != null) {
+            try {
+                plan.close();
+                logger.log(Level.INFO, "Planned where " + plan.size() + " files will go in "
+                        + options.getPlanFile());
+            } catch (IOException ioEx) {
+                logger.log(Level.WARNING, "Failed to save the sort plan", ioEx);
+            }
+        }
+    }
+
+    /**
+     * Moves the files in a plan written by an earlier sort, without
+     * scanning or reading any dates.
+     *
+     * @param planFile the plan
+     */
+    private void executePlan(Path planFile) throws IOException {
+        TransferJournal journal = openJournal(planFile.toAbsolutePath().toString());
+        BlockingQueue<SortTask> transferQueue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        TransferController transfers = startTransfers(transferQueue, null, journal);
+        metrics.watchQueue("transfers", transferQueue);
+        IOException readFailure = null;
+        try {
+            long count = SortPlan.replay(planFile, transferQueue);
+            logger.log(Level.INFO, "Read " + count + " files from " + planFile);
+        } catch (IOException ioEx) {
+            // The files before the problem are still moved
+            readFailure = ioEx;
+        } catch (InterruptedException intEx) {
+            cancellation.cancel();
+        }
+        finishTransfers(transferQueue, transfers);
+        if (journal != null) {
+            journal.close(!cancellation.isCancelled() && readFailure == null);
+        }
+        if (cancellation.isCancelled()) {
+            reportCancelled(transfers, journal != null);
+        }
+        if (readFailure != null) {
+            throw readFailure;
+        }
+    }
+
+    /**
+     * Opens the journal of finished transfers, carrying on from the
+     * last sort if it was between the same folders and was stopped.
+     *
+     * @param source the source folder, or the plan being replayed
+     * @return the journal, or null if it's turned off, in use or
+     * couldn't be opened
+     */
+    private TransferJournal openJournal(String source) {
+        if (options.getJournalFolder() == null) {
+            return null;
+        }
+        String destination = destinationDir.getAbsolutePath();
+        try {
+            TransferJournal journal = TransferJournal.open(logger,
+                    TransferJournal.fileFor(options.getJournalFolder(), source, destination),
+                    source, destination);
+            if (journal == null) {
+                logger.log(Level.WARNING, "Another sort between the same folders is running, "
+                        + "so this one won't be able to carry on if it's stopped");
+            }
+            return journal;
+        } catch (IOException ioEx) {
+            logger.log(Level.WARNING, "Failed to open the transfer journal, the sort won't be "
+                    + "able to carry on if it's stopped", ioEx);
+            return null;
+        }
+    }
+
+    /**
+     * @param transferQueue queue of dated files to move or copy
+     * @param plan          the plan to write the transfers to instead
+     *                      of doing them, or null
+     * @param journal       where finished transfers are recorded, or
+     *                      null
+     * @return the started controller
+     */
+    private TransferController startTransfers(BlockingQueue<SortTask> transferQueue,
+                                              SortPlan plan, TransferJournal journal) {
+        TransferController transfers = new TransferController(logger, transferQueue,
+                destinationDir, daySort, copyInsteadOfMove, options.getTransferThreads(),
+                options.getCopyThreads(), options.getDuplicateMode(),
+                options.getCopier(cancellation), plan, journal, options.isVirtualThreads(),
+                limiter, cancellation, metrics);
+        transfers.start();
+        return transfers;
+    }
+
+    /**
+     * Tells the transferers nothing else is coming, and waits for them
+     * to finish what's left.
+     */
+    private void finishTransfers(BlockingQueue<SortTask> transferQueue,
+                                 TransferController transfers) {
+        while (true) {
+            try {
+                if (!transferQueue.offer(SortTask.END, cancellation.remainingMillis(),
+                        TimeUnit.MILLISECONDS)) {
+                    logger.log(Level.WARNING, "Transferers didn't stop in time");
+                    return;
+                }
+                break;
+            } catch (InterruptedException intEx) {
+                // Once cancelled, the controller skips what's left,
+                // so there's room soon
+                cancellation.cancel();
+            }
+        }
+        await(transfers);
+    }
+
+    /**
+     * Waits for a stage of the sort to finish. If this thread is
+     * interrupted, by the worker being cancelled, the sort is cancelled
+     * and the wait is cut short at the cancel timeout.
+     *
+     * @param stage the stage's thread
+     */
+    private void await(Thread stage) {
+        while (stage.isAlive()) {
+            long remaining = cancellation.remainingMillis();
+            if (remaining == 0) {
+                logger.log(Level.WARNING, stage.getClass().getSimpleName() + " didn't stop in time, "
+                        + "leaving it to finish in the background");
+                return;
+            }
+            try {
+                if (remaining == Long.MAX_VALUE) {
+                    stage.join();
+                } else {
+                    stage.join(remaining);
+                }
+            } catch (InterruptedException intEx) {
+                cancellation.cancel();
+            }
+        }
+    }
+
+    /**
+     * Stops the metrics reporter, once it's written the last snapshot.
+     *
+     * @param reporter the reporter
+     */
+    private void stopReporter(MetricsReporter reporter) {
+        reporter.interrupt();
+        try {
+            reporter.join(1000);
+        } catch (InterruptedException intEx) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Logs how far a cancelled sort got.
+     *
+     * @param transfers  the transfer controller
+     * @param journalled true if the next sort can carry on from here
+     */
+    private void reportCancelled(TransferController transfers, boolean journalled) {
+        logger.log(Level.INFO, "Sort cancelled: " + transfers.getTransferred()
+                + " files sorted, " + cancellation.getSkipped()
+                + " found but left unsorted" + (journalled
+                ? ", sorting the same folders again will carry on from here" : ""));
+    }
+}
@@ -0,0 +1,376 @@
+package com.towster15.ImageVideoDateSorter;
+
+import com.towster15.ImageVideoDateSorter.Scanners.FileClassifier;
+import com.towster15.ImageVideoDateSorter.Sorters.ChannelCopier;
+import com.towster15.ImageVideoDateSorter.Sorters.DuplicateMode;
+import com.towster15.ImageVideoDateSorter.Sorters.FileCopier;
+import com.towster15.ImageVideoDateSorter.Sorters.IoLimiter;
+import com.towster15.ImageVideoDateSorter.Sorters.SortCancellation;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Tuning options for a sort that aren't shown in the window.
+ * <p>
+ * Each option starts from a system property, so it can be set when
+ * launching the program, for example
+ * {@code java -Dimagesorter.scanThreads=16 -jar ImageVideoDateSorter.jar}.
+ */
+public class SortOptions {
+    private static final Logger LOGGER = Logger.getLogger("com.towster15.ImageDateSorter");
+    private int scanThreads = Integer.getInteger(
+            "imagesorter.scanThreads", Runtime.getRuntime().availableProcessors());
+    private boolean orderedScan = Boolean.getBoolean("imagesorter.orderedScan");
+    private boolean localityOrder = Boolean.getBoolean("imagesorter.localityOrder");
+    private int localityWindow = Integer.getInteger("imagesorter.localityWindow", 1024);
+    private boolean sniffContent = Boolean.getBoolean("imagesorter.sniff");
+    private int dateThreads = Integer.getInteger(
+            "imagesorter.dateThreads", Runtime.getRuntime().availableProcessors());
+    private int transferThreads = Integer.getInteger("imagesorter.transferThreads", 4);
+    private int copyThreads = Integer.getInteger("imagesorter.copyThreads", 2);
+    private boolean virtualThreads = Boolean.getBoolean("imagesorter.virtualThreads");
+    private int maxInFlight = Integer.getInteger("imagesorter.maxInFlight", 256);
+    private int deviceInFlight = Integer.getInteger("imagesorter.deviceInFlight", 64);
+    private int rotationalInFlight = Integer.getInteger("imagesorter.rotationalInFlight", 2);
+    private Path dateCacheFile = optionalPath("imagesorter.dateCache",
+            Path.of(System.getProperty("user.home"), ".imagesorter", "date-cache.bin"));
+    private DuplicateMode duplicateMode = duplicateMode("imagesorter.duplicates");
+    private boolean channelCopy = !System.getProperty("imagesorter.copyEngine", "channel")
+            .equalsIgnoreCase("files");
+    private int copyChunkSize = Integer.getInteger("imagesorter.copyChunkSize", 8 * 1024 * 1024);
+    private Path journalFolder = optionalPath("imagesorter.journal",
+            Path.of(System.getProperty("user.home"), ".imagesorter", "journals"));
+    private Path planFile = optionalPath("imagesorter.plan", null);
+    private Path executePlanFile = optionalPath("imagesorter.executePlan", null);
+    private Duration cancelTimeout = Duration.ofSeconds(
+            Long.getLong("imagesorter.cancelTimeout", 10));
+    private Path metricsFile = optionalPath("imagesorter.metrics", null);
+    private Duration metricsInterval = Duration.ofSeconds(
+            Long.getLong("imagesorter.metricsInterval", 5));
+
+    /**
+     * @return how many threads list folders at once, 1 walks the
+     * source folder on a single thread
+     */
+    public int getScanThreads() {
+        return scanThreads;
+    }
+
+    public void setScanThreads(int scanThreads) {
+        this.scanThreads = Math.max(1, scanThreads);
+    }
+
+    /**
+     * @return true if files should be handed to the sorters in the
+     * same order on every run, folder by folder and sorted by name
+     */
+    public boolean isOrderedScan() {
+        return orderedScan;
+    }
+
+    public void setOrderedScan(boolean orderedScan) {
+        this.orderedScan = orderedScan;
+    }
+
+    /**
+     * @return true if files from each folder should be handed to the
+     * sorters in the order they're most likely to be on the disk, so a
+     * spinning disk doesn't have to keep moving its head between them
+     */
+    public boolean isLocalityOrder() {
+        return localityOrder;
+    }
+
+    public void setLocalityOrder(boolean localityOrder) {
+        this.localityOrder = localityOrder;
+    }
+
+    /**
+     * @return how many files from a folder are put in disk order at a
+     * time, when files are being handed over in disk order
+     */
+    public int getLocalityWindow() {
+        return localityWindow;
+    }
+
+    public void setLocalityWindow(int localityWindow) {
+        this.localityWindow = Math.max(1, localityWindow);
+    }
+
+    /**
+     * @return true if the start of each file is read to tell what it
+     * is, so files with the wrong extension, or none, are still sorted
+     */
+    public boolean isSniffContent() {
+        return sniffContent;
+    }
+
+    public void setSniffContent(boolean sniffContent) {
+        this.sniffContent = sniffContent;
+    }
+
+    /**
+     * @return the classifier that these options ask for
+     */
+    public FileClassifier getClassifier() {
+        return new FileClassifier(sniffContent);
+    }
+
+    /**
+     * @return how many threads read dates for each of images and
+     * videos, which is mostly processor work
+     */
+    public int getDateThreads() {
+        return dateThreads;
+    }
+
+    public void setDateThreads(int dateThreads) {
+        this.dateThreads = Math.max(1, dateThreads);
+    }
+
+    /**
+     * @return how many threads rename files into place, which is
+     * mostly waiting on the disks
+     */
+    public int getTransferThreads() {
+        return transferThreads;
+    }
+
+    public void setTransferThreads(int transferThreads) {
+        this.transferThreads = Math.max(1, transferThreads);
+    }
+
+    /**
+     * @return how many threads copy files, either because files are
+     * being copied or because they're being moved between drives,
+     * which is kept low so they don't fight over the disks
+     */
+    public int getCopyThreads() {
+        return copyThreads;
+    }
+
+    public void setCopyThreads(int copyThreads) {
+        this.copyThreads = Math.max(1, copyThreads);
+    }
+
+    /**
+     * @return true if every file is dated and moved on a virtual
+     * thread of its own, rather than by the date, transfer and copy
+     * threads, so slow drives can have far more going on at once
+     */
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    public void setVirtualThreads(boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+    }
+
+    /**
+     * @return how many files can be worked on at once with virtual
+     * threads, over the whole sort
+     */
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    public void setMaxInFlight(int maxInFlight) {
+        this.maxInFlight = Math.max(1, maxInFlight);
+    }
+
+    /**
+     * @return how many files on one drive can be worked on at once,
+     * unless it's a spinning disk
+     */
+    public int getDeviceInFlight() {
+        return deviceInFlight;
+    }
+
+    public void setDeviceInFlight(int deviceInFlight) {
+        this.deviceInFlight = Math.max(1, deviceInFlight);
+    }
+
+    /**
+     * @return how many files on one spinning disk can be worked on at
+     * once, which is kept low as they slow down when they're asked for
+     * lots of different files at the same time
+     */
+    public int getRotationalInFlight() {
+        return rotationalInFlight;
+    }
+
+    public void setRotationalInFlight(int rotationalInFlight) {
+        this.rotationalInFlight = Math.max(1, rotationalInFlight);
+    }
+
+    /**
+     * @param log the logger to report events to
+     * @return the limiter that these options ask for
+     */
+    public IoLimiter getIoLimiter(Logger log) {
+        return new IoLimiter(log, maxInFlight, deviceInFlight, rotationalInFlight);
+    }
+
+    /**
+     * @return the file dates read from images are kept in between
+     * runs, or null to not keep them
+     */
+    public Path getDateCacheFile() {
+        return dateCacheFile;
+    }
+
+    public void setDateCacheFile(Path dateCacheFile) {
+        this.dateCacheFile = dateCacheFile;
+    }
+
+    /**
+     * @return what to do with files that are exactly the same as one
+     * already in the destination
+     */
+    public DuplicateMode getDuplicateMode() {
+        return duplicateMode;
+    }
+
+    public void setDuplicateMode(DuplicateMode duplicateMode) {
+        this.duplicateMode = duplicateMode;
+    }
+
+    /**
+     * @return true to copy files with {@link ChannelCopier}, false to
+     * use {@link java.nio.file.Files#copy}
+     */
+    public boolean isChannelCopy() {
+        return channelCopy;
+    }
+
+    public void setChannelCopy(boolean channelCopy) {
+        this.channelCopy = channelCopy;
+    }
+
+    /**
+     * @return how many bytes {@link ChannelCopier} copies at once
+     */
+    public int getCopyChunkSize() {
+        return copyChunkSize;
+    }
+
+    public void setCopyChunkSize(int copyChunkSize) {
+        this.copyChunkSize = Math.max(1, copyChunkSize);
+    }
+
+    /**
+     * @param cancellation stops a copy part way through when the sort
+     *                     is cancelled, if the copier can
+     * @return the copier that these options ask for
+     */
+    public FileCopier getCopier(SortCancellation cancellation) {
+        return channelCopy ? new ChannelCopier(copyChunkSize, cancellation) : FileCopier.FILES;
+    }
+
+    /**
+     * @return the folder finished transfers are recorded in, so a sort
+     * that's stopped can carry on where it left off, with a journal
+     * for each source and destination, or null to not record them
+     */
+    public Path getJournalFolder() {
+        return journalFolder;
+    }
+
+    public void setJournalFolder(Path journalFolder) {
+        this.journalFolder = journalFolder;
+    }
+
+    /**
+     * @return where to write down where every file would go, without
+     * moving anything, or null to sort as normal
+     */
+    public Path getPlanFile() {
+        return planFile;
+    }
+
+    public void setPlanFile(Path planFile) {
+        this.planFile = planFile;
+    }
+
+    /**
+     * @return a plan from an earlier sort to move the files of,
+     * instead of scanning the source folder, or null to sort as normal
+     */
+    public Path getExecutePlanFile() {
+        return executePlanFile;
+    }
+
+    public void setExecutePlanFile(Path executePlanFile) {
+        this.executePlanFile = executePlanFile;
+    }
+
+    /**
+     * @return how long a cancelled sort has to stop, after which it's
+     * left to finish the files it's part way through on its own
+     */
+    public Duration getCancelTimeout() {
+        return cancelTimeout;
+    }
+
+    public void setCancelTimeout(Duration cancelTimeout) {
+        this.cancelTimeout = cancelTimeout;
+    }
+
+    /**
+     * @return the file to add a snapshot of the sort's metrics to
+     * every so often, or null to not write them out
+     */
+    public Path getMetricsFile() {
+        return metricsFile;
+    }
+
+    public void setMetricsFile(Path metricsFile) {
+        this.metricsFile = metricsFile;
+    }
+
+    /**
+     * @return how long to leave between metrics snapshots
+     */
+    public Duration getMetricsInterval() {
+        return metricsInterval;
+    }
+
+    public void setMetricsInterval(Duration metricsInterval) {
+        this.metricsInterval = metricsInterval;
+    }
+
+    /**
+     * Reads a duplicate mode, which is off if it isn't set or isn't
+     * one of the modes, so a typo doesn't stop the program starting.
+     */
+    private static DuplicateMode duplicateMode(String property) {
+        String value = System.getProperty(property, "off");
+        try {
+            return DuplicateMode.valueOf(value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException badMode) {
+            LOGGER.log(Level.WARNING, "Unknown " + property + " \"" + value
+                    + "\", expected off, skip or link, so duplicates won't be looked for");
+            return DuplicateMode.OFF;
+        }
+    }
+
+    /**
+     * Reads a path from a system property, where an empty value turns
+     * the option off.
+     *
+     * @param property    the system property
+     * @param defaultPath the path to use if the property isn't set
+     * @return the path, or null if it's been turned off
+     */
+    private static Path optionalPath(String property, Path defaultPath) {
+        String value = System.getProperty(property);
+        if (value == null) {
+            return defaultPath;
+        }
+        return value.isBlank() ? null : Path.of(value);
+    }
+}
@@ -0,0 +1,75 @@
+package com.towster15.ImageVideoDateSorter.Sorters;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Copies files with {@link FileChannel#transferTo}, which lets the
+ * operating system copy the data itself where it can, such as with
+ * copy_file_range on Linux, rather than passing it through our own
+ * buffers.
+ * <p>
+ * Large files are copied a chunk at a time. The copy keeps the
+ * original's created, modified and accessed times, and a copy that
+ * fails part way through is deleted rather than left half written.
+ * <p>
+ * Cancelling the sort stops a copy between chunks, so the chunk size
+ * also bounds how long a cancel waits on a large file.
+ */
+public class ChannelCopier implements FileCopier {
+    private final long chunkSize;
+    private final SortCancellation cancellation;
+
+    /**
+     * @param chunkSize how many bytes to ask the operating system to
+     *                  copy at once
+     */
+    public ChannelCopier(long chunkSize) {
+        this(chunkSize, null);
+    }
+
+    /**
+     * @param chunkSize    how many bytes to ask the operating system to
+     *                     copy at once
+     * @param cancellation stops the copy between chunks, or null
+     */
+    public ChannelCopier(long chunkSize, SortCancellation cancellation) {
+        this.chunkSize = Math.max(1, chunkSize);
+        this.cancellation = cancellation;
+    }
+
+    @Override
+    public void copy(Path source, Path target) throws IOException {
+        BasicFileAttributes attrs = Files.readAttributes(source, BasicFileAttributes.class);
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ)) {
+            // Fails before anything is written if the name's taken
+            FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.WRITE);
+            try (out) {
+                long size = in.size();
+                long position = 0;
+                while (position < size) {
+                    if (cancellation != null) {
+                        cancellation.check();
+                    }
+                    long copied = in.transferTo(position, Math.min(chunkSize, size - position),
+                            out);
+                    if (copied <= 0) {
+                        throw new IOException(source + " got shorter while it was being copied");
+                    }
+                    position += copied;
+                }
+            } catch (IOException | RuntimeException ex) {
+                Files.deleteIfExists(target);
+                throw ex;
+            }
+        }
+        Files.getFileAttributeView(target, BasicFileAttributeView.class).setTimes(
+                attrs.lastModifiedTime(), attrs.lastAccessTime(), attrs.creationTime());
+    }
+}
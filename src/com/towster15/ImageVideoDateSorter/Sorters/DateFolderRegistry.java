@@ -0,0 +1,96 @@
+package com.towster15.ImageVideoDateSorter.Sorters;
+
+import com.towster15.ImageVideoDateSorter.Metrics.SortMetrics;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps track of the destination folders that are known to exist, so
+ * each one is only checked for, made and listed once per sort, rather
+ * than once per file.
+ * <p>
+ * Looking up a folder that's already been made doesn't lock anything.
+ * When two transferers need the same new folder at once, one of them
+ * puts a placeholder for it in the map and makes it, while the other
+ * waits on the placeholder, so neither sees the other's half-finished
+ * work as a failure. The folder's made outside the map, so files going
+ * to other folders never wait behind it.
+ */
+public class DateFolderRegistry {
+    private final Logger LOGGER;
+    private final ConcurrentHashMap<Path, FutureTask<DestinationFolder>> folders =
+            new ConcurrentHashMap<>();
+    private final boolean makeFolders;
+    private final SortMetrics metrics;
+
+    /**
+     * @param log         the logger to report events to
+     * @param makeFolders false to only look at what's in the folders,
+     *                    when planning a sort rather than doing it
+     * @param metrics     where to record how long folders take to make
+     */
+    public DateFolderRegistry(Logger log, boolean makeFolders, SortMetrics metrics) {
+        LOGGER = log;
+        this.makeFolders = makeFolders;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Makes sure the folder exists, making it and any missing parent
+     * folders and reading the names already in it the first time it's
+     * asked for.
+     *
+     * @param folder the folder that's needed
+     * @return the folder, or null if it couldn't be made
+     * @throws InterruptedIOException if interrupted while waiting for
+     *                                another transferer to make it
+     */
+    public DestinationFolder ensureExists(Path folder) throws InterruptedIOException {
+        FutureTask<DestinationFolder> task = folders.get(folder);
+        if (task == null) {
+            FutureTask<DestinationFolder> mine = new FutureTask<>(() -> makeFolder(folder));
+            task = folders.putIfAbsent(folder, mine);
+            if (task == null) {
+                task = mine;
+                mine.run();
+            }
+        }
+        DestinationFolder made;
+        try {
+            made = task.get();
+        } catch (InterruptedException intEx) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for " + folder);
+        } catch (ExecutionException ex) {
+            throw new IllegalStateException(ex.getCause());
+        }
+        if (made == null) {
+            // Failures aren't remembered, so the next file tries again
+            folders.remove(folder, task);
+        }
+        return made;
+    }
+
+    private DestinationFolder makeFolder(Path folder) {
+        try {
+            long startTime = System.nanoTime();
+            if (makeFolders) {
+                Files.createDirectories(folder);
+            }
+            DestinationFolder made = new DestinationFolder(folder);
+            metrics.folderMade(System.nanoTime() - startTime);
+            return made;
+        } catch (IOException ioEx) {
+            LOGGER.log(Level.WARNING, "Failed to make folder " + folder, ioEx);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.towster15.ImageVideoDateSorter.Sorters;
+
+import com.towster15.ImageVideoDateSorter.Metadata.PerThread;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A folder in the destination along with the file names already
+ * taken in it, so a free name can be picked before a file is moved
+ * rather than by trying name(1), name(2) and so on until one works.
+ * <p>
+ * The names are read from one listing of the folder the first time
+ * it's used, and then kept up to date as files are given names. The
+ * next number to try for each name is remembered too, so the
+ * thousandth IMG_0001.JPG doesn't have to step past the other 999.
+ * Names are handed out one at a time, so two transferers can't be
+ * given the same one.
+ */
+public class DestinationFolder {
+    private static final PerThread<StringBuilder> NAME_BUILDER =
+            new PerThread<>(() -> new StringBuilder(64));
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Path path;
+    private final Set<String> names = new HashSet<>();
+    private final Map<String, Integer> nextNumber = new HashMap<>();
+
+    /**
+     * @param path the folder, which is empty if it doesn't exist yet
+     */
+    DestinationFolder(Path path) throws IOException {
+        this.path = path;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(path)) {
+            for (Path file : files) {
+                names.add(file.getFileName().toString());
+            }
+        } catch (NoSuchFileException notMadeYet) {
+            // Only when planning, so nothing's taken yet
+        }
+    }
+
+    /**
+     * @return the folder's path
+     */
+    public Path path() {
+        return path;
+    }
+
+    /**
+     * Picks a name for a new file in the folder, numbering it if the
+     * name's already taken, and marks it as taken.
+     *
+     * @param fileName the name the file would like
+     * @return the name to give the file
+     */
+    public String reserve(String fileName) {
+        lock.lock();
+        try {
+            if (names.add(fileName)) {
+                return fileName;
+            }
+            int number = nextNumber.getOrDefault(fileName, 1);
+            String numbered;
+            do {
+                numbered = numberedName(fileName, number++);
+            } while (!names.add(numbered));
+            nextNumber.put(fileName, number);
+            return numbered;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gives back a name that wasn't used after all, as the file
+     * couldn't be moved.
+     *
+     * @param fileName the name given by {@link #reserve(String)}
+     */
+    public void release(String fileName) {
+        lock.lock();
+        try {
+            names.remove(fileName);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Numbers a file name, keeping its extension on the end, so
+     * photo.jpg becomes photo(1).jpg. The name is put together in a
+     * builder kept for each thread, so only the finished name is
+     * made.
+     *
+     * @param fileName the original file name
+     * @param number   the number to add
+     * @return the numbered file name
+     */
+    private static String numberedName(String fileName, int number) {
+        int i = fileName.lastIndexOf('.');
+        if (i <= 0) {
+            i = fileName.length();
+        }
+        StringBuilder name = NAME_BUILDER.get();
+        name.setLength(0);
+        return name.append(fileName, 0, i).append('(').append(number).append(')')
+                .append(fileName, i, fileName.length()).toString();
+    }
+}
@@ -0,0 +1,95 @@
+package com.towster15.ImageVideoDateSorter.Sorters;
+
+import com.towster15.ImageVideoDateSorter.Metadata.PackedDate;
+import com.towster15.ImageVideoDateSorter.Metadata.PerThread;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Works out which folder in the destination each file goes into,
+ * remembering the answer for each date so the folder's path is only
+ * built once per sort rather than once per file.
+ * <p>
+ * Dates arrive as a {@link PackedDate}, YYYYMMDD, which is all that's
+ * needed to find the folder again. Sorting by month only uses the
+ * YYYYMM part, so every day in the month shares one folder. One
+ * resolver can be shared by all of the transferers.
+ */
+public class DestinationResolver {
+    private static final String[] MONTHS = {
+            "01 January", "02 February", "03 March", "04 April", "05 May", "06 June",
+            "07 July", "08 August", "09 September", "10 October", "11 November", "12 December"
+    };
+
+    private final Path root;
+    private final boolean daySort;
+    private final ConcurrentHashMap<Integer, Path> dateFolders = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Path> namedFolders = new ConcurrentHashMap<>();
+    private final PerThread<LastFolder> lastFolder = new PerThread<>(LastFolder::new);
+
+    private static final class LastFolder {
+        private int key;
+        private Path folder;
+    }
+
+    /**
+     * @param destinationDir destination directory File
+     * @param daySort        boolean to enable or disable sorting by days
+     */
+    public DestinationResolver(File destinationDir, boolean daySort) {
+        root = destinationDir.toPath().toAbsolutePath();
+        this.daySort = daySort;
+    }
+
+    /**
+     * Gets the folder that files from the given date are sorted into.
+     * Files from the same folder in the source tend to come one after
+     * the other and share a month, so each thread remembers the last
+     * folder it was given and only looks in the map when that's
+     * changed.
+     *
+     * @param date the date, packed as a {@link PackedDate}
+     * @return the year and month folder, or the day folder within it
+     * when sorting by days
+     */
+    public Path dateFolder(int date) {
+        int key = daySort ? date : date / 100;
+        LastFolder last = lastFolder.get();
+        if (last.key != key || last.folder == null) {
+            Path folder = dateFolders.get(key);
+            if (folder == null) {
+                folder = dateFolders.computeIfAbsent(key, this::buildDateFolder);
+            }
+            last.key = key;
+            last.folder = folder;
+        }
+        return last.folder;
+    }
+
+    /**
+     * Gets a folder directly inside the destination, like the one
+     * broken images go into.
+     *
+     * @param folderName the name of the folder
+     * @return the folder's path
+     */
+    public Path namedFolder(String folderName) {
+        Path folder = namedFolders.get(folderName);
+        if (folder == null) {
+            folder = namedFolders.computeIfAbsent(folderName, root::resolve);
+        }
+        return folder;
+    }
+
+    private Path buildDateFolder(int key) {
+        if (daySort) {
+            return root.resolve(String.format("%04d", key / 10000))
+                    .resolve(MONTHS[key / 100 % 100 - 1])
+                    .resolve(String.format("%02d", key % 100));
+        }
+        return root.resolve(String.format("%04d", key / 100))
+                .resolve(MONTHS[key % 100 - 1]);
+    }
+}
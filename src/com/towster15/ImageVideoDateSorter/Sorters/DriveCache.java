@@ -0,0 +1,97 @@
+package com.towster15.ImageVideoDateSorter.Sorters;
+
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Tells whether moving a file means copying all of it, because it's on
+ * a different drive to where it's going. This is worked out for each
+ * file rather than once per sort, as a folder within the source can be
+ * a drive of its own, and a replayed plan can send files anywhere.
+ * <p>
+ * Drives are told apart by {@link FileStore}, looked up once for each
+ * folder files come from or go to. One cache is shared by every
+ * transferer in a sort.
+ */
+public class DriveCache {
+    private final Logger LOGGER;
+    private final ConcurrentHashMap<Path, Optional<FileStore>> folders =
+            new ConcurrentHashMap<>();
+    // So each pair of drives is only reported the first time
+    private final Set<Map.Entry<FileStore, FileStore>> reported =
+            ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param log the logger to report which drives files are on to
+     */
+    public DriveCache(Logger log) {
+        LOGGER = log;
+    }
+
+    /**
+     * Checks whether a file is on a different drive to the folder it's
+     * going to.
+     *
+     * @param file        the file being moved
+     * @param destination the folder it's going to, which doesn't have
+     *                    to have been made yet
+     * @return true if they're on different drives, false if they're on
+     * the same one or it couldn't be told, where {@link Files#move}
+     * still copies if it has to
+     */
+    public boolean isCrossDevice(Path file, Path destination) {
+        FileStore source = storeOf(file.toAbsolutePath().getParent());
+        FileStore target = storeOf(destination.toAbsolutePath());
+        if (source == null || target == null || source.equals(target)) {
+            return false;
+        }
+        if (reported.add(Map.entry(source, target))) {
+            LOGGER.log(Level.INFO, "Files on " + source + " are going to " + target
+                    + ", so moving them will copy them");
+        }
+        return true;
+    }
+
+    /**
+     * Finds the drive a folder is on, which is only looked up the
+     * first time, as every file in a folder is on the same drive.
+     *
+     * @return the drive, or null if it couldn't be told
+     */
+    private FileStore storeOf(Path folder) {
+        if (folder == null) {
+            return null;
+        }
+        Optional<FileStore> store = folders.get(folder);
+        if (store == null) {
+            store = folders.computeIfAbsent(folder, this::lookUpStore);
+        }
+        return store.orElse(null);
+    }
+
+    private Optional<FileStore> lookUpStore(Path folder) {
+        // Destination folders might not have been made yet, but
+        // they'll be on the same drive as the closest one that has
+        Path existing = folder;
+        while (existing != null && !Files.exists(existing)) {
+            existing = existing.getParent();
+        }
+        if (existing == null) {
+            return Optional.empty();
+        }
+        try {
+            return Optional.of(Files.getFileStore(existing));
+        } catch (IOException ioEx) {
+            LOGGER.log(Level.WARNING, "Couldn't tell which drive " + folder + " is on", ioEx);
+            return Optional.empty();
+        }
+    }
+}
@@ -0,0 +1,404 @@
+package com.towster15.ImageVideoDateSorter.Sorters;
+
+import com.towster15.ImageVideoDateSorter.Metadata.BufferPool;
+import com.towster15.ImageVideoDateSorter.Metadata.FileProbe;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32C;
+
+/**
+ * Finds files that have already been put in the destination with
+ * exactly the same contents, whether earlier in this sort or in a
+ * previous one.
+ * <p>
+ * Files are grouped by size, which is all most of them ever need to
+ * be compared by. Only when two files are the same size are the first
+ * and last blocks of each checked, and only when those match are the
+ * whole files hashed. Hashes are kept, so each file is read at most
+ * once for each. Files that were probed while being dated already
+ * have the hash of their first block, from the head that was read.
+ * <p>
+ * A group's lock is only held to look at and add to its list of
+ * files, never while files are read or moved, so one large copy
+ * doesn't hold up every other file of the same size. A new file is
+ * added as pending before it's moved, so a copy of it being sorted at
+ * the same time can't be missed, and only has to wait for the move to
+ * finish if it looks like a duplicate once the first and last blocks
+ * have been compared.
+ */
+public class DuplicateIndex {
+    private static final int BLOCK_SIZE = FileProbe.HEAD_SIZE;
+    private static final BufferPool BUFFERS = new BufferPool(BLOCK_SIZE);
+
+    private final Logger LOGGER;
+    private final DuplicateMode mode;
+    private final ConcurrentHashMap<Long, SizeGroup> groups = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Path, FutureTask<Void>> indexedFolders =
+            new ConcurrentHashMap<>();
+
+    /**
+     * @param log  the logger to report events to
+     * @param mode what to do with duplicates that are found
+     */
+    public DuplicateIndex(Logger log, DuplicateMode mode) {
+        LOGGER = log;
+        this.mode = mode;
+    }
+
+    /**
+     * @return what to do with duplicates that are found
+     */
+    public DuplicateMode getMode() {
+        return mode;
+    }
+
+    /**
+     * Adds the files already in a destination folder, the first time
+     * the folder is used. The folder's read outside the map, with any
+     * other transferer that needs it at the same time waiting for it
+     * to be finished.
+     *
+     * @param folder the destination folder
+     * @throws InterruptedIOException if interrupted while waiting for
+     *                                another transferer to read it
+     */
+    public void indexFolder(Path folder) throws InterruptedIOException {
+        FutureTask<Void> task = indexedFolders.get(folder);
+        if (task == null) {
+            FutureTask<Void> mine = new FutureTask<>(() -> readFolder(folder), null);
+            task = indexedFolders.putIfAbsent(folder, mine);
+            if (task == null) {
+                task = mine;
+                mine.run();
+            }
+        }
+        try {
+            task.get();
+        } catch (InterruptedException intEx) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for " + folder);
+        } catch (ExecutionException ex) {
+            throw new IllegalStateException(ex.getCause());
+        }
+    }
+
+    /**
+     * @param size a file size
+     * @return the group of files with that size
+     */
+    SizeGroup group(long size) {
+        SizeGroup group = groups.get(size);
+        if (group == null) {
+            group = groups.computeIfAbsent(size, SizeGroup::new);
+        }
+        return group;
+    }
+
+    /**
+     * Adds the files in a folder. A file that can't be read, such as a
+     * broken link or one deleted while the folder's being listed, is
+     * left out without stopping the rest being added, as are copies
+     * left unfinished by an earlier sort.
+     */
+    private void readFolder(Path folder) {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(folder)) {
+            for (Path file : files) {
+                if (isPartial(file)) {
+                    continue;
+                }
+                try {
+                    BasicFileAttributes attrs = Files.readAttributes(file,
+                            BasicFileAttributes.class);
+                    if (attrs.isRegularFile()) {
+                        Entry entry = new Entry(file, attrs.size());
+                        entry.placedAt(file);
+                        group(attrs.size()).add(entry);
+                    }
+                } catch (IOException ioEx) {
+                    LOGGER.log(Level.FINE, "Skipping " + file + " when looking for duplicates",
+                            ioEx);
+                }
+            }
+        } catch (IOException | DirectoryIteratorException ex) {
+            LOGGER.log(Level.WARNING, "Failed to read the files already in " + folder, ex);
+        }
+    }
+
+    /**
+     * @return true if the file is a copy still under the temporary
+     * name from {@link TransferJournal#partialPath(Path)}
+     */
+    private static boolean isPartial(Path file) {
+        String name = file.getFileName().toString();
+        return name.startsWith(".") && name.endsWith(".part");
+    }
+
+    /**
+     * The files in the destination that are all the same size. Files
+     * are only ever added, with ones that couldn't be moved after all
+     * marked as failed, so the list can be compared a part at a time.
+     */
+    static final class SizeGroup {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final List<Entry> entries = new ArrayList<>();
+
+        private SizeGroup(long size) {
+            // Only used to make a group for each size
+        }
+
+        /**
+         * Looks for a file with the same contents, adding the file as
+         * pending if there isn't one. The files are compared outside
+         * the lock, and any added in the meantime are compared before
+         * the file is added, so two copies sorted at once still find
+         * each other.
+         *
+         * @param file the file about to be sorted, which must be this
+         *             group's size
+         * @return the file already in the destination, or null if
+         * there isn't one, in which case the file has to be marked with
+         * {@link Entry#placedAt(Path)} or {@link Entry#failed()}
+         */
+        Path findCopyOrAdd(Entry file) throws IOException {
+            int compared = 0;
+            while (true) {
+                List<Entry> toCompare;
+                lock.lock();
+                try {
+                    if (compared == entries.size()) {
+                        entries.add(file);
+                        return null;
+                    }
+                    toCompare = new ArrayList<>(entries.subList(compared, entries.size()));
+                    compared = entries.size();
+                } finally {
+                    lock.unlock();
+                }
+                for (Entry entry : toCompare) {
+                    if (entry.sameContents(file)) {
+                        return entry.path;
+                    }
+                }
+            }
+        }
+
+        /**
+         * @param entry a file that's already in the destination
+         */
+        void add(Entry entry) {
+            lock.lock();
+            try {
+                entries.add(entry);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * A file and whichever of its hashes have been needed so far. An
+     * entry for a file being sorted is pending until it's in place,
+     * and the hashes of an entry in a group are only worked out while
+     * holding its lock, as several transferers can compare against it.
+     */
+    static final class Entry {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final CountDownLatch placed = new CountDownLatch(1);
+        private volatile Path path;
+        private volatile boolean failed = false;
+        private final long size;
+        private boolean hasHeadHash = false;
+        private long headHash;
+        private boolean hasTailHash = false;
+        private long tailHash;
+        private byte[] fullHash;
+
+        /**
+         * @param path the file
+         * @param size the file's size
+         */
+        Entry(Path path, long size) {
+            this.path = path;
+            this.size = size;
+        }
+
+        /**
+         * @param path    the file
+         * @param summary the file's size and the hash of its first
+         *                block, from when it was probed
+         */
+        Entry(Path path, FileProbe.Summary summary) {
+            this(path, summary.size());
+            headHash = summary.headHash();
+            hasHeadHash = true;
+        }
+
+        /**
+         * @return the file's size
+         */
+        long size() {
+            return size;
+        }
+
+        /**
+         * Marks the file as in place, so it can be compared against.
+         *
+         * @param path where the file is now
+         */
+        void placedAt(Path path) {
+            this.path = path;
+            placed.countDown();
+        }
+
+        /**
+         * Marks the file as never having made it into place, so it's
+         * never found as a copy.
+         */
+        void failed() {
+            failed = true;
+            placed.countDown();
+        }
+
+        /**
+         * Compares this file, which is in a group, with a new file
+         * that only the calling transferer is using. A pending file is
+         * only waited for if its first and last blocks are needed and
+         * weren't hashed before it was added, or if they match.
+         */
+        private boolean sameContents(Entry file) throws IOException {
+            if (size != file.size) {
+                return false;
+            }
+            file.hashEdges();
+            lock.lock();
+            try {
+                if (!hasEdges()) {
+                    if (!waitUntilPlaced()) {
+                        return false;
+                    }
+                    hashEdges();
+                }
+                if (headHash != file.headHash || tailHash != file.tailHash) {
+                    return false;
+                }
+                if (fullHash == null && !waitUntilPlaced()) {
+                    return false;
+                }
+                return Arrays.equals(fullHash(), file.fullHash());
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private boolean hasEdges() {
+            return hasHeadHash && (hasTailHash || size <= BLOCK_SIZE);
+        }
+
+        /**
+         * @return false if the file never made it into place
+         */
+        private boolean waitUntilPlaced() throws InterruptedIOException {
+            try {
+                placed.await();
+            } catch (InterruptedException intEx) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting for " + path);
+            }
+            return !failed;
+        }
+
+        /**
+         * Hashes whichever of the first and last blocks of the file
+         * haven't been yet, which tells most files of the same size
+         * apart.
+         */
+        private void hashEdges() throws IOException {
+            if (hasEdges()) {
+                return;
+            }
+            ByteBuffer buffer = BUFFERS.take();
+            CRC32C crc = new CRC32C();
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                if (!hasHeadHash) {
+                    readBlock(channel, 0, buffer);
+                    crc.update(buffer);
+                    headHash = crc.getValue();
+                    hasHeadHash = true;
+                }
+                if (size > BLOCK_SIZE) {
+                    readBlock(channel, Math.max(BLOCK_SIZE, size - BLOCK_SIZE), buffer);
+                    crc.reset();
+                    crc.update(buffer);
+                    tailHash = crc.getValue();
+                }
+                hasTailHash = true;
+            } finally {
+                BUFFERS.give(buffer);
+            }
+        }
+
+        private byte[] fullHash() throws IOException {
+            if (fullHash == null) {
+                ByteBuffer buffer = BUFFERS.take();
+                MessageDigest digest = sha256();
+                try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                    long position = 0;
+                    while (position < size) {
+                        readBlock(channel, position, buffer);
+                        if (!buffer.hasRemaining()) {
+                            break;
+                        }
+                        position += buffer.remaining();
+                        digest.update(buffer);
+                    }
+                } finally {
+                    BUFFERS.give(buffer);
+                }
+                fullHash = digest.digest();
+            }
+            return fullHash;
+        }
+
+        private static void readBlock(FileChannel channel, long position, ByteBuffer buffer)
+                throws IOException {
+            buffer.clear();
+            while (buffer.hasRemaining()) {
+                int read = channel.read(buffer, position + buffer.position());
+                if (read < 0) {
+                    break;
+                }
+            }
+            buffer.flip();
+        }
+
+        private static MessageDigest sha256() {
+            try {
+                return MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException ex) {
+                // Every Java platform has to provide SHA-256
+                throw new IllegalStateException(ex);
+            }
+        }
+    }
+}
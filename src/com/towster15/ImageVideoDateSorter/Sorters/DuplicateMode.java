@@ -0,0 +1,21 @@
+package com.towster15.ImageVideoDateSorter.Sorters;
+
+/**
+ * What to do with a file that's byte for byte the same as one that's
+ * already in the destination.
+ */
+public enum DuplicateMode {
+    /**
+     * Don't look for duplicates, so they're given a numbered name.
+     */
+    OFF,
+    /**
+     * Leave the duplicate where it is in the source folder.
+     */
+    SKIP,
+    /**
+     * Hard link the file that's already there under the duplicate's
+     * name, so it only takes up space once.
+     */
+    LINK
+}
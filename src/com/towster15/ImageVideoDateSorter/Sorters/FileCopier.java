@@ -0,0 +1,28 @@
+package com.towster15.ImageVideoDateSorter.Sorters;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Copies a single file, for when files are copied rather than moved.
+ * Implementations must not overwrite anything, throwing
+ * {@link java.nio.file.FileAlreadyExistsException} if the target is
+ * already there, so the caller can pick another name.
+ */
+public interface FileCopier {
+    /**
+     * Copies through {@link Files#copy}, as sorts always used to,
+     * keeping the file's times so moves between drives still look like
+     * moves.
+     */
+    FileCopier FILES = (source, target) ->
+            Files.copy(source, target, StandardCopyOption.COPY_ATTRIBUTES);
+
+    /**
+     * @param source the file to copy
+     * @param target where to copy it to, which mustn't exist yet
+     */
+    void copy(Path source, Path target) throws IOException;
+}
@@ -0,0 +1,351 @@
+package com.towster15.ImageVideoDateSorter.Sorters;
+
+import com.towster15.ImageVideoDateSorter.Metadata.FileProbe;
+import com.towster15.ImageVideoDateSorter.Metadata.PackedDate;
+import com.towster15.ImageVideoDateSorter.Metrics.SortMetrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The second stage of a sort, moving or copying files that have
+ * already been dated into place. Kept apart from the sorters that
+ * read dates, so a slow copy doesn't hold up reading metadata.
+ */
+public class FileTransferer extends Sorter {
+    private final Logger LOGGER;
+    private final BlockingQueue<SortTask> tasks;
+    private final DateFolderRegistry folders;
+    private final DestinationResolver destinations;
+    private final DuplicateIndex duplicates;
+    private final DriveCache drives;
+    private final SortPlan plan;
+    private final TransferJournal journal;
+    private final IoLimiter limiter;
+    private final LongAdder transferred = new LongAdder();
+
+    /**
+     * @param log               the logger to report events to
+     * @param transferQueue     queue of dated files, shared with any
+     *                          other transferers
+     * @param folders           the date folders known to exist, shared
+     *                          with the other transferers
+     * @param destinations      works out each file's folder, shared
+     *                          with the other transferers
+     * @param duplicates        the files already in the destination,
+     *                          shared with the other transferers, or
+     *                          null to not look for duplicates
+     * @param destinationDir    destination directory file
+     * @param daySort           boolean to enable or disable sorting by days
+     * @param copyInsteadOfMove boolean to copy rather than move dated
+     *                          files
+     * @param copier            how files are copied
+     * @param drives            tells which files being moved are on a
+     *                          different drive to where they're going,
+     *                          shared with the other transferers, or
+     *                          null to leave that to {@link Files#move}
+     * @param plan              the plan to write each transfer to
+     *                          instead of doing it, or null
+     * @param journal           where finished transfers are recorded,
+     *                          or null
+     * @param limiter           limits how many files on each drive are
+     *                          moved at once, or null to not limit them
+     * @param cancellation      tells the transferer to stop early
+     * @param metrics           where to record how the sort is going
+     */
+    public FileTransferer(
+            Logger log,
+            BlockingQueue<SortTask> transferQueue,
+            DateFolderRegistry folders,
+            DestinationResolver destinations,
+            DuplicateIndex duplicates,
+            File destinationDir,
+            boolean daySort,
+            boolean copyInsteadOfMove,
+            FileCopier copier,
+            DriveCache drives,
+            SortPlan plan,
+            TransferJournal journal,
+            IoLimiter limiter,
+            SortCancellation cancellation,
+            SortMetrics metrics) {
+        super(destinationDir, daySort, copyInsteadOfMove, copier, cancellation, metrics);
+        LOGGER = log;
+        tasks = transferQueue;
+        this.folders = folders;
+        this.destinations = destinations;
+        this.duplicates = duplicates;
+        this.drives = drives;
+        this.plan = plan;
+        this.journal = journal;
+        this.limiter = limiter;
+    }
+
+    /**
+     * Run method for when an instance of this class, as a thread, is
+     * called.
+     */
+    public void run() {
+        try {
+            SortTask task;
+            while ((task = takeNext(tasks, SortTask.END)) != null) {
+                if (cancellation.isCancelled()) {
+                    // Keep taking them so the controller isn't left
+                    // waiting for space
+                    cancellation.skipped(task.file());
+                    continue;
+                }
+                IoLimiter.Permit permit = limiter == null ? null
+                        : limiter.acquire(task.file(), destinationDir);
+                try {
+                    transfer(task);
+                } finally {
+                    if (permit != null) {
+                        permit.close();
+                    }
+                }
+            }
+        } catch (InterruptedException intEx) {
+            LOGGER.log(Level.WARNING, "File transferer interrupted");
+        }
+    }
+
+    /**
+     * @return how many files this transferer has put in place, or
+     * added to the plan
+     */
+    public long getTransferred() {
+        return transferred.sum();
+    }
+
+    /**
+     * Moves or copies a single file to where it was given to go. When
+     * every file has a virtual thread of its own, one transferer is
+     * shared by all of them, which is fine as everything it changes is
+     * shared by the transferer threads anyway.
+     *
+     * @param task the file and its date or folder
+     */
+    public void transfer(SortTask task) {
+        File file = task.file();
+        if (journal != null && journal.isDone(file)) {
+            // Sorted before the last sort was stopped
+            return;
+        }
+        try {
+            DestinationFolder folder = findFolder(task);
+            if (folder == null) {
+                metrics.fileFailed();
+                return;
+            }
+            String fileName = file.getName();
+            if (task.target() != null) {
+                fileName = task.target().getFileName().toString();
+            }
+            boolean copy = task.isCopy(copyInsteadOfMove);
+            if (duplicates == null) {
+                placeInFolder(file.toPath(), folder, fileName, copy);
+            } else {
+                placeUnlessDuplicate(file.toPath(), task.summary(), folder, fileName, copy);
+            }
+        } catch (FileAlreadyExistsException fEx) {
+            LOGGER.log(Level.WARNING, "File already exists in destination folder", file);
+            metrics.fileFailed();
+        } catch (InterruptedIOException cancelled) {
+            // Cut off part way through a copy, which has been deleted
+            cancellation.skipped(file);
+        } catch (IOException ioEx) {
+            LOGGER.log(Level.WARNING, "Failed to move " + file.getName() + ", IOException", ioEx);
+            metrics.fileFailed();
+        }
+    }
+
+    /**
+     * Finds the folder a file is going to, making it if it's needed.
+     *
+     * @param task the file and its date, folder or target
+     * @return the folder, or null if the file can't be sorted
+     */
+    private DestinationFolder findFolder(SortTask task) throws InterruptedIOException {
+        Path path;
+        if (task.target() != null) {
+            path = task.target().getParent();
+        } else if (task.date() != PackedDate.NONE) {
+            path = destinations.dateFolder(task.date());
+        } else {
+            path = destinations.namedFolder(task.folder());
+        }
+        DestinationFolder folder = folders.ensureExists(path);
+        if (folder == null) {
+            LOGGER.log(Level.WARNING, "Failed to make folder " + path);
+        }
+        return folder;
+    }
+
+    /**
+     * Puts a file in its folder, unless a file with the same contents
+     * is already somewhere in the destination.
+     *
+     * @param filePath the path of the file
+     * @param summary  the file's size and head hash, if it was probed
+     *                 while being dated, otherwise null
+     * @param folder   the folder it's going to
+     * @param fileName the name it should have
+     * @param copy     true to copy the file rather than move it
+     */
+    private void placeUnlessDuplicate(Path filePath, FileProbe.Summary summary,
+                                      DestinationFolder folder, String fileName, boolean copy)
+            throws IOException {
+        duplicates.indexFolder(folder.path());
+        DuplicateIndex.Entry entry = summary != null
+                ? new DuplicateIndex.Entry(filePath, summary)
+                : new DuplicateIndex.Entry(filePath, Files.size(filePath));
+        Path original = duplicates.group(entry.size()).findCopyOrAdd(entry);
+        if (original == null) {
+            Path placed = null;
+            try {
+                placed = placeInFolder(filePath, folder, fileName, copy);
+            } finally {
+                if (placed != null) {
+                    entry.placedAt(placed);
+                } else {
+                    entry.failed();
+                }
+            }
+        } else if (duplicates.getMode() == DuplicateMode.LINK) {
+            linkDuplicate(filePath, entry.size(), original, folder, fileName, copy);
+        } else {
+            LOGGER.log(Level.INFO, filePath.getFileName() + " is the same as " + original
+                    + ", leaving it where it is");
+            metrics.duplicateSkipped();
+            if (journal != null) {
+                journal.skipped(filePath, entry.size());
+            }
+        }
+    }
+
+    /**
+     * Links the file already in the destination into the duplicate's
+     * folder, under the duplicate's name. If the file system can't do
+     * that, the duplicate is put there as normal. The link is
+     * journalled like any other file put in place, so carrying on
+     * doesn't link it a second time.
+     */
+    private void linkDuplicate(Path filePath, long size, Path original,
+                               DestinationFolder folder, String fileName, boolean copy)
+            throws IOException {
+        String name = folder.reserve(fileName);
+        Path link = folder.path().resolve(name);
+        try {
+            Files.createLink(link, original);
+        } catch (IOException | UnsupportedOperationException ex) {
+            folder.release(name);
+            LOGGER.log(Level.WARNING, "Failed to link " + filePath.getFileName()
+                    + " to " + original + ", " + ex);
+            placeInFolder(filePath, folder, fileName, copy);
+            return;
+        }
+        if (!copy) {
+            Files.delete(filePath);
+        }
+        metrics.duplicateLinked();
+        if (journal != null) {
+            journal.finished(filePath, link, size);
+        }
+    }
+
+    /**
+     * Moves between drives are copied and then deleted here, rather
+     * than leaving {@link Files#move} to do the same thing out of
+     * sight, so they go through the copier like any other copy.
+     * When only planning, the transfer is written to the plan instead.
+     */
+    @Override
+    protected void transferFile(Path source, Path target, boolean copy) throws IOException {
+        long startTime = System.nanoTime();
+        if (plan != null) {
+            plan.add(source, target, copy);
+            metrics.fileSorted(System.nanoTime() - startTime, 0);
+            transferred.increment();
+            return;
+        }
+        if (copy || (drives != null && drives.isCrossDevice(source, target.getParent()))) {
+            copyIntoPlace(source, target, copy);
+        } else {
+            super.transferFile(source, target, false);
+        }
+        long size = Files.size(target);
+        metrics.fileSorted(System.nanoTime() - startTime, size);
+        if (journal != null) {
+            journal.finished(source, target, size);
+        }
+        transferred.increment();
+    }
+
+    /**
+     * Copies a file under a temporary name, only renaming it into
+     * place once it's whole, so a copy that's cut off part way is
+     * never mistaken for the real thing. When the original is being
+     * deleted, the copy is forced to disk first, so a power cut can't
+     * lose both.
+     *
+     * @param source the file
+     * @param target where to put it
+     * @param copy   true to keep the original, false to delete it
+     *               once it's been copied
+     */
+    private void copyIntoPlace(Path source, Path target, boolean copy) throws IOException {
+        Path partial = TransferJournal.partialPath(target);
+        if (journal != null) {
+            journal.started(source, target, copy);
+        }
+        try {
+            copier.copy(source, partial);
+            if (!copy) {
+                force(partial);
+            }
+            Files.move(partial, target);
+        } catch (IOException | RuntimeException ex) {
+            Files.deleteIfExists(partial);
+            throw ex;
+        }
+        if (!copy) {
+            // Otherwise the rename might not survive a power cut, and
+            // carrying on would delete the copy as unfinished
+            forceFolder(target.getParent());
+            Files.delete(source);
+        }
+    }
+
+    /**
+     * Writes everything in a file out to the disk.
+     */
+    private static void force(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Writes a folder's list of files out to the disk, where the
+     * operating system allows it. Windows doesn't let folders be
+     * opened, but writes renames out straight away anyway.
+     */
+    private void forceFolder(Path folder) {
+        try (FileChannel channel = FileChannel.open(folder, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException ioEx) {
+            LOGGER.log(Level.FINE, "Couldn't force " + folder + " to disk", ioEx);
+        }
+    }
+}
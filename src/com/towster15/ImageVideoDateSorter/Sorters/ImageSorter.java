@@ -1,87 +1,92 @@
 package com.towster15.ImageVideoDateSorter.Sorters;
 
+import com.towster15.ImageVideoDateSorter.Metadata.DateCache;
+import com.towster15.ImageVideoDateSorter.Metadata.DateSource;
+import com.towster15.ImageVideoDateSorter.Metadata.FileProbe;
+import com.towster15.ImageVideoDateSorter.Metadata.JpegExifReader;
+import com.towster15.ImageVideoDateSorter.Metadata.PackedDate;
+import com.towster15.ImageVideoDateSorter.Metadata.ResolvedDate;
+import com.towster15.ImageVideoDateSorter.Metadata.VideoDateReader;
+import com.towster15.ImageVideoDateSorter.Metrics.SortMetrics;
+import com.towster15.ImageVideoDateSorter.Scanners.FileClassifier;
+import com.towster15.ImageVideoDateSorter.Scanners.FileType;
 import org.apache.commons.imaging.ImageReadException;
 import org.apache.commons.imaging.Imaging;
 import org.apache.commons.imaging.common.ImageMetadata;
 import org.apache.commons.imaging.formats.jpeg.JpegImageMetadata;
+import org.apache.commons.imaging.formats.tiff.TiffImageMetadata;
 import org.apache.commons.imaging.formats.tiff.constants.ExifTagConstants;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
-import java.util.*;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 public class ImageSorter extends Sorter {
     private final Logger LOGGER;
-    private final List<File> images;
-    private final List<File> aaeList;
-    private final boolean sortAAEs;
-    private final boolean dealwithAAEs;
+    private final BlockingQueue<File> images;
+    private final BlockingQueue<SortTask> transfers;
+    private final Map<String, Integer> datedImages;
     private final boolean separateBroken;
     private final boolean OSCreateDateSort;
-    private final HashMap<String, String> datedImages = new HashMap<>();
+    private final DateCache dateCache;
+    private final IoLimiter limiter;
+    private final JpegExifReader exifReader = new JpegExifReader();
+    private final VideoDateReader videoReader = new VideoDateReader();
+    // What was learnt about the last image while it was being dated
+    private FileProbe.Summary summary;
 
     /**
      * @param log              the logger to report events to
-     * @param imageList        list of images to sort
+     * @param imageQueue       queue of images to sort, shared with any
+     *                         other image sorters
+     * @param transferQueue    queue to put dated images onto
+     * @param datedImages      map to record each image's date in, keyed
+     *                         by file name, for matching AAEs to later,
+     *                         with {@link PackedDate#NONE} for broken
+     *                         images, or null if AAEs aren't being
+     *                         sorted
+     * @param dateCache        cache of dates read on earlier runs, or
+     *                         null to always read them
      * @param destinationDir   destination directory file
      * @param separateBroken   boolean to enable or disable separating
      *                         broken images from the rest
      * @param daySort          boolean to enable or disable sorting by days
      * @param OSCreateDateSort boolean to enable or disable using the
      *                         OS's creation date, as a fallback opt.
+     * @param limiter          limits how many images on each drive are
+     *                         read at once, or null to not limit them
+     * @param cancellation     tells the sorter to stop early
+     * @param metrics          where to record how the sort is going
      */
     public ImageSorter(
             Logger log,
-            List<File> imageList,
+            BlockingQueue<File> imageQueue,
+            BlockingQueue<SortTask> transferQueue,
+            Map<String, Integer> datedImages,
+            DateCache dateCache,
             File destinationDir,
             boolean separateBroken,
             boolean daySort,
             boolean OSCreateDateSort,
-            boolean copyInsteadOfMove) {
-        super(destinationDir, daySort, copyInsteadOfMove);
+            boolean copyInsteadOfMove,
+            IoLimiter limiter,
+            SortCancellation cancellation,
+            SortMetrics metrics) {
+        super(destinationDir, daySort, copyInsteadOfMove, cancellation, metrics);
         LOGGER = log;
-        images = imageList;
-        this.aaeList = new ArrayList<>();
-        this.sortAAEs = false;
-        this.dealwithAAEs = false;
-        this.separateBroken = separateBroken;
-        this.OSCreateDateSort = OSCreateDateSort;
-        System.out.println("without");
-    }
-
-    /**
-     * @param log              the logger to report events to
-     * @param imageList        list of images to sort
-     * @param destinationDir   destination directory file
-     * @param separateBroken   boolean to enable or disable separating
-     *                         broken images from the rest
-     * @param sortAAEs         boolean for sorting the AAEs by date
-     * @param daySort          boolean to enable or disable sorting by days
-     * @param OSCreateDateSort boolean to enable or disable using the
-     *                         OS's creation date, as a fallback opt.
-     */
-    public ImageSorter(
-            Logger log,
-            List<File> imageList,
-            List<File> aaeList,
-            File destinationDir,
-            boolean separateBroken,
-            boolean sortAAEs,
-            boolean daySort,
-            boolean OSCreateDateSort,
-            boolean copyInsteadOfMove) {
-        super(destinationDir, daySort, copyInsteadOfMove);
-        LOGGER = log;
-        images = imageList;
-        this.aaeList = aaeList;
-        this.sortAAEs = sortAAEs;
-        this.dealwithAAEs = true;
+        images = imageQueue;
+        transfers = transferQueue;
+        this.datedImages = datedImages;
+        this.dateCache = dateCache;
         this.separateBroken = separateBroken;
         this.OSCreateDateSort = OSCreateDateSort;
+        this.limiter = limiter;
     }
 
     /**
@@ -89,151 +94,177 @@ public class ImageSorter extends Sorter {
      * called.
      */
     public void run() {
-        sortImages();
+        try {
+            sortImages();
+        } catch (InterruptedException intEx) {
+            LOGGER.log(Level.WARNING, "Image sorter interrupted");
+        }
     }
 
     /**
-     * Sorts all the images in the source directory into dated folders
-     * in the destination directory.
+     * Dates images from the queue and hands them on to be moved into
+     * dated folders in the destination directory, until the scan has
+     * finished.
      */
-    public void sortImages() {
-        File brokenImages = new File(destinationDir + "/Broken Images");
-        if (!(brokenImages.mkdirs() || Files.exists(brokenImages.toPath()))) {
-            LOGGER.log(Level.WARNING, "Failed to make broken images folder, expect more errors!");
-        }
-        if (sortAAEs) {
-            File looseAAEs = new File(destinationDir + "/Loose AAEs");
-            if (!(looseAAEs.mkdirs() || Files.exists(looseAAEs.toPath()))) {
-                LOGGER.log(Level.WARNING, "Failed to make loose AAEs folder, expect more errors!");
-            }
-        } else {
-            File looseAAEs = new File(destinationDir + "/AAEs");
-            if (!(looseAAEs.mkdirs() || Files.exists(looseAAEs.toPath()))) {
-                LOGGER.log(Level.WARNING, "Failed to make AAEs folder, expect more errors!");
-            }
-        }
-        for (File image : images) {
-            String date = getDateFromEXIF(image);
-            if (date != null && !date.equals("null")) {
-                if (sortAAEs) {
-                    datedImages.put(image.getName(), date);
-                }
-                if (!checkDateFolderExists(date)) {
-                    if (!makeDateFolder(date)) {
-                        LOGGER.log(Level.WARNING, "Failed to make date folder", date);
-                        continue;
-                    }
-                }
-                try {
-                    sortDatedFile(image.toPath(), date);
-                } catch (FileAlreadyExistsException fEx) {
-                    LOGGER.log(Level.WARNING, String.format("File already exists in %s folder",
-                            date), image);
-                } catch (IOException ioEx) {
-                    LOGGER.log(Level.WARNING, "Failed to make date folder, IOException", date);
-                }
-            } else if (separateBroken) {
-                datedImages.put(image.getName(), "null");
-                try {
-                    moveToFolder(image.toPath(), "Broken Images");
-                } catch (IOException ioEx) {
-                    LOGGER.log(Level.WARNING, "Failed to make folder, IOException", date);
+    public void sortImages() throws InterruptedException {
+        File image;
+        while ((image = nextFile(images)) != null) {
+            IoLimiter.Permit permit = limiter == null ? null : limiter.acquire(image);
+            SortTask task;
+            try {
+                task = date(image);
+            } finally {
+                if (permit != null) {
+                    permit.close();
                 }
-            } else {
-                LOGGER.log(Level.WARNING, "File has no date data", image);
+            }
+            if (task != null) {
+                transfers.put(task);
             }
         }
+    }
 
-        if (dealwithAAEs) {
-            // Deal with AAE files that should (ideally) be kept with
-            // their corresponding JPG/PNG images
-            // Seems like they used to be produced alongside PNGs, but now
-            // everything seems to be exported as JPG
-            for (File aae : aaeList) {
-                int fnlen = aae.getName().length();
-                String jpgKey = aae.getName().substring(0, fnlen - 4) + ".JPG";
-                String pngKey = aae.getName().substring(0, fnlen - 4) + ".PNG";
-
-                try {
-                    if (datedImages.containsKey(jpgKey)) {
-                        if (Objects.equals(datedImages.get(jpgKey), "null")) {
-                            moveToFolder(aae.toPath(), "Broken Images");
-                        } else {
-                            sortDatedFile(aae.toPath(), datedImages.get(jpgKey));
-                        }
-                    } else if (datedImages.containsKey(pngKey)) {
-                        if (Objects.equals(datedImages.get(pngKey), "null")) {
-                            moveToFolder(aae.toPath(), "Broken Images");
-                        } else {
-                            sortDatedFile(aae.toPath(), datedImages.get(pngKey));
-                        }
-                    } else {
-                        moveToFolder(aae.toPath(), "Loose AAEs");
-                    }
-                } catch (FileAlreadyExistsException fEx) {
-                    LOGGER.log(Level.WARNING, "AAE already exists in folder", aae);
-                } catch (IOException ioEx) {
-                    LOGGER.log(Level.WARNING, "Failed to make date folder, IOException");
-                }
+    /**
+     * Dates a single image and works out where it's going, without
+     * handing it on, so a virtual thread working on just this image
+     * can let go of its drive before waiting for room on the transfer
+     * queue. An instance can only date one image at a time.
+     *
+     * @param image the image
+     * @return the image's task, or null if it can't be sorted
+     */
+    public SortTask date(File image) {
+        long startTime = System.nanoTime();
+        summary = null;
+        int date;
+        try {
+            date = getDateFromEXIF(image);
+        } catch (RuntimeException ex) {
+            // A reader tripped over something it didn't expect, which
+            // shouldn't stop the rest of the sort
+            LOGGER.log(Level.WARNING, "Couldn't read the date of " + image.getName(), ex);
+            metrics.fileFailed();
+            return null;
+        }
+        metrics.fileDated(System.nanoTime() - startTime);
+        if (date != PackedDate.NONE) {
+            if (datedImages != null) {
+                datedImages.put(image.getName(), date);
             }
+            return SortTask.dated(image, date, summary);
+        } else if (separateBroken) {
+            if (datedImages != null) {
+                datedImages.put(image.getName(), PackedDate.NONE);
+            }
+            return SortTask.toFolder(image, "Broken Images", summary);
+        } else {
+            LOGGER.log(Level.WARNING, "File has no date data", image);
+            metrics.fileFailed();
+            return null;
         }
     }
 
     /**
-     * Returns the date an image was created, or null if the date
-     * couldn't be retrieved.
+     * Returns the date an image was created, or
+     * {@link PackedDate#NONE} if the date couldn't be retrieved.
      * <p>
      * If possible, gets the date that the image was originally taken.
      * If that's not available, use the date that the image was
      * created on the computer.
      * <p>
-     * We always only take the first 10 characters before returning
-     * because that leaves you with YYYY-MM-DD, without any time
-     * information.
+     * Only the date is kept, packed as a {@link PackedDate}, without
+     * any time information.
      * <p>
      * If something goes wrong reading an image and an error would be
-     * thrown, null is returned instead of a date.
+     * thrown, {@link PackedDate#NONE} is returned instead of a date.
+     * <p>
+     * The image is only opened once, as a {@link FileProbe}, and not
+     * at all if its date is in the cache. JPEGs go through
+     * {@link JpegExifReader} first, which only reads the header, and
+     * only fall back to Commons Imaging if it can't make sense of it.
      *
      * @param file the image that we're reading EXIF data from
-     * @return the taken/creation date of the image, or null if a
-     * date could be retrieved
+     * @return the taken/creation date of the image, or
+     * {@link PackedDate#NONE} if a date couldn't be retrieved
+     */
+    private int getDateFromEXIF(final File file) {
+        Path path = file.toPath();
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (IOException IOex) {
+            LOGGER.log(Level.WARNING, "IOException reading metadata: " + file.getName(), IOex);
+            return PackedDate.NONE;
+        }
+        if (dateCache != null) {
+            ResolvedDate cached = dateCache.get(file, attrs);
+            if (cached != null) {
+                return cached.hasDate() ? cached.date() : getFallbackDate(attrs);
+            }
+        }
+
+        ResolvedDate exifDate;
+        try (FileProbe probe = FileProbe.open(path, attrs)) {
+            exifDate = readExifDate(file, probe);
+            summary = probe.summary();
+        } catch (IOException IOex) {
+            // Failed to read image data
+            LOGGER.log(Level.WARNING, "IOException reading metadata: " + file.getName(), IOex);
+            exifDate = ResolvedDate.UNREADABLE;
+        }
+        if (exifDate == null) {
+            return PackedDate.NONE;
+        }
+        if (dateCache != null) {
+            dateCache.put(file, attrs, exifDate);
+        }
+        return exifDate.hasDate() ? exifDate.date() : getFallbackDate(attrs);
+    }
+
+    /**
+     * Reads the date an image was taken from its EXIF data.
+     *
+     * @param file  the image that we're reading EXIF data from
+     * @param probe the image, already opened
+     * @return the date, {@link ResolvedDate#NONE} or
+     * {@link ResolvedDate#UNREADABLE} if there isn't one, or null if
+     * the image looks to be broken
      */
-    private String getDateFromEXIF(final File file) {
+    private ResolvedDate readExifDate(final File file, final FileProbe probe) throws IOException {
+        if (FileClassifier.sniff(probe) == FileType.VIDEO) {
+            // Named as an image, but it's really a video
+            ResolvedDate videoDate = videoReader.readDate(probe);
+            return videoDate != null ? videoDate : ResolvedDate.NONE;
+        }
+        try {
+            ResolvedDate exifDate = exifReader.readDate(probe);
+            if (exifDate != null) {
+                return exifDate;
+            }
+        } catch (IOException IOex) {
+            LOGGER.log(Level.FINE, "Fast EXIF read failed, trying Commons Imaging: "
+                    + file.getName(), IOex);
+        }
         try {
-            final ImageMetadata metadata = Imaging.getMetadata(file);
+            final ImageMetadata metadata = Imaging.getMetadata(probe.stream(), file.getName());
             if (metadata instanceof JpegImageMetadata) {
-                final JpegImageMetadata jpegMetadata = (JpegImageMetadata) metadata;
+                final TiffImageMetadata exif = ((JpegImageMetadata) metadata).getExif();
 
-                if (jpegMetadata.getExif().getFieldValue(
-                        ExifTagConstants.EXIF_TAG_DATE_TIME_ORIGINAL
-                ) != null) {
-                    String dtOriginal = jpegMetadata.getExif().getFieldValue(
-                            ExifTagConstants.EXIF_TAG_DATE_TIME_ORIGINAL
-                    )[0].substring(0, 10);
-                    boolean success = true;
-                    try {
-                        Integer.parseInt(dtOriginal.substring(0, 4));
-                        Integer.parseInt(dtOriginal.substring(5, 7));
-                        Integer.parseInt(dtOriginal.substring(8, 10));
-                    } catch (NumberFormatException nfe) {
-                        success = false;
-                    }
-                    if (success) {
-                    return jpegMetadata.getExif().getFieldValue(
-                            ExifTagConstants.EXIF_TAG_DATE_TIME_ORIGINAL
-                    )[0].substring(0, 10);}
-                } if (
-                        jpegMetadata.getExif().getFieldValue(
-                                ExifTagConstants.EXIF_TAG_DATE_TIME_DIGITIZED
-                        ) != null) {
-                    return jpegMetadata.getExif().getFieldValue(
-                            ExifTagConstants.EXIF_TAG_DATE_TIME_DIGITIZED
-                    )[0].substring(0, 10);
+                int original = firstDate(exif.getFieldValue(
+                        ExifTagConstants.EXIF_TAG_DATE_TIME_ORIGINAL));
+                if (original != PackedDate.NONE) {
+                    return new ResolvedDate(original, DateSource.EXIF_ORIGINAL);
+                }
+                int digitized = firstDate(exif.getFieldValue(
+                        ExifTagConstants.EXIF_TAG_DATE_TIME_DIGITIZED));
+                if (digitized != PackedDate.NONE) {
+                    return new ResolvedDate(digitized, DateSource.EXIF_DIGITIZED);
                 }
             }
         } catch (IOException IOex) {
             // Failed to read image data
             LOGGER.log(Level.WARNING, "IOException reading metadata: " + file.getName(), IOex);
+            return ResolvedDate.UNREADABLE;
         } catch (ImageReadException imReadEx) {
             // Failed to read image metadata
             LOGGER.log(Level.WARNING, "Image read exception: " + file.getName());
@@ -244,15 +275,32 @@ public class ImageSorter extends Sorter {
         catch (NullPointerException npx) {
             LOGGER.log(Level.WARNING, "Null returned for EXIF data: " + file.getName());
         }
+        return ResolvedDate.NONE;
+    }
+
+    /**
+     * @param values an ASCII date tag's values from Commons Imaging,
+     *               or null if the tag isn't there
+     * @return the first value's date, or {@link PackedDate#NONE}
+     */
+    private static int firstDate(final String[] values) {
+        return values != null && values.length > 0 ? PackedDate.parse(values[0])
+                : PackedDate.NONE;
+    }
+
+    /**
+     * Returns the date the OS says the image was created, if the
+     * fallback date sorting is enabled.
+     *
+     * @param attrs the attributes of the image without a usable EXIF
+     *              date
+     * @return the creation date, or {@link PackedDate#NONE}
+     */
+    private int getFallbackDate(final BasicFileAttributes attrs) {
         if (OSCreateDateSort) {
-            try {
-                return getDate(file);
-            } catch (IOException e) {
-                LOGGER.log(Level.WARNING, "IOException reading file creation date", e);
-                return null;
-            }
+            return getDate(attrs);
         } else {
-            return null;
+            return PackedDate.NONE;
         }
     }
 }
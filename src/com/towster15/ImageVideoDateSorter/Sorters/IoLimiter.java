@@ -0,0 +1,288 @@
+package com.towster15.ImageVideoDateSorter.Sorters;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Limits how many files are being worked on at once on each drive, and
+ * over the whole sort, so one drive is never worked harder than it can
+ * take while files on other drives carry on alongside it.
+ * <p>
+ * A spinning disk gets slower, not faster, when a lot of threads read
+ * and copy from it at once, as the head has to keep moving between
+ * files, so spinning disks are given a much lower limit than other
+ * drives. On Linux, whether a drive spins is read from
+ * {@code /sys/block/*}{@code /queue/rotational}; anywhere it can't be
+ * told, the drive is treated as one that doesn't.
+ * <p>
+ * Virtual threads are cheap enough that a slow drive, such as a USB
+ * disk or a network share, can have hundreds of reads and writes
+ * waiting on it without hundreds of threads in the operating system.
+ * Nothing else stops them all starting at once though, so when every
+ * file has a virtual thread of its own, room is reserved overall
+ * before its thread starts, and the thread then waits for its drives
+ * itself, so a busy drive only holds up its own files. The sorter
+ * threads take both around each file instead.
+ * <p>
+ * Drives are told apart by {@link FileStore}, looked up once for each
+ * folder files come from or go to. A file being moved holds a permit
+ * on both the drive it's on and the one it's going to. One limiter is
+ * shared by every stage of a sort.
+ */
+public class IoLimiter {
+    private static final Path SYS_BLOCK = Path.of("/sys/class/block");
+    private final Logger LOGGER;
+    private final Semaphore overall;
+    private final int overallLimit;
+    private final int deviceLimit;
+    private final int rotationalLimit;
+    private final ConcurrentHashMap<FileStore, Device> devices = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Path, Device> folders = new ConcurrentHashMap<>();
+    // Drives are always waited for in the order they were found, so
+    // two files moving between the same drives in opposite directions
+    // can't each hold the drive the other is waiting for
+    private final AtomicInteger nextOrder = new AtomicInteger();
+    // For files whose drive couldn't be found
+    private final Device unknownDevice;
+
+    /**
+     * A drive, and how many more files can be worked on on it.
+     *
+     * @param permits the files that can be worked on at once
+     * @param order   the order the drive is waited for in
+     */
+    private record Device(Semaphore permits, int order) {
+    }
+
+    /**
+     * @param log             the logger to report events to
+     * @param overall         how many files can be worked on at once
+     * @param deviceLimit     how many files on one drive can be worked
+     *                        on at once
+     * @param rotationalLimit how many files on one spinning disk can be
+     *                        worked on at once
+     */
+    public IoLimiter(Logger log, int overall, int deviceLimit, int rotationalLimit) {
+        LOGGER = log;
+        overallLimit = Math.max(1, overall);
+        this.overall = new Semaphore(overallLimit);
+        this.deviceLimit = Math.max(1, deviceLimit);
+        this.rotationalLimit = Math.max(1, rotationalLimit);
+        unknownDevice = new Device(new Semaphore(this.deviceLimit), nextOrder.getAndIncrement());
+    }
+
+    /**
+     * Waits until there's room to read a file, on its drive and
+     * overall.
+     *
+     * @param file the file about to be read
+     * @return the permit, which has to be closed once the file's been
+     * dealt with
+     */
+    public Permit acquire(File file) throws InterruptedException {
+        return acquire(file, null);
+    }
+
+    /**
+     * Waits until there's room to move a file, overall and then on the
+     * drive it's on and the drive it's going to.
+     *
+     * @param file        the file about to be moved
+     * @param destination the folder it's going to, or null if it's only
+     *                    being read
+     * @return the permit, which has to be closed once the file's been
+     * dealt with
+     */
+    public Permit acquire(File file, File destination) throws InterruptedException {
+        Permit permit = reserve();
+        try {
+            permit.waitForDrives(file, destination);
+        } catch (InterruptedException intEx) {
+            permit.close();
+            throw intEx;
+        }
+        return permit;
+    }
+
+    /**
+     * Waits until there's room for one more file overall, without
+     * waiting for any drive, so whatever's handing out files can carry
+     * on to ones on other drives. The drives are waited for
+     * afterwards, with {@link Permit#waitForDrives(File, File)}.
+     *
+     * @return the permit, which has to be closed once the file's been
+     * dealt with
+     */
+    public Permit reserve() throws InterruptedException {
+        overall.acquire();
+        return new Permit();
+    }
+
+    /**
+     * @return how many files can be worked on at once, over the whole
+     * sort
+     */
+    public int getOverallLimit() {
+        return overallLimit;
+    }
+
+    /**
+     * @return how many files on one drive can be worked on at once
+     */
+    public int getDeviceLimit() {
+        return deviceLimit;
+    }
+
+    /**
+     * @return how many files on one spinning disk can be worked on at
+     * once
+     */
+    public int getRotationalLimit() {
+        return rotationalLimit;
+    }
+
+    /**
+     * Finds the limit for the drive a folder is on, which is only
+     * looked up the first time, as every file in a folder is on the
+     * same drive.
+     */
+    private Device deviceOf(Path folder) {
+        if (folder == null) {
+            return unknownDevice;
+        }
+        Device device = folders.get(folder);
+        if (device == null) {
+            device = folders.computeIfAbsent(folder, this::lookUpDevice);
+        }
+        return device;
+    }
+
+    private Device lookUpDevice(Path folder) {
+        // Destination folders might not have been made yet, but
+        // they'll be on the same drive as the closest one that has
+        Path existing = folder;
+        while (existing != null && !Files.exists(existing)) {
+            existing = existing.getParent();
+        }
+        if (existing == null) {
+            return unknownDevice;
+        }
+        try {
+            FileStore store = Files.getFileStore(existing);
+            return devices.computeIfAbsent(store, this::newDevice);
+        } catch (IOException ioEx) {
+            LOGGER.log(Level.FINE, "Couldn't tell which drive " + folder + " is on", ioEx);
+            return unknownDevice;
+        }
+    }
+
+    private Device newDevice(FileStore store) {
+        if (isRotational(store)) {
+            LOGGER.log(Level.INFO, store + " is a spinning disk, so at most " + rotationalLimit
+                    + " files on it will be worked on at once");
+            return new Device(new Semaphore(rotationalLimit), nextOrder.getAndIncrement());
+        }
+        return new Device(new Semaphore(deviceLimit), nextOrder.getAndIncrement());
+    }
+
+    /**
+     * Checks whether a drive is a spinning disk, from what Linux says
+     * about the block device it's on. A partition doesn't say itself,
+     * so the disk it's part of is asked instead.
+     *
+     * @param store the drive
+     * @return true if it's a spinning disk, false if it isn't or it
+     * couldn't be told
+     */
+    static boolean isRotational(FileStore store) {
+        String name = store.name();
+        if (!name.startsWith("/dev/")) {
+            // Network shares, tmpfs and the like
+            return false;
+        }
+        try {
+            // Names under /dev/mapper are links to the real device
+            Path device = Path.of(name).toRealPath();
+            Path block = SYS_BLOCK.resolve(device.getFileName().toString()).toRealPath();
+            Path flag = block.resolve("queue").resolve("rotational");
+            if (!Files.exists(flag)) {
+                flag = block.getParent().resolve("queue").resolve("rotational");
+            }
+            return Files.readString(flag).trim().equals("1");
+        } catch (IOException | InvalidPathException | SecurityException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Room to work on one file, given back by closing it. Closing it
+     * more than once only gives it back the first time, so a file can
+     * let go of it early, before handing itself on to the next stage.
+     */
+    public final class Permit implements AutoCloseable {
+        private Device first;
+        private Device second;
+        private boolean released = false;
+
+        private Permit() {
+            // Only made once there's room overall
+        }
+
+        /**
+         * Waits until there's room on the drive a file's on and the
+         * drive it's going to. Only the thread working on the file
+         * waits, so files on other drives aren't held up behind it.
+         *
+         * @param file        the file about to be worked on
+         * @param destination the folder it's going to, or null if it's
+         *                    only being read
+         */
+        public void waitForDrives(File file, File destination) throws InterruptedException {
+            Device first = deviceOf(file.toPath().toAbsolutePath().getParent());
+            Device second = destination == null ? null
+                    : deviceOf(destination.toPath().toAbsolutePath());
+            if (second == first) {
+                second = null;
+            } else if (second != null && second.order() < first.order()) {
+                Device swap = first;
+                first = second;
+                second = swap;
+            }
+
+            first.permits().acquire();
+            if (second != null) {
+                try {
+                    second.permits().acquire();
+                } catch (InterruptedException intEx) {
+                    first.permits().release();
+                    throw intEx;
+                }
+            }
+            this.first = first;
+            this.second = second;
+        }
+
+        @Override
+        public void close() {
+            if (!released) {
+                released = true;
+                if (second != null) {
+                    second.permits().release();
+                }
+                if (first != null) {
+                    first.permits().release();
+                }
+                overall.release();
+            }
+        }
+    }
+}
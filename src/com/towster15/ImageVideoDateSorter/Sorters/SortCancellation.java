@@ -0,0 +1,93 @@
+package com.towster15.ImageVideoDateSorter.Sorters;
+
+import java.io.File;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Shared by every stage of a sort, so they can all be told to stop.
+ * <p>
+ * Once a sort's cancelled, the scanner stops looking for files and
+ * the sorters and transferers stop working on them, but they all keep
+ * taking whatever's left on their queues, so nothing is left waiting
+ * for space and the end of the queues still gets through as normal.
+ * Anything taken off a queue after the cancel is counted as skipped,
+ * and left where it is in the source folder.
+ */
+public class SortCancellation {
+    private final Logger LOGGER;
+    private final long timeoutNanos;
+    private final LongAdder skipped = new LongAdder();
+    private volatile boolean cancelled = false;
+    private volatile long deadline;
+
+    /**
+     * @param log     the logger to report events to
+     * @param timeout how long the sort has to stop once cancelled
+     */
+    public SortCancellation(Logger log, Duration timeout) {
+        LOGGER = log;
+        timeoutNanos = timeout.toNanos();
+    }
+
+    /**
+     * Tells every stage to stop, starting the clock on how long they
+     * have to do it. Cancelling again doesn't move the deadline.
+     */
+    public synchronized void cancel() {
+        if (!cancelled) {
+            deadline = System.nanoTime() + timeoutNanos;
+            cancelled = true;
+            LOGGER.log(Level.INFO, "Cancelling the sort");
+        }
+    }
+
+    /**
+     * @return true once the sort's been cancelled
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Stops a long running job, like a large copy, part way through
+     * if the sort's been cancelled.
+     */
+    public void check() throws InterruptedIOException {
+        if (cancelled) {
+            throw new InterruptedIOException("Sort cancelled");
+        }
+    }
+
+    /**
+     * @return how many milliseconds are left before the sort should
+     * have stopped, 0 once it's over
+     */
+    public long remainingMillis() {
+        if (!cancelled) {
+            return Long.MAX_VALUE;
+        }
+        return Math.max(0, (deadline - System.nanoTime()) / 1_000_000);
+    }
+
+    /**
+     * Records a file that was left alone because the sort was
+     * cancelled.
+     *
+     * @param file the file
+     */
+    public void skipped(File file) {
+        skipped.increment();
+        LOGGER.log(Level.FINE, "Cancelled before sorting " + file);
+    }
+
+    /**
+     * @return how many files were found but left alone
+     */
+    public long getSkipped() {
+        return skipped.sum();
+    }
+}
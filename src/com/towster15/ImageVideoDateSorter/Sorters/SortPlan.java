@@ -0,0 +1,156 @@
+package com.towster15.ImageVideoDateSorter.Sorters;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Where every file in a sort will go, written down by a sort that's
+ * only planning so it can be checked over, then replayed later to
+ * move the files without scanning or reading any dates again.
+ * <p>
+ * The plan is a text file with a line for each file: M or C, for a
+ * move or a copy, then the file and where it's going, separated by
+ * tabs. Tabs, line breaks and backslashes within paths are escaped
+ * with a backslash. Destination names have already been numbered
+ * where they would have clashed.
+ */
+public class SortPlan implements AutoCloseable {
+    private static final String HEADER = "# ImageVideoDateSorter plan 1";
+
+    // Held while writing, which can block on the disk
+    private final ReentrantLock lock = new ReentrantLock();
+    private final BufferedWriter writer;
+    private long size = 0;
+
+    /**
+     * Starts writing a new plan, replacing any that's already there.
+     *
+     * @param planFile where to write the plan
+     */
+    public SortPlan(Path planFile) throws IOException {
+        writer = Files.newBufferedWriter(planFile, StandardCharsets.UTF_8);
+        writer.write(HEADER);
+        writer.write('\n');
+    }
+
+    /**
+     * Adds a file to the plan.
+     *
+     * @param source the file
+     * @param target where it's going
+     * @param copy   true if it'll be copied rather than moved
+     */
+    public void add(Path source, Path target, boolean copy) throws IOException {
+        String line = (copy ? "C\t" : "M\t") + escape(source.toAbsolutePath().toString())
+                + '\t' + escape(target.toAbsolutePath().toString()) + '\n';
+        lock.lock();
+        try {
+            writer.write(line);
+            size++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return how many files have been added to the plan
+     */
+    public long size() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            writer.close();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reads a plan back, handing each file in it to the transferers.
+     *
+     * @param planFile the plan
+     * @param queue    the transfer queue
+     * @return how many files were in the plan
+     */
+    public static long replay(Path planFile, BlockingQueue<SortTask> queue)
+            throws IOException, InterruptedException {
+        long count = 0;
+        try (BufferedReader reader = Files.newBufferedReader(planFile, StandardCharsets.UTF_8)) {
+            if (!HEADER.equals(reader.readLine())) {
+                throw new IOException(planFile + " isn't a sort plan");
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                List<String> fields = split(line);
+                if (fields.size() != 3 || fields.get(0).length() != 1) {
+                    throw new IOException("Line " + (count + 2) + " of " + planFile
+                            + " isn't a file to sort");
+                }
+                queue.put(SortTask.planned(new File(fields.get(1)), Path.of(fields.get(2)),
+                        fields.get(0).charAt(0) == 'C'));
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static String escape(String path) {
+        StringBuilder escaped = new StringBuilder(path.length());
+        for (int i = 0; i < path.length(); i++) {
+            char c = path.charAt(i);
+            switch (c) {
+                case '\\' -> escaped.append("\\\\");
+                case '\t' -> escaped.append("\\t");
+                case '\n' -> escaped.append("\\n");
+                case '\r' -> escaped.append("\\r");
+                default -> escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+
+    /**
+     * Splits a line at its tabs, undoing the escaping.
+     */
+    private static List<String> split(String line) {
+        List<String> fields = new ArrayList<>(3);
+        StringBuilder field = new StringBuilder();
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '\t') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else if (c == '\\' && i + 1 < line.length()) {
+                char escaped = line.charAt(++i);
+                field.append(switch (escaped) {
+                    case 't' -> '\t';
+                    case 'n' -> '\n';
+                    case 'r' -> '\r';
+                    default -> escaped;
+                });
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+}
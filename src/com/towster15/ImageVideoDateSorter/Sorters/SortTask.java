@@ -0,0 +1,70 @@
+package com.towster15.ImageVideoDateSorter.Sorters;
+
+import com.towster15.ImageVideoDateSorter.Metadata.FileProbe;
+import com.towster15.ImageVideoDateSorter.Metadata.PackedDate;
+
+import java.io.File;
+import java.nio.file.Path;
+
+/**
+ * A file that has been given somewhere to go, waiting to be moved or
+ * copied there.
+ *
+ * @param file    the file to move
+ * @param date    the date to sort it by, packed as a
+ *                {@link PackedDate}, or {@link PackedDate#NONE} if it's
+ *                going to a named folder instead
+ * @param folder  the folder within the destination to move it to,
+ *                used when there's no date
+ * @param target  the exact path to move it to, when replaying a
+ *                {@link SortPlan}, otherwise null
+ * @param copy    true to copy rather than move it, only used along
+ *                with a target
+ * @param summary what was learnt about the file while it was being
+ *                dated, so it doesn't have to be opened again to look
+ *                for duplicates, or null
+ */
+public record SortTask(File file, int date, String folder, Path target, boolean copy,
+                       FileProbe.Summary summary) {
+    /**
+     * Marker put on the transfer queue once every file has been
+     * dated. Compare by reference, never with equals.
+     */
+    public static final SortTask END = new SortTask(null, PackedDate.NONE, null, null,
+            false, null);
+
+    public static SortTask dated(File file, int date) {
+        return dated(file, date, null);
+    }
+
+    public static SortTask dated(File file, int date, FileProbe.Summary summary) {
+        return new SortTask(file, date, null, null, false, summary);
+    }
+
+    public static SortTask toFolder(File file, String folder) {
+        return toFolder(file, folder, null);
+    }
+
+    public static SortTask toFolder(File file, String folder, FileProbe.Summary summary) {
+        return new SortTask(file, PackedDate.NONE, folder, null, false, summary);
+    }
+
+    public static SortTask planned(File file, Path target, boolean copy) {
+        return new SortTask(file, PackedDate.NONE, null, target, copy, null);
+    }
+
+    /**
+     * Works out whether the file will be copied. Dated files are
+     * copied when the sort copies, files going to a named folder are
+     * always moved, and planned files do what the plan says.
+     *
+     * @param copyInsteadOfMove boolean to copy rather than move
+     * @return true if the file will be copied
+     */
+    public boolean isCopy(boolean copyInsteadOfMove) {
+        if (target != null) {
+            return copy;
+        }
+        return date != PackedDate.NONE && copyInsteadOfMove;
+    }
+}
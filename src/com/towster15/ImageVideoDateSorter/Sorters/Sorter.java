@@ -1,5 +1,9 @@
 package com.towster15.ImageVideoDateSorter.Sorters;
 
+import com.towster15.ImageVideoDateSorter.Metadata.PackedDate;
+import com.towster15.ImageVideoDateSorter.Metrics.SortMetrics;
+import com.towster15.ImageVideoDateSorter.Scanners.DirectoryScanner;
+
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.FileAlreadyExistsException;
@@ -7,288 +11,167 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.attribute.BasicFileAttributes;
-import java.util.HashMap;
+import java.util.concurrent.BlockingQueue;
 
 public class Sorter extends Thread {
+    private static final long MILLIS_PER_DAY = 86_400_000L;
+
     protected final File destinationDir;
-    private final HashMap<String, String> monthMap = new HashMap<>();
     protected final boolean daySort;
     protected final boolean copyInsteadOfMove;
+    protected final FileCopier copier;
+    protected final SortCancellation cancellation;
+    protected final SortMetrics metrics;
 
     /**
      * @param destinationDir destination directory File
      * @param daySort        boolean to enable or disable sorting by days
+     * @param cancellation   tells the sorter to stop early
+     * @param metrics        where to record how the sort is going
      */
-    public Sorter(File destinationDir, boolean daySort, boolean copyInsteadOfMove) {
-        monthMap.put("01", "01 January");
-        monthMap.put("02", "02 February");
-        monthMap.put("03", "03 March");
-        monthMap.put("04", "04 April");
-        monthMap.put("05", "05 May");
-        monthMap.put("06", "06 June");
-        monthMap.put("07", "07 July");
-        monthMap.put("08", "08 August");
-        monthMap.put("09", "09 September");
-        monthMap.put("10", "10 October");
-        monthMap.put("11", "11 November");
-        monthMap.put("12", "12 December");
+    public Sorter(File destinationDir, boolean daySort, boolean copyInsteadOfMove,
+                  SortCancellation cancellation, SortMetrics metrics) {
+        this(destinationDir, daySort, copyInsteadOfMove, FileCopier.FILES, cancellation,
+                metrics);
+    }
 
+    /**
+     * @param destinationDir    destination directory File
+     * @param daySort           boolean to enable or disable sorting by days
+     * @param copyInsteadOfMove boolean to copy rather than move dated
+     *                          files
+     * @param copier            how files are copied
+     * @param cancellation      tells the sorter to stop early
+     * @param metrics           where to record how the sort is going
+     */
+    public Sorter(File destinationDir, boolean daySort, boolean copyInsteadOfMove,
+                  FileCopier copier, SortCancellation cancellation, SortMetrics metrics) {
         this.destinationDir = destinationDir;
         this.daySort = daySort;
         this.copyInsteadOfMove = copyInsteadOfMove;
+        this.copier = copier;
+        this.cancellation = cancellation;
+        this.metrics = metrics;
     }
 
     /**
-     * Get the date that the file was created on the/a computer.
+     * Takes the next file from the queue, waiting for the scanner if
+     * it hasn't found one yet.
+     * <p>
+     * Several sorters can share a queue, so the end marker is put
+     * back for the others to see.
      *
-     * @param file the date the file was created
-     * @return a string of the creation date in the format YYYY-MM-DD
+     * @param queue the queue the scanner is filling
+     * @return the next file, or null once the scan has finished
      */
-    protected static String getDate(File file) throws IOException {
-        return Files.readAttributes(
-                Paths.get(file.getAbsolutePath()),
-                BasicFileAttributes.class
-        ).creationTime().toString().substring(0, 10);
+    protected static File takeNext(BlockingQueue<File> queue) throws InterruptedException {
+        return takeNext(queue, DirectoryScanner.END_OF_SCAN);
     }
 
     /**
-     * Checks whether the folder corresponding to the given date
-     * exists.
+     * Takes the next item from a queue that is ended with the given
+     * marker, putting the marker back for any other sorters.
      *
-     * @param date the date the image was taken/created
-     * @return true if the folder exists, otherwise returns false.
+     * @param queue     the queue to take from
+     * @param endMarker the marker that ends the queue
+     * @return the next item, or null once the marker is reached
      */
-    protected boolean checkDateFolderExists(String date) {
-        String year = date.substring(0, 4);
-        String month = monthMap.get(date.substring(5, 7));
-        String day = date.substring(8, 10);
-
-        File file;
-        if (daySort) {
-            file = new File(
-                    destinationDir + "/" + year + "/" + month + "/" + day
-            );
-        } else {
-            file = new File(destinationDir + "/" + year + "/" + month);
+    protected static <T> T takeNext(BlockingQueue<T> queue, T endMarker)
+            throws InterruptedException {
+        T item = queue.take();
+        if (item == endMarker) {
+            queue.put(item);
+            return null;
         }
-        return file.exists() && file.isDirectory();
+        return item;
     }
 
     /**
-     * Creates the necessary folders to copy an image to the correct
-     * sorted location.
+     * Takes the next file to sort from the queue. Once the sort's been
+     * cancelled, everything else on the queue is taken and left where
+     * it is instead, so the scanner isn't left waiting for space and
+     * the sorter still stops at the end of the scan.
      *
-     * @param date the date the image was taken/created
-     * @return true if the folder creation was a success,
-     * otherwise returns false.
+     * @param queue the queue the scanner is filling
+     * @return the next file, or null once the scan has finished
      */
-    protected boolean makeDateFolder(String date) {
-        String year = date.substring(0, 4);
-        String month = monthMap.get(date.substring(5, 7));
-        String day = date.substring(8, 10);
-
+    protected File nextFile(BlockingQueue<File> queue) throws InterruptedException {
         File file;
-        if (daySort) {
-            file = new File(
-                    destinationDir + "/" + year + "/" + month + "/" + day
-            );
-        } else {
-            file = new File(destinationDir + "/" + year + "/" + month);
+        while ((file = takeNext(queue)) != null && cancellation.isCancelled()) {
+            cancellation.skipped(file);
         }
-        return file.mkdirs();
+        return file;
     }
 
-    protected void sortDatedFile(Path filePath, String date) throws IOException {
-        if (copyInsteadOfMove) {
-            copyDatedFile(filePath, date);
-        } else {
-            moveDatedFile(filePath, date);
-        }
+    /**
+     * Get the date that the file was created on the/a computer.
+     *
+     * @param file the date the file was created
+     * @return the creation date, packed as a {@link PackedDate}
+     */
+    protected static int getDate(File file) throws IOException {
+        return getDate(Files.readAttributes(
+                Paths.get(file.getAbsolutePath()),
+                BasicFileAttributes.class
+        ));
     }
 
     /**
-     * Moves the provided file to the corresponding date folder.
+     * Get the creation date from a file's attributes that have
+     * already been read, as the date in UTC.
      *
-     * @param filePath the path of the image to be moved
-     * @param date     the date the image was taken/created
+     * @param attrs the file's attributes
+     * @return the creation date, packed as a {@link PackedDate}
      */
-    protected void moveDatedFile(Path filePath, String date) throws IOException {
-        String year = date.substring(0, 4);
-        String month = monthMap.get(date.substring(5, 7));
-        String day = date.substring(8, 10);
-
-        try {
-            if (daySort) {
-                Files.move(
-                        filePath,
-                        Path.of(
-                                destinationDir.getAbsolutePath(), year, month, day,
-                                filePath.getFileName().toString()
-                        )
-                );
-            } else {
-                Files.move(
-                        filePath,
-                        Path.of(
-                                destinationDir.getAbsolutePath(), year, month,
-                                filePath.getFileName().toString()
-                        )
-                );
-            }
-        } catch (FileAlreadyExistsException e) {
-            boolean successful_move = false;
-            int duplicate_num = 1;
-
-            int i = filePath.toString().lastIndexOf('.');
-            String extension = filePath.toString().substring(i);
-            int b = filePath.getFileName().toString().length();
-
-            while (!successful_move) {
-                try {
-                    successful_move = true;
-                    if (daySort) {
-                        Files.move(
-                                filePath,
-                                Path.of(
-                                        destinationDir.getAbsolutePath(),
-                                        year, month, day,
-                                        filePath.getFileName().toString().substring(
-                                                0, b - extension.length()
-                                        ) + String.format("(%d)%s", duplicate_num, extension)
-                                )
-                        );
-                    } else {
-                        Files.move(
-                                filePath,
-                                Path.of(
-                                        destinationDir.getAbsolutePath(),
-                                        year, month,
-                                        filePath.getFileName().toString().substring(
-                                                0, b - extension.length()
-                                        ) + String.format("(%d)%s", duplicate_num, extension)
-                                )
-                        );
-                    }
-                } catch (FileAlreadyExistsException ex) {
-                    successful_move = false;
-                    duplicate_num++;
-                }
-            }
-        }
+    protected static int getDate(BasicFileAttributes attrs) {
+        return PackedDate.fromEpochDay(Math.floorDiv(attrs.creationTime().toMillis(),
+                MILLIS_PER_DAY));
     }
 
     /**
-     * Moves the provided file to the corresponding date folder.
+     * Moves or copies a file under a name the folder has reserved for
+     * it. If something outside the sort has taken the name in the
+     * meantime, the next free one is tried instead.
      *
-     * @param filePath the path of the image to be moved
-     * @param date     the date the image was taken/created
+     * @param filePath the path of the image
+     * @param folder   the folder to put it in
+     * @param fileName the name it should have, numbered if it's taken
+     * @param copy     true to copy the file rather than move it
+     * @return where the file was put
      */
-    protected void copyDatedFile(Path filePath, String date) throws IOException {
-        String year = date.substring(0, 4);
-        String month = monthMap.get(date.substring(5, 7));
-        String day = date.substring(8, 10);
-
-        try {
-            if (daySort) {
-                Files.copy(
-                        filePath,
-                        Path.of(
-                                destinationDir.getAbsolutePath(), year, month, day,
-                                filePath.getFileName().toString()
-                        )
-                );
-            } else {
-                Files.copy(
-                        filePath,
-                        Path.of(
-                                destinationDir.getAbsolutePath(), year, month,
-                                filePath.getFileName().toString()
-                        )
-                );
+    protected Path placeInFolder(Path filePath, DestinationFolder folder, String fileName,
+                                 boolean copy) throws IOException {
+        while (true) {
+            String name = folder.reserve(fileName);
+            if (!name.equals(fileName)) {
+                metrics.nameNumbered();
             }
-        } catch (FileAlreadyExistsException e) {
-            boolean successful_move = false;
-            int duplicate_num = 1;
-
-            int i = filePath.toString().lastIndexOf('.');
-            String extension = filePath.toString().substring(i);
-            int b = filePath.getFileName().toString().length();
-
-            while (!successful_move) {
-                try {
-                    successful_move = true;
-                    if (daySort) {
-                        Files.copy(
-                                filePath,
-                                Path.of(
-                                        destinationDir.getAbsolutePath(),
-                                        year, month, day,
-                                        filePath.getFileName().toString().substring(
-                                                0, b - extension.length()
-                                        ) + String.format("(%d)%s", duplicate_num, extension)
-                                )
-                        );
-                    } else {
-                        Files.copy(
-                                filePath,
-                                Path.of(
-                                        destinationDir.getAbsolutePath(),
-                                        year, month,
-                                        filePath.getFileName().toString().substring(
-                                                0, b - extension.length()
-                                        ) + String.format("(%d)%s", duplicate_num, extension)
-                                )
-                        );
-                    }
-                } catch (FileAlreadyExistsException ex) {
-                    successful_move = false;
-                    duplicate_num++;
-                }
+            Path target = folder.path().resolve(name);
+            try {
+                transferFile(filePath, target, copy);
+                return target;
+            } catch (FileAlreadyExistsException e) {
+                // Stays reserved, as it really is taken
+                metrics.collisionRetry();
+            } catch (IOException ioEx) {
+                folder.release(name);
+                throw ioEx;
             }
         }
     }
 
     /**
-     * Moves the provided file to the provided folder.
+     * Moves or copies a file to a path that's free.
      *
-     * @param filePath   the path of the image to be moved
-     * @param folderName the date the image was taken/created
+     * @param source the file
+     * @param target where to put it
+     * @param copy   true to copy the file rather than move it
      */
-    protected void moveToFolder(Path filePath, String folderName) throws IOException {
-        try {
-            Files.move(
-                    filePath,
-                    Path.of(
-                            destinationDir.getAbsolutePath(), folderName,
-                            filePath.getFileName().toString()
-                    )
-            );
-        } catch (FileAlreadyExistsException e) {
-            boolean successful_move = false;
-            int duplicate_num = 1;
-
-            int i = filePath.toString().lastIndexOf('.');
-            String extension = filePath.toString().substring(i);
-            int b = filePath.getFileName().toString().length();
-
-            while (!successful_move) {
-                try {
-                    successful_move = true;
-                    Files.move(
-                            filePath,
-                            Path.of(
-                                    destinationDir.getAbsolutePath(),
-                                    folderName,
-                                    filePath.getFileName().toString().substring(
-                                            0, b - extension.length()
-                                    ) + String.format("(%d)%s", duplicate_num, extension)
-                            )
-                    );
-                } catch (FileAlreadyExistsException ex) {
-                    successful_move = false;
-                    duplicate_num++;
-                }
-            }
+    protected void transferFile(Path source, Path target, boolean copy) throws IOException {
+        if (copy) {
+            copier.copy(source, target);
+        } else {
+            Files.move(source, target);
         }
     }
 }
@@ -0,0 +1,442 @@
+package com.towster15.ImageVideoDateSorter.Sorters;
+
+import com.towster15.ImageVideoDateSorter.Metadata.CountingInputStream;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Records every file the transferers have finished with, so a sort
+ * that was stopped part way through, by a crash or by cancelling it,
+ * can carry on from where it got to rather than starting again.
+ * <p>
+ * Copies are recorded as started before anything is written, and
+ * every transfer is recorded as finished once the file is in place.
+ * Records are handed to the operating system straight away, so they
+ * survive the program dying, and forced to disk in batches. Copies
+ * are written under a temporary name and only renamed into place once
+ * they're whole, so carrying on only means deleting the temporary
+ * files of the copies that were started but never finished.
+ * <p>
+ * A journal belongs to one source and destination, and is deleted
+ * once a sort has finished. Each pair of folders has a journal file of
+ * its own, so sorting between other folders doesn't throw it away, and
+ * it's locked while it's open, so two sorts between the same folders
+ * can't write over each other's records.
+ */
+public class TransferJournal {
+    private static final int MAGIC = 0x4956534A;
+    private static final byte VERSION = 1;
+    private static final byte STARTED = 1;
+    private static final byte FINISHED = 2;
+    private static final int SYNC_EVERY = 256;
+    private static final long SYNC_INTERVAL_NANOS = 1_000_000_000L;
+    private static final long TIME_ROUNDING_MILLIS = 2_000L;
+
+    private final Logger LOGGER;
+    private final Path journalFile;
+    private final Set<String> finished = ConcurrentHashMap.newKeySet();
+    // Where the last sort put each file, by the file's name
+    private final Map<String, Path> sortedFolders = new HashMap<>();
+    // Held while a record is written, and while it's forced to disk
+    private final ReentrantLock lock = new ReentrantLock();
+    private FileChannel channel;
+    private DataOutputStream output;
+    private int unsynced = 0;
+    private long lastSync = System.nanoTime();
+
+    private record Started(Path target, boolean copy) {
+    }
+
+    private TransferJournal(Logger log, Path journalFile) {
+        LOGGER = log;
+        this.journalFile = journalFile;
+    }
+
+    /**
+     * Works out which file the journal for a pair of folders is kept
+     * in, named after a hash of the two of them.
+     *
+     * @param journalFolder the folder journals are kept in
+     * @param source        the source folder, or the plan being
+     *                      replayed
+     * @param destination   the destination folder
+     * @return the journal file
+     */
+    public static Path fileFor(Path journalFolder, String source, String destination) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            // Every Java platform has to provide SHA-256
+            throw new IllegalStateException(ex);
+        }
+        digest.update(source.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(destination.getBytes(StandardCharsets.UTF_8));
+        return journalFolder.resolve("journal-"
+                + HexFormat.of().formatHex(digest.digest(), 0, 8) + ".bin");
+    }
+
+    /**
+     * Opens the journal, carrying on from the last sort if it was
+     * between the same folders and didn't finish.
+     *
+     * @param log         the logger to report events to
+     * @param journalFile where the journal is kept
+     * @param source      the source folder, or the plan being replayed
+     * @param destination the destination folder
+     * @return the journal, or null if another sort has it open
+     */
+    public static TransferJournal open(Logger log, Path journalFile, String source,
+                                       String destination) throws IOException {
+        TransferJournal journal = new TransferJournal(log, journalFile);
+        if (!journal.lock()) {
+            return null;
+        }
+        try {
+            Map<String, Started> unfinished = new HashMap<>();
+            long validLength = journal.load(source, destination, unfinished);
+            journal.openForAppend(validLength, source, destination);
+            if (!journal.finished.isEmpty() || !unfinished.isEmpty()) {
+                journal.repair(unfinished);
+            }
+        } catch (IOException ioEx) {
+            journal.channel.close();
+            throw ioEx;
+        }
+        return journal;
+    }
+
+    /**
+     * Gets the temporary name a copy is written under until it's
+     * whole.
+     *
+     * @param target where the copy is going
+     * @return the temporary path, in the same folder
+     */
+    public static Path partialPath(Path target) {
+        return target.resolveSibling("." + target.getFileName() + ".part");
+    }
+
+    /**
+     * @param file a file from the source folder
+     * @return true if the file was sorted before the last sort stopped
+     */
+    public boolean isDone(File file) {
+        return !finished.isEmpty() && finished.contains(file.getAbsolutePath());
+    }
+
+    /**
+     * Gets the folders the files sorted before the last sort stopped
+     * went to. When moving, those files aren't in the source any more,
+     * so this is all there is to match up the files that go with them,
+     * like AAEs, which are only sorted once every image has been.
+     *
+     * @return the folder each file went to, keyed by the file's name,
+     * leaving out duplicates that were left where they were
+     */
+    public Map<String, Path> getSortedFolders() {
+        return Collections.unmodifiableMap(sortedFolders);
+    }
+
+    /**
+     * Records that a file is about to be copied.
+     *
+     * @param source the file
+     * @param target where it's going
+     * @param copy   true if the original's staying, false if it's
+     *               being deleted once copied
+     */
+    public void started(Path source, Path target, boolean copy) {
+        lock.lock();
+        try {
+            if (output == null) {
+                return;
+            }
+            output.writeByte(STARTED);
+            output.writeUTF(source.toAbsolutePath().toString());
+            output.writeUTF(target.toAbsolutePath().toString());
+            output.writeBoolean(copy);
+            written();
+        } catch (IOException ioEx) {
+            failed(ioEx);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Records that a file is in place.
+     *
+     * @param source the file
+     * @param target where it went
+     * @param size   the file's size
+     */
+    public void finished(Path source, Path target, long size) {
+        lock.lock();
+        try {
+            if (output == null) {
+                return;
+            }
+            writeFinished(source.toAbsolutePath().toString(), target.toAbsolutePath().toString(),
+                    size);
+            written();
+        } catch (IOException ioEx) {
+            failed(ioEx);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Records that a file was left where it was, as a duplicate, so
+     * carrying on doesn't compare it all over again. It's written as
+     * a transfer to where it already is, which older journals can
+     * read too.
+     *
+     * @param source the file
+     * @param size   the file's size
+     */
+    public void skipped(Path source, long size) {
+        finished(source, source, size);
+    }
+
+    /**
+     * Closes the journal.
+     *
+     * @param sortFinished true if every file has been dealt with, so
+     *                     the journal isn't needed any more
+     */
+    public void close(boolean sortFinished) {
+        lock.lock();
+        try {
+            if (output == null) {
+                return;
+            }
+            output.flush();
+            if (!sortFinished) {
+                channel.force(false);
+            }
+            output.close();
+            if (sortFinished) {
+                Files.deleteIfExists(journalFile);
+            }
+        } catch (IOException ioEx) {
+            LOGGER.log(Level.WARNING, "Failed to close the transfer journal", ioEx);
+        } finally {
+            output = null;
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Opens and locks the journal file, which is held until the
+     * journal is closed.
+     *
+     * @return true if it's locked, false if another sort has it
+     */
+    private boolean lock() throws IOException {
+        Path parent = journalFile.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        channel = FileChannel.open(journalFile, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        FileLock fileLock;
+        try {
+            fileLock = channel.tryLock();
+        } catch (OverlappingFileLockException lockedHere) {
+            // Another sort in this program has it
+            fileLock = null;
+        }
+        if (fileLock == null) {
+            channel.close();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Reads what the last sort got through, if it was between the
+     * same folders. It's read through the locked channel, as on some
+     * systems nothing else can read a locked file.
+     *
+     * @return how much of the journal can be kept, or 0 to start again
+     */
+    private long load(String source, String destination, Map<String, Started> unfinished) {
+        // Not closed, as that would close the channel and let go of
+        // the lock
+        CountingInputStream counter = new CountingInputStream(new BufferedInputStream(
+                Channels.newInputStream(channel)));
+        DataInputStream in = new DataInputStream(counter);
+        try {
+            if (in.readInt() != MAGIC || in.readByte() != VERSION
+                    || !in.readUTF().equals(source) || !in.readUTF().equals(destination)) {
+                LOGGER.log(Level.INFO, "Transfer journal is from another sort, starting again");
+                return 0;
+            }
+            long validLength = counter.getCount();
+            try {
+                while (true) {
+                    byte type = in.readByte();
+                    String sourceFile = in.readUTF();
+                    String target = in.readUTF();
+                    if (type == STARTED) {
+                        unfinished.put(sourceFile, new Started(Path.of(target), in.readBoolean()));
+                    } else if (type == FINISHED) {
+                        in.readLong();
+                        unfinished.remove(sourceFile);
+                        placed(sourceFile, target);
+                    } else {
+                        LOGGER.log(Level.WARNING, "Transfer journal is damaged, "
+                                + "ignoring the rest of it");
+                        break;
+                    }
+                    validLength = counter.getCount();
+                }
+            } catch (EOFException endOfJournal) {
+                // The last record may have been cut off part way
+            }
+            return validLength;
+        } catch (EOFException noJournal) {
+            return 0;
+        } catch (IOException ioEx) {
+            LOGGER.log(Level.WARNING, "Failed to read the transfer journal", ioEx);
+            return 0;
+        }
+    }
+
+    /**
+     * Starts adding to the journal, after the last record that could
+     * be read, starting it again if there was nothing worth keeping.
+     */
+    private void openForAppend(long validLength, String source, String destination)
+            throws IOException {
+        channel.truncate(validLength);
+        channel.position(validLength);
+        output = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+        if (validLength == 0) {
+            finished.clear();
+            sortedFolders.clear();
+            output.writeInt(MAGIC);
+            output.writeByte(VERSION);
+            output.writeUTF(source);
+            output.writeUTF(destination);
+            written();
+        }
+    }
+
+    /**
+     * Tidies up after the copies the last sort didn't finish. A copy
+     * still under its temporary name is deleted so it can be done
+     * again. One that made it into place but wasn't recorded is kept,
+     * as long as it still matches the original.
+     */
+    private void repair(Map<String, Started> unfinished) throws IOException {
+        int cleanedUp = 0;
+        for (Map.Entry<String, Started> entry : unfinished.entrySet()) {
+            Path source = Path.of(entry.getKey());
+            Path target = entry.getValue().target();
+            if (Files.deleteIfExists(partialPath(target))) {
+                cleanedUp++;
+            } else if (matches(source, target)) {
+                if (!entry.getValue().copy()) {
+                    Files.deleteIfExists(source);
+                }
+                placed(entry.getKey(), target.toString());
+                writeFinished(entry.getKey(), target.toString(), Files.size(target));
+            }
+        }
+        written();
+        LOGGER.log(Level.INFO, "Carrying on from the last sort, files already sorted: "
+                + finished.size() + ", unfinished copies removed: " + cleanedUp);
+    }
+
+    /**
+     * Checks a copy against its original by size and last modified
+     * time. The times are only compared to within a couple of seconds,
+     * as copying them can round them, to the microsecond on Linux and
+     * to two seconds on FAT drives.
+     */
+    private static boolean matches(Path source, Path target) {
+        try {
+            BasicFileAttributes sourceAttrs = Files.readAttributes(source,
+                    BasicFileAttributes.class);
+            BasicFileAttributes targetAttrs = Files.readAttributes(target,
+                    BasicFileAttributes.class);
+            long apart = sourceAttrs.lastModifiedTime().toMillis()
+                    - targetAttrs.lastModifiedTime().toMillis();
+            return sourceAttrs.size() == targetAttrs.size()
+                    && Math.abs(apart) <= TIME_ROUNDING_MILLIS;
+        } catch (IOException ioEx) {
+            return false;
+        }
+    }
+
+    private void placed(String source, String target) {
+        finished.add(source);
+        if (!source.equals(target)) {
+            sortedFolders.put(Path.of(source).getFileName().toString(),
+                    Path.of(target).getParent());
+        }
+    }
+
+    private void writeFinished(String source, String target, long size) throws IOException {
+        output.writeByte(FINISHED);
+        output.writeUTF(source);
+        output.writeUTF(target);
+        output.writeLong(size);
+    }
+
+    /**
+     * Hands what's been written to the operating system, and forces it
+     * to disk every so often.
+     */
+    private void written() throws IOException {
+        output.flush();
+        unsynced++;
+        long now = System.nanoTime();
+        if (unsynced >= SYNC_EVERY || now - lastSync >= SYNC_INTERVAL_NANOS) {
+            channel.force(false);
+            unsynced = 0;
+            lastSync = now;
+        }
+    }
+
+    private void failed(IOException ioEx) {
+        LOGGER.log(Level.WARNING, "Failed to write to the transfer journal, "
+                + "the sort won't be able to carry on from here if it's stopped", ioEx);
+        try {
+            output.close();
+        } catch (IOException ignored) {
+            // Already given up on it
+        }
+        output = null;
+    }
+}
@@ -1,36 +1,65 @@
 package com.towster15.ImageVideoDateSorter.Sorters;
 
+import com.towster15.ImageVideoDateSorter.Metadata.FileProbe;
+import com.towster15.ImageVideoDateSorter.Metadata.JpegExifReader;
+import com.towster15.ImageVideoDateSorter.Metadata.PackedDate;
+import com.towster15.ImageVideoDateSorter.Metadata.ResolvedDate;
+import com.towster15.ImageVideoDateSorter.Metadata.VideoDateReader;
+import com.towster15.ImageVideoDateSorter.Metrics.SortMetrics;
+import com.towster15.ImageVideoDateSorter.Scanners.FileClassifier;
+import com.towster15.ImageVideoDateSorter.Scanners.FileType;
+
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
-import java.util.List;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.BlockingQueue;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 public class VideoSorter extends Sorter {
     private final Logger LOGGER;
-    private final List<File> videos;
+    private final BlockingQueue<File> videos;
+    private final BlockingQueue<SortTask> transfers;
     private final boolean sortVideos;
+    private final IoLimiter limiter;
+    private final VideoDateReader dateReader = new VideoDateReader();
+    private final JpegExifReader exifReader = new JpegExifReader();
+    // What was learnt about the last video while it was being dated
+    private FileProbe.Summary summary;
 
     /**
      * @param log            the logger to report events to
-     * @param videoList      list of videos to sort
+     * @param videoQueue     queue of videos to sort, shared with any
+     *                       other video sorters
+     * @param transferQueue  queue to put dated videos onto
      * @param destinationDir destination directory file
      * @param daySort        boolean to enable or disable sorting by days
      * @param sortVideos     boolean to enable or disable sorting videos
      *                       by date
+     * @param limiter        limits how many videos on each drive are
+     *                       read at once, or null to not limit them
+     * @param cancellation   tells the sorter to stop early
+     * @param metrics        where to record how the sort is going
      */
     public VideoSorter(
             Logger log,
-            List<File> videoList,
+            BlockingQueue<File> videoQueue,
+            BlockingQueue<SortTask> transferQueue,
             File destinationDir,
             boolean daySort,
             boolean sortVideos,
-            boolean copyInsteadOfMove) {
-        super(destinationDir, daySort, copyInsteadOfMove);
+            boolean copyInsteadOfMove,
+            IoLimiter limiter,
+            SortCancellation cancellation,
+            SortMetrics metrics) {
+        super(destinationDir, daySort, copyInsteadOfMove, cancellation, metrics);
         LOGGER = log;
-        videos = videoList;
+        videos = videoQueue;
+        transfers = transferQueue;
         this.sortVideos = sortVideos;
+        this.limiter = limiter;
     }
 
     /**
@@ -38,46 +67,93 @@ public class VideoSorter extends Sorter {
      * called.
      */
     public void run() {
-        sortVideos();
+        try {
+            sortVideos();
+        } catch (InterruptedException intEx) {
+            LOGGER.log(Level.WARNING, "Video sorter interrupted");
+        }
     }
 
     /**
-     * Sorts all the videos in the source directory into either dated
-     * folders or a dedicated videos folder, within the destination
-     * directory.
+     * Hands the videos from the queue on to be moved into either
+     * dated folders or a dedicated videos folder, within the
+     * destination directory.
      */
-    public void sortVideos() {
-        if (!sortVideos) {
-            File file = new File(destinationDir + "/Videos");
-            if (!(file.mkdirs() || Files.exists(file.toPath()))) {
-                LOGGER.log(Level.WARNING, "Failed to make Videos folder, not sorting images");
-                return;
-            }
-        }
-        for (File video : videos) {
-            String date;
+    public void sortVideos() throws InterruptedException {
+        File video;
+        while ((video = nextFile(videos)) != null) {
+            IoLimiter.Permit permit = limiter == null ? null : limiter.acquire(video);
+            SortTask task;
             try {
-                date = getDate(video);
-            } catch (IOException IOex) {
-                LOGGER.log(Level.WARNING, "IOException reading file creation date", IOex);
-                continue;
-            }
-            if (sortVideos && !checkDateFolderExists(date)) {
-                if (!makeDateFolder(date)) {
-                    LOGGER.log(Level.WARNING, "Failed to make date folder", date);
-                    continue;
+                task = date(video);
+            } finally {
+                if (permit != null) {
+                    permit.close();
                 }
             }
-            try {
-                if (sortVideos) {
-                    sortDatedFile(video.toPath(), date);
-                } else {
-                    moveToFolder(video.toPath(), "Videos");
-                }
-            } catch (IOException ioEx) {
-                LOGGER.log(Level.WARNING, "Failed to make date folder, IOException", date);
-                LOGGER.log(Level.WARNING, "ex: ", ioEx.getMessage());
+            if (task != null) {
+                transfers.put(task);
+            }
+        }
+    }
+
+    /**
+     * Dates a single video, if videos are being sorted by date, and
+     * works out where it's going without handing it on. An instance
+     * can only date one video at a time.
+     *
+     * @param video the video
+     * @return the video's task, or null if it can't be sorted
+     */
+    public SortTask date(File video) {
+        if (!sortVideos) {
+            return SortTask.toFolder(video, "Videos");
+        }
+        try {
+            long startTime = System.nanoTime();
+            summary = null;
+            int date = readDate(video);
+            metrics.fileDated(System.nanoTime() - startTime);
+            return SortTask.dated(video, date, summary);
+        } catch (IOException IOex) {
+            LOGGER.log(Level.WARNING, "IOException reading file creation date", IOex);
+            metrics.fileFailed();
+            return null;
+        } catch (RuntimeException ex) {
+            // A reader tripped over something it didn't expect, which
+            // shouldn't stop the rest of the sort
+            LOGGER.log(Level.WARNING, "Couldn't read the date of " + video.getName(), ex);
+            metrics.fileFailed();
+            return null;
+        }
+    }
+
+    /**
+     * Gets the date a video was recorded from its container, falling
+     * back on the date the OS says it was created. That's only the
+     * date it was copied, if it's been copied between drives, so it's
+     * a last resort. The video is only opened once, as a
+     * {@link FileProbe}, and a JPEG named as a video is dated from its
+     * EXIF header instead.
+     *
+     * @param video the video
+     * @return the date, packed as a {@link PackedDate}
+     */
+    private int readDate(File video) throws IOException {
+        Path path = video.toPath();
+        BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+        try (FileProbe probe = FileProbe.open(path, attrs)) {
+            ResolvedDate date = FileClassifier.sniff(probe) == FileType.IMAGE
+                    ? exifReader.readDate(probe)
+                    : dateReader.readDate(probe);
+            summary = probe.summary();
+            if (date != null && date.hasDate()) {
+                return date.date();
             }
+        } catch (IOException ioEx) {
+            LOGGER.log(Level.FINE, "Couldn't read the date from " + video.getName()
+                    + "'s container", ioEx);
         }
+        return getDate(attrs);
     }
-}
\ No newline at end of file
+}
@@ -1,40 +1,162 @@
 package com.towster15.ImageVideoDateSorter.Sorters;
 
+import com.towster15.ImageVideoDateSorter.Metadata.PackedDate;
+import com.towster15.ImageVideoDateSorter.Metrics.SortMetrics;
+
 import java.io.File;
-import java.io.IOException;
-import java.nio.file.FileAlreadyExistsException;
-import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 public class aaeSorter extends Sorter {
     private final Logger LOGGER;
-    private final File destinationDir;
-    private final List<File> aaes;
+    private final BlockingQueue<File> aaes;
+    private final BlockingQueue<SortTask> transfers;
+    private final Map<String, Integer> datedImages;
+    private final Map<String, Path> sortedFolders;
+    private final CountDownLatch imagesDated = new CountDownLatch(1);
+
+    /**
+     * Moves every AAE into a single AAEs folder.
+     *
+     * @param log               the logger to report events to
+     * @param aaeQueue          queue of AAE files to move
+     * @param transferQueue     queue to hand the AAEs on to
+     * @param destinationDir    destination directory file
+     * @param copyInsteadOfMove boolean to copy rather than move
+     * @param cancellation      tells the sorter to stop early
+     * @param metrics           where to record how the sort is going
+     */
+    public aaeSorter(Logger log, BlockingQueue<File> aaeQueue,
+                     BlockingQueue<SortTask> transferQueue, File destinationDir,
+                     boolean copyInsteadOfMove, SortCancellation cancellation,
+                     SortMetrics metrics) {
+        super(destinationDir, false, copyInsteadOfMove, cancellation, metrics);
+        this.LOGGER = log;
+        aaes = aaeQueue;
+        transfers = transferQueue;
+        datedImages = null;
+        sortedFolders = null;
+    }
 
-    public aaeSorter(Logger log, List<File> aaeList, File destinationDir,
-                     boolean copyInsteadOfMove) {
-        super(destinationDir, false, copyInsteadOfMove);
+    /**
+     * Sorts each AAE into the same folder as its image. The AAEs are
+     * collected as they're found, but aren't sorted until
+     * {@link #imagesDated()} is called. Images sorted before an
+     * earlier sort was stopped aren't dated again, so their AAEs go to
+     * the folder the journal says the image went to.
+     *
+     * @param log               the logger to report events to
+     * @param aaeQueue          queue of AAE files to sort
+     * @param transferQueue     queue to hand the AAEs on to
+     * @param datedImages       the image sorters' dates for each image
+     *                          name, {@link PackedDate#NONE} for broken
+     *                          images
+     * @param sortedFolders     the folder each image sorted by an
+     *                          earlier, stopped sort went to, by name
+     * @param destinationDir    destination directory file
+     * @param daySort           boolean to enable or disable sorting by days
+     * @param copyInsteadOfMove boolean to copy rather than move
+     * @param cancellation      tells the sorter to stop early
+     * @param metrics           where to record how the sort is going
+     */
+    public aaeSorter(Logger log, BlockingQueue<File> aaeQueue,
+                     BlockingQueue<SortTask> transferQueue, Map<String, Integer> datedImages,
+                     Map<String, Path> sortedFolders, File destinationDir, boolean daySort, boolean copyInsteadOfMove,
+                     SortCancellation cancellation, SortMetrics metrics) {
+        super(destinationDir, daySort, copyInsteadOfMove, cancellation, metrics);
         this.LOGGER = log;
-        this.destinationDir = destinationDir;
-        aaes = aaeList;
+        aaes = aaeQueue;
+        transfers = transferQueue;
+        this.datedImages = datedImages;
+        this.sortedFolders = sortedFolders;
+    }
+
+    /**
+     * Tells the sorter every image has been dated, so AAEs can be
+     * matched up with them.
+     */
+    public void imagesDated() {
+        imagesDated.countDown();
     }
 
     public void run() {
-        File looseAAEs = new File(destinationDir + "/AAEs");
-        if (looseAAEs.mkdirs() || Files.exists(looseAAEs.toPath())) {
-            for (File aae : aaes) {
-                try {
-                    moveToFolder(aae.toPath(), "AAEs");
-                } catch (FileAlreadyExistsException fEx) {
-                    LOGGER.log(Level.WARNING, "File already exists in AAE folder", aae);
-                } catch (IOException ioEx) {
-                    LOGGER.log(Level.WARNING, "Failed to make AAE folder, IOException");
+        try {
+            if (datedImages == null) {
+                moveAAEs();
+            } else {
+                sortAAEs();
+            }
+        } catch (InterruptedException intEx) {
+            LOGGER.log(Level.WARNING, "AAE sorter interrupted");
+        }
+    }
+
+    private void moveAAEs() throws InterruptedException {
+        File aae;
+        while ((aae = nextFile(aaes)) != null) {
+            transfers.put(SortTask.toFolder(aae, "AAEs"));
+        }
+    }
+
+    private void sortAAEs() throws InterruptedException {
+        // Keep the queue moving so the scanner doesn't stall while
+        // the images are still being dated
+        List<File> aaeList = new ArrayList<>();
+        File aae;
+        while ((aae = nextFile(aaes)) != null) {
+            aaeList.add(aae);
+        }
+        imagesDated.await();
+
+        // Deal with AAE files that should (ideally) be kept with
+        // their corresponding JPG/PNG images
+        // Seems like they used to be produced alongside PNGs, but now
+        // everything seems to be exported as JPG
+        for (File file : aaeList) {
+            if (cancellation.isCancelled()) {
+                cancellation.skipped(file);
+                continue;
+            }
+            String name = file.getName();
+            String baseName = name.substring(0, name.length() - 4);
+            Integer date = datedImages.get(baseName + ".JPG");
+            if (date == null) {
+                date = datedImages.get(baseName + ".PNG");
+            }
+
+            if (date != null) {
+                if (date == PackedDate.NONE) {
+                    transfers.put(SortTask.toFolder(file, "Broken Images"));
+                } else {
+                    transfers.put(SortTask.dated(file, date));
                 }
+            } else {
+                transfers.put(sortedBefore(file, baseName));
             }
-        } else {
-            LOGGER.warning("Failed to make AAE folder.");
         }
     }
+
+    /**
+     * Sends an AAE after its image, if the image was sorted before
+     * the last sort was stopped, or to the loose AAEs otherwise.
+     */
+    private SortTask sortedBefore(File file, String baseName) {
+        Path folder = sortedFolders.get(baseName + ".JPG");
+        if (folder == null) {
+            folder = sortedFolders.get(baseName + ".PNG");
+        }
+        if (folder == null) {
+            return SortTask.toFolder(file, "Loose AAEs");
+        }
+        // Broken images were moved even when copying
+        boolean copy = copyInsteadOfMove
+                && !folder.equals(destinationDir.toPath().resolve("Broken Images"));
+        return SortTask.planned(file, folder.resolve(file.getName()), copy);
+    }
 }
@@ -0,0 +1,202 @@
+package com.towster15.ImageVideoDateSorter.Metadata;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DateCacheTest {
+    private static final Logger LOGGER = Logger.getLogger("DateCacheTest");
+    private static final ResolvedDate TAKEN =
+            new ResolvedDate(PackedDate.of(2019, 5, 4), DateSource.EXIF_ORIGINAL);
+    private static final ResolvedDate DIGITIZED =
+            new ResolvedDate(PackedDate.of(2001, 2, 3), DateSource.EXIF_DIGITIZED);
+
+    @TempDir
+    Path folder;
+
+    @Test
+    void datesSurviveBeingWrittenAndReadBack() throws IOException {
+        Path cacheFile = folder.resolve("cache").resolve("dates.bin");
+        Path dated = image("dated.jpg");
+        Path undated = image("undated.jpg");
+
+        DateCache cache = new DateCache(LOGGER, cacheFile);
+        assertNull(cache.get(dated.toFile(), attrs(dated)));
+        cache.put(dated.toFile(), attrs(dated), TAKEN);
+        cache.put(undated.toFile(), attrs(undated), ResolvedDate.NONE);
+        cache.close();
+
+        cache = new DateCache(LOGGER, cacheFile);
+        assertEquals(TAKEN, cache.get(dated.toFile(), attrs(dated)));
+        assertEquals(ResolvedDate.NONE, cache.get(undated.toFile(), attrs(undated)));
+        cache.close();
+    }
+
+    @Test
+    void changedFilesAreNotFound() throws IOException {
+        Path cacheFile = folder.resolve("dates.bin");
+        Path dated = image("dated.jpg");
+
+        DateCache cache = new DateCache(LOGGER, cacheFile);
+        cache.put(dated.toFile(), attrs(dated), TAKEN);
+        cache.close();
+
+        Files.setLastModifiedTime(dated, FileTime.fromMillis(86_400_000L));
+        cache = new DateCache(LOGGER, cacheFile);
+        assertNull(cache.get(dated.toFile(), attrs(dated)));
+        cache.close();
+    }
+
+    @Test
+    void onlyDatesFromMetadataAreKept() throws IOException {
+        Path cacheFile = folder.resolve("dates.bin");
+        Path image = image("screenshot.png");
+
+        DateCache cache = new DateCache(LOGGER, cacheFile);
+        cache.put(image.toFile(), attrs(image),
+                new ResolvedDate(PackedDate.of(2020, 1, 1), DateSource.FILESYSTEM));
+        cache.put(image.toFile(), attrs(image), ResolvedDate.UNREADABLE);
+        assertNull(cache.get(image.toFile(), attrs(image)));
+        cache.close();
+    }
+
+    @Test
+    void halfWrittenEntryIsCutOff() throws IOException {
+        Path cacheFile = folder.resolve("dates.bin");
+        Path first = image("first.jpg");
+        Path second = image("second.jpg");
+
+        DateCache cache = new DateCache(LOGGER, cacheFile);
+        cache.put(first.toFile(), attrs(first), TAKEN);
+        cache.close();
+        // As if the last run died part way through adding an entry
+        Files.write(cacheFile, new byte[]{0, 20, 'a'}, StandardOpenOption.APPEND);
+
+        cache = new DateCache(LOGGER, cacheFile);
+        assertEquals(TAKEN, cache.get(first.toFile(), attrs(first)));
+        cache.put(second.toFile(), attrs(second), DIGITIZED);
+        cache.close();
+
+        cache = new DateCache(LOGGER, cacheFile);
+        assertEquals(TAKEN, cache.get(first.toFile(), attrs(first)));
+        assertEquals(DIGITIZED, cache.get(second.toFile(), attrs(second)));
+        cache.close();
+    }
+
+    @Test
+    void putAfterCloseLeavesTheFileAlone() throws IOException {
+        Path cacheFile = folder.resolve("dates.bin");
+        Path first = image("first.jpg");
+        Path late = image("late.jpg");
+
+        DateCache cache = new DateCache(LOGGER, cacheFile);
+        cache.put(first.toFile(), attrs(first), TAKEN);
+        cache.close();
+        long length = Files.size(cacheFile);
+
+        // A sorter that didn't stop in time after a cancel
+        cache.put(late.toFile(), attrs(late), DIGITIZED);
+        cache.close();
+        assertEquals(length, Files.size(cacheFile));
+
+        cache = new DateCache(LOGGER, cacheFile);
+        assertEquals(TAKEN, cache.get(first.toFile(), attrs(first)));
+        assertNull(cache.get(late.toFile(), attrs(late)));
+        cache.close();
+    }
+
+    @Test
+    void filesNotSeenInARunAreDropped() throws IOException {
+        Path cacheFile = folder.resolve("dates.bin");
+        Path[] images = new Path[1100];
+        DateCache cache = new DateCache(LOGGER, cacheFile);
+        for (int i = 0; i < images.length; i++) {
+            images[i] = image("IMG_" + i + ".jpg");
+            cache.put(images[i].toFile(), attrs(images[i]), TAKEN);
+        }
+        cache.close();
+        long fullLength = Files.size(cacheFile);
+
+        // Most of the images have been sorted elsewhere since
+        Path added = image("added.jpg");
+        cache = new DateCache(LOGGER, cacheFile);
+        assertEquals(TAKEN, cache.get(images[0].toFile(), attrs(images[0])));
+        cache.put(added.toFile(), attrs(added), DIGITIZED);
+        cache.close();
+        assertTrue(Files.size(cacheFile) < fullLength / 100);
+
+        cache = new DateCache(LOGGER, cacheFile);
+        assertEquals(TAKEN, cache.get(images[0].toFile(), attrs(images[0])));
+        assertEquals(DIGITIZED, cache.get(added.toFile(), attrs(added)));
+        assertNull(cache.get(images[1].toFile(), attrs(images[1])));
+        cache.close();
+    }
+
+    @Test
+    void fewUnusedEntriesAreLeftAlone() throws IOException {
+        Path cacheFile = folder.resolve("dates.bin");
+        Path first = image("first.jpg");
+        Path second = image("second.jpg");
+
+        DateCache cache = new DateCache(LOGGER, cacheFile);
+        cache.put(first.toFile(), attrs(first), TAKEN);
+        cache.put(second.toFile(), attrs(second), DIGITIZED);
+        cache.close();
+
+        // Not worth rewriting the file for
+        cache = new DateCache(LOGGER, cacheFile);
+        assertEquals(TAKEN, cache.get(first.toFile(), attrs(first)));
+        cache.close();
+
+        cache = new DateCache(LOGGER, cacheFile);
+        assertEquals(DIGITIZED, cache.get(second.toFile(), attrs(second)));
+        cache.close();
+    }
+
+    @Test
+    void cacheInUseIsOnlyRead() throws IOException {
+        Path cacheFile = folder.resolve("dates.bin");
+        Path first = image("first.jpg");
+        Path second = image("second.jpg");
+
+        DateCache cache = new DateCache(LOGGER, cacheFile);
+        cache.put(first.toFile(), attrs(first), TAKEN);
+        cache.close();
+
+        DateCache running = new DateCache(LOGGER, cacheFile);
+        assertEquals(TAKEN, running.get(first.toFile(), attrs(first)));
+        // Another sort at the same time
+        cache = new DateCache(LOGGER, cacheFile);
+        assertEquals(TAKEN, cache.get(first.toFile(), attrs(first)));
+        cache.put(second.toFile(), attrs(second), DIGITIZED);
+        assertEquals(DIGITIZED, cache.get(second.toFile(), attrs(second)));
+        cache.close();
+        running.close();
+
+        cache = new DateCache(LOGGER, cacheFile);
+        assertEquals(TAKEN, cache.get(first.toFile(), attrs(first)));
+        assertNull(cache.get(second.toFile(), attrs(second)));
+        cache.close();
+    }
+
+    private Path image(String name) throws IOException {
+        Path file = folder.resolve(name);
+        Files.writeString(file, name);
+        return file;
+    }
+
+    private static BasicFileAttributes attrs(Path file) throws IOException {
+        return Files.readAttributes(file, BasicFileAttributes.class);
+    }
+}
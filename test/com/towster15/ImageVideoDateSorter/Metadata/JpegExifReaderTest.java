@@ -0,0 +1,159 @@
+package com.towster15.ImageVideoDateSorter.Metadata;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Reads dates from JPEGs put together byte by byte, so each part of
+ * the header can be laid out the way a camera might.
+ */
+class JpegExifReaderTest {
+    private static final int TAG_EXIF_IFD = 0x8769;
+    private static final int TAG_DATE_TIME_ORIGINAL = 0x9003;
+    private static final int TAG_DATE_TIME_DIGITIZED = 0x9004;
+
+    @TempDir
+    Path folder;
+
+    private final JpegExifReader reader = new JpegExifReader();
+
+    @Test
+    void readsDateTakenFromTheExifIfd() throws IOException {
+        Path jpeg = write("big.jpg", jpeg(0, app1(tiff(ByteOrder.BIG_ENDIAN,
+                "2019:05:04 10:11:12", "2019:05:05 00:00:00"))));
+        assertEquals(new ResolvedDate(PackedDate.of(2019, 5, 4), DateSource.EXIF_ORIGINAL),
+                reader.readDate(jpeg));
+    }
+
+    @Test
+    void fallsBackToDateDigitized() throws IOException {
+        Path jpeg = write("little.jpg", jpeg(0, app1(tiff(ByteOrder.LITTLE_ENDIAN,
+                null, "2001:02:03 04:05:06"))));
+        assertEquals(new ResolvedDate(PackedDate.of(2001, 2, 3), DateSource.EXIF_DIGITIZED),
+                reader.readDate(jpeg));
+    }
+
+    @Test
+    void findsExifPastTheProbesHead() throws IOException {
+        // Two large APP2 segments push the EXIF past the first 64 KB
+        Path jpeg = write("far.jpg", jpeg(2, app1(tiff(ByteOrder.BIG_ENDIAN,
+                "2010:12:31 23:59:59", null))));
+        assertEquals(new ResolvedDate(PackedDate.of(2010, 12, 31), DateSource.EXIF_ORIGINAL),
+                reader.readDate(jpeg));
+    }
+
+    @Test
+    void noExifIsNoDate() throws IOException {
+        Path jpeg = write("plain.jpg", jpeg(0, new byte[0]));
+        assertEquals(ResolvedDate.NONE, reader.readDate(jpeg));
+    }
+
+    @Test
+    void exifWithoutDatesIsNoDate() throws IOException {
+        Path jpeg = write("undated.jpg", jpeg(0, app1(tiff(ByteOrder.BIG_ENDIAN, null, null))));
+        assertEquals(ResolvedDate.NONE, reader.readDate(jpeg));
+    }
+
+    @Test
+    void leavesAnythingElseToCommonsImaging() throws IOException {
+        assertNull(reader.readDate(write("text.jpg",
+                "not a JPEG at all".getBytes(StandardCharsets.US_ASCII))));
+
+        byte[] tiff = tiff(ByteOrder.BIG_ENDIAN, "2019:05:04 10:11:12", null);
+        // Point IFD0 past the end of the TIFF data
+        ByteBuffer.wrap(tiff).putInt(4, tiff.length + 100);
+        assertNull(reader.readDate(write("broken.jpg", jpeg(0, app1(tiff)))));
+    }
+
+    @Test
+    void handlesJpegExtensionsOnly() {
+        assertTrue(JpegExifReader.handles(folder.resolve("IMG_0001.JPG").toFile()));
+        assertTrue(JpegExifReader.handles(folder.resolve("scan.jpeg").toFile()));
+        assertFalse(JpegExifReader.handles(folder.resolve("IMG_0001.PNG").toFile()));
+        assertFalse(JpegExifReader.handles(folder.resolve("jpg").toFile()));
+    }
+
+    private Path write(String name, byte[] contents) throws IOException {
+        Path file = folder.resolve(name);
+        Files.write(file, contents);
+        return file;
+    }
+
+    /**
+     * A JPEG with some padding segments, then the given segment, then
+     * the start of the image data.
+     */
+    private static byte[] jpeg(int paddingSegments, byte[] segment) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(0xFF);
+        out.write(0xD8);
+        for (int i = 0; i < paddingSegments; i++) {
+            out.write(0xFF);
+            out.write(0xE2);
+            out.write(0xFF);
+            out.write(0xF0);
+            out.writeBytes(new byte[0xFFF0 - 2]);
+        }
+        out.writeBytes(segment);
+        out.writeBytes(new byte[]{(byte) 0xFF, (byte) 0xDA, 0, 2, (byte) 0xFF, (byte) 0xD9});
+        return out.toByteArray();
+    }
+
+    private static byte[] app1(byte[] tiff) {
+        ByteBuffer segment = ByteBuffer.allocate(10 + tiff.length);
+        segment.put((byte) 0xFF).put((byte) 0xE1).putShort((short) (8 + tiff.length))
+                .put("Exif".getBytes(StandardCharsets.US_ASCII)).put((byte) 0).put((byte) 0)
+                .put(tiff);
+        return segment.array();
+    }
+
+    /**
+     * TIFF data with IFD0 pointing to an EXIF IFD holding whichever of
+     * the two dates are given.
+     */
+    private static byte[] tiff(ByteOrder order, String original, String digitized) {
+        int tags = (original != null ? 1 : 0) + (digitized != null ? 1 : 0);
+        int exifIfd = 8 + 18;
+        int strings = exifIfd + 2 + tags * 12 + 4;
+        ByteBuffer tiff = ByteBuffer.allocate(strings + tags * 20).order(order);
+        tiff.put(order == ByteOrder.BIG_ENDIAN ? (byte) 'M' : (byte) 'I');
+        tiff.put(order == ByteOrder.BIG_ENDIAN ? (byte) 'M' : (byte) 'I');
+        tiff.putShort((short) 42).putInt(8);
+
+        tiff.putShort((short) 1);
+        tiff.putShort((short) TAG_EXIF_IFD).putShort((short) 4).putInt(1).putInt(exifIfd);
+        tiff.putInt(0);
+
+        tiff.putShort((short) tags);
+        int next = strings;
+        if (original != null) {
+            tiff.putShort((short) TAG_DATE_TIME_ORIGINAL).putShort((short) 2).putInt(20)
+                    .putInt(next);
+            next += 20;
+        }
+        if (digitized != null) {
+            tiff.putShort((short) TAG_DATE_TIME_DIGITIZED).putShort((short) 2).putInt(20)
+                    .putInt(next);
+        }
+        tiff.putInt(0);
+        for (String date : new String[]{original, digitized}) {
+            if (date != null) {
+                tiff.put(date.getBytes(StandardCharsets.US_ASCII)).put((byte) 0);
+            }
+        }
+        return tiff.array();
+    }
+}
@@ -0,0 +1,175 @@
+package com.towster15.ImageVideoDateSorter.Metadata;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Reads dates from the smallest containers that still have the parts
+ * the reader looks for, all in UTC so the dates don't depend on where
+ * the tests are run.
+ */
+class VideoDateReaderTest {
+    // Seconds from 1904, when MP4 times start, to 1970
+    private static final long MP4_EPOCH = 2_082_844_800L;
+    // Seconds from 1970 to 2001, when Matroska times start
+    private static final long MATROSKA_EPOCH = 978_307_200L;
+
+    @TempDir
+    Path folder;
+
+    private final VideoDateReader reader = new VideoDateReader(ZoneOffset.UTC);
+
+    @Test
+    void readsMp4WithTheMovieHeaderFirst() throws IOException {
+        long created = seconds(2019, 7, 14) + MP4_EPOCH;
+        Path video = write("first.mp4", concat(
+                box("ftyp", "isom\0\0\0\0".getBytes(StandardCharsets.US_ASCII)),
+                box("moov", mvhd(created, false), box("trak")),
+                box("mdat", new byte[5000])));
+        assertEquals(date(2019, 7, 14), reader.readDate(video));
+    }
+
+    @Test
+    void readsMovWithTheMovieHeaderAfterTheData() throws IOException {
+        long created = seconds(2020, 2, 29) + MP4_EPOCH;
+        byte[] data = new byte[200_000];
+        // A 64-bit box size, as used for data over 4 GB
+        ByteBuffer mdat = ByteBuffer.allocate(16 + data.length);
+        mdat.putInt(1).put("mdat".getBytes(StandardCharsets.US_ASCII))
+                .putLong(16 + data.length).put(data);
+        Path video = write("last.mov", concat(
+                box("ftyp", "qt  \0\0\0\0".getBytes(StandardCharsets.US_ASCII)),
+                mdat.array(),
+                box("moov", box("udta", new byte[300]), mvhd(created, true))));
+        assertEquals(date(2020, 2, 29), reader.readDate(video));
+    }
+
+    @Test
+    void boxRunningPastTheEndIsNotFollowed() throws IOException {
+        // Jumping over it would take the position past Long.MAX_VALUE
+        ByteBuffer mdat = ByteBuffer.allocate(32);
+        mdat.putInt(1).put("mdat".getBytes(StandardCharsets.US_ASCII)).putLong(Long.MAX_VALUE);
+        Path video = write("huge.mp4", concat(
+                box("ftyp", "isom\0\0\0\0".getBytes(StandardCharsets.US_ASCII)),
+                mdat.array()));
+        assertNull(reader.readDate(video));
+    }
+
+    @Test
+    void movieHeaderWithoutATimeIsNoDate() throws IOException {
+        Path video = write("zero.mp4", concat(
+                box("ftyp", "isom\0\0\0\0".getBytes(StandardCharsets.US_ASCII)),
+                box("moov", mvhd(0, false))));
+        assertEquals(ResolvedDate.NONE, reader.readDate(video));
+    }
+
+    @Test
+    void readsMatroskaDateUtc() throws IOException {
+        long nanos = (seconds(2015, 3, 2) + 36_000 - MATROSKA_EPOCH) * 1_000_000_000L;
+        ByteBuffer mkv = ByteBuffer.allocate(64);
+        // EBML header, with just the DocType read version
+        mkv.putInt(0x1A45DFA3).put((byte) 0x84).putInt(0x42868101);
+        // A segment of unknown size
+        mkv.putInt(0x18538067).put((byte) 0x01).put(new byte[]{-1, -1, -1, -1, -1, -1, -1});
+        // An empty SeekHead, then Info with TimestampScale and DateUTC
+        mkv.putInt(0x114D9B74).put((byte) 0x82).putShort((short) 0);
+        mkv.putInt(0x1549A966).put((byte) (0x80 | 17))
+                .putShort((short) 0x2AD7).put((byte) 0xB1).put((byte) 0x82).putShort((short) 0)
+                .putShort((short) 0x4461).put((byte) 0x88).putLong(nanos);
+        mkv.putInt(0x1F43B675).put((byte) 0x84).putInt(0);
+        Path video = write("video.mkv", Arrays.copyOf(mkv.array(), mkv.position()));
+        assertEquals(date(2015, 3, 2), reader.readDate(video));
+    }
+
+    @Test
+    void readsM2tsRecordingDate() throws IOException {
+        byte[] stream = new byte[192 * 200];
+        for (int i = 0; i < 200; i++) {
+            stream[i * 192 + 4] = 0x47;
+        }
+        // The camera's MDPM block, with the date and time as BCD
+        byte[] mdpm = {'M', 'D', 'P', 'M', 3, 0x18, 0x09, 0x20, 0x12, 0x11, 0x19, 0x25, 0x13,
+                0x45, 0x00, 0x1A, 0, 0, 0, 0};
+        System.arraycopy(mdpm, 0, stream, 30 * 192 + 40, mdpm.length);
+        assertEquals(date(2012, 11, 25), reader.readDate(write("video.m2ts", stream)));
+    }
+
+    @Test
+    void damagedMdpmBlockIsPassedOver() throws IOException {
+        byte[] stream = new byte[192 * 400];
+        for (int i = 0; i < 400; i++) {
+            stream[i * 192 + 4] = 0x47;
+        }
+        // Counts far more entries than are left in the first chunk read
+        byte[] damaged = {'M', 'D', 'P', 'M', (byte) 255};
+        System.arraycopy(damaged, 0, stream, 64 * 1024 - 300, damaged.length);
+        byte[] mdpm = {'M', 'D', 'P', 'M', 3, 0x18, 0x09, 0x20, 0x12, 0x11, 0x19, 0x25, 0x13,
+                0x45, 0x00, 0x1A, 0, 0, 0, 0};
+        System.arraycopy(mdpm, 0, stream, 375 * 192 + 40, mdpm.length);
+        assertEquals(date(2012, 11, 25), reader.readDate(write("video.m2ts", stream)));
+
+        // Cut off by the end of the file
+        byte[] cutOff = Arrays.copyOf(stream, 64 * 1024 - 290);
+        assertEquals(ResolvedDate.NONE, reader.readDate(write("cut.m2ts", cutOff)));
+    }
+
+    @Test
+    void leavesAnythingElseAlone() throws IOException {
+        assertNull(reader.readDate(write("text.mp4",
+                "not really a video at all, just text".getBytes(StandardCharsets.US_ASCII))));
+        assertNull(reader.readDate(write("short.mp4", new byte[4])));
+    }
+
+    private Path write(String name, byte[] contents) throws IOException {
+        Path file = folder.resolve(name);
+        Files.write(file, contents);
+        return file;
+    }
+
+    private static ResolvedDate date(int year, int month, int day) {
+        return new ResolvedDate(PackedDate.of(year, month, day), DateSource.VIDEO_METADATA);
+    }
+
+    private static long seconds(int year, int month, int day) {
+        return LocalDateTime.of(year, month, day, 0, 0).toEpochSecond(ZoneOffset.UTC);
+    }
+
+    private static byte[] box(String type, byte[]... children) {
+        byte[] contents = concat(children);
+        ByteBuffer box = ByteBuffer.allocate(8 + contents.length);
+        box.putInt(8 + contents.length).put(type.getBytes(StandardCharsets.US_ASCII))
+                .put(contents);
+        return box.array();
+    }
+
+    private static byte[] mvhd(long created, boolean version1) {
+        ByteBuffer header = ByteBuffer.allocate(version1 ? 100 : 92);
+        if (version1) {
+            header.putInt(0x01000000).putLong(created).putLong(created);
+        } else {
+            header.putInt(0).putInt((int) created).putInt((int) created);
+        }
+        return box("mvhd", header.array());
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            out.writeBytes(part);
+        }
+        return out.toByteArray();
+    }
+}
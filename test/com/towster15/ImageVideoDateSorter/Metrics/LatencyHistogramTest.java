@@ -0,0 +1,62 @@
+package com.towster15.ImageVideoDateSorter.Metrics;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LatencyHistogramTest {
+    @Test
+    void shortTimesGetABucketEach() {
+        for (int nanos = 0; nanos < 4; nanos++) {
+            assertEquals(nanos, LatencyHistogram.bucket(nanos));
+            assertEquals(nanos, LatencyHistogram.bucketTop(nanos));
+        }
+    }
+
+    @Test
+    void everyTimeFitsUnderItsBucketsTop() {
+        long[] times = {4, 5, 6, 7, 8, 9, 15, 16, 17, 999, 1_000, 1_023, 1_024, 1_025,
+                1_000_000, 123_456_789, 1L << 40, (1L << 40) + 1, Long.MAX_VALUE / 3,
+                Long.MAX_VALUE - 1, Long.MAX_VALUE};
+        for (long nanos : times) {
+            int bucket = LatencyHistogram.bucket(nanos);
+            assertTrue(LatencyHistogram.bucketTop(bucket) >= nanos, "top of " + nanos);
+            assertTrue(LatencyHistogram.bucketTop(bucket - 1) < nanos, "below " + nanos);
+        }
+    }
+
+    @Test
+    void bucketsFollowOnFromEachOther() {
+        // Each bucket starts one past the top of the last, so no time
+        // is ever without one
+        for (int bucket = 1; bucket < 248; bucket++) {
+            long start = LatencyHistogram.bucketTop(bucket - 1) + 1;
+            assertEquals(bucket, LatencyHistogram.bucket(start), "start of " + bucket);
+            assertEquals(bucket, LatencyHistogram.bucket(LatencyHistogram.bucketTop(bucket)),
+                    "top of " + bucket);
+        }
+        assertEquals(Long.MAX_VALUE, LatencyHistogram.bucketTop(247));
+    }
+
+    @Test
+    void bucketsAreWithinAQuarterOfTheirTimes() {
+        for (long nanos = 4; nanos < 1L << 50; nanos = nanos * 3 + 1) {
+            long top = LatencyHistogram.bucketTop(LatencyHistogram.bucket(nanos));
+            assertTrue(top - nanos <= nanos / 4, "bucket for " + nanos + " ends at " + top);
+        }
+    }
+
+    @Test
+    void percentilesNeverPassTheLongestTime() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i * 1_000_000L);
+        }
+        LatencySummary summary = histogram.summarise();
+        assertEquals(100, summary.count());
+        assertEquals(100.0, summary.maxMillis());
+        assertTrue(summary.p99Millis() <= summary.maxMillis());
+        assertTrue(summary.p50Millis() >= 50.0 && summary.p50Millis() <= 50.0 * 1.25);
+    }
+}
@@ -0,0 +1,128 @@
+package com.towster15.ImageVideoDateSorter.Scanners;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Tells files apart by name, and by the signatures at the start of
+ * them, written out as only the bytes each signature needs.
+ */
+class FileClassifierTest {
+    @TempDir
+    Path folder;
+
+    private final FileClassifier sniffer = new FileClassifier(true);
+
+    @Test
+    void extensionsAreLookedUpWhateverTheirCase() {
+        assertEquals(FileType.IMAGE, FileClassifier.byName("IMG_0001.JPG"));
+        assertEquals(FileType.IMAGE, FileClassifier.byName("photo.heic"));
+        assertEquals(FileType.VIDEO, FileClassifier.byName("MVI_0001.Mp4"));
+        assertEquals(FileType.SIDECAR, FileClassifier.byName("IMG_0001.AAE"));
+        assertEquals(FileType.OTHER, FileClassifier.byName("notes.txt"));
+        assertEquals(FileType.OTHER, FileClassifier.byName("README"));
+        assertEquals(FileType.OTHER, FileClassifier.byName("trailing."));
+    }
+
+    @Test
+    void hiddenFilesAreNeverMedia() throws IOException {
+        assertEquals(FileType.OTHER, FileClassifier.byName("._IMG_0001.JPG"));
+        Path hidden = Files.write(folder.resolve("._IMG_0002.JPG"), jpeg());
+        assertEquals(FileType.OTHER, sniffer.classify(hidden));
+    }
+
+    @Test
+    void imageSignaturesAreRecognised() throws IOException {
+        assertEquals(FileType.IMAGE, sniff(jpeg()));
+        assertEquals(FileType.IMAGE, sniff(bytes(0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n')));
+        assertEquals(FileType.IMAGE, sniff(ascii("GIF89a")));
+        assertEquals(FileType.IMAGE, sniff(bytes('I', 'I', 42, 0, 8, 0, 0, 0)));
+        assertEquals(FileType.IMAGE, sniff(bytes('M', 'M', 0, 42, 0, 0, 0, 8)));
+        assertEquals(FileType.IMAGE, sniff(ascii("RIFF\0\0\0\0WEBP")));
+        assertEquals(FileType.IMAGE, sniff(bytes(0, 0, 0, 12, 'j', 'P', ' ', ' ', 13, 10,
+                0x87, 10)));
+        assertEquals(FileType.IMAGE, sniff(ftyp("heic")));
+        assertEquals(FileType.IMAGE, sniff(ftyp("avif")));
+    }
+
+    @Test
+    void videoSignaturesAreRecognised() throws IOException {
+        assertEquals(FileType.VIDEO, sniff(ftyp("isom")));
+        assertEquals(FileType.VIDEO, sniff(ftyp("qt  ")));
+        assertEquals(FileType.VIDEO, sniff(ftyp("3gp5")));
+        assertEquals(FileType.VIDEO, sniff(bytes(0x1A, 0x45, 0xDF, 0xA3)));
+        assertEquals(FileType.VIDEO, sniff(ascii("RIFF\0\0\0\0AVI ")));
+        assertEquals(FileType.VIDEO, sniff(bytes(0, 0, 1, 0xBA)));
+        assertEquals(FileType.VIDEO, sniff(ascii("FLV\u0001")));
+        assertEquals(FileType.VIDEO, sniff(bytes(0x30, 0x26, 0xB2, 0x75)));
+        assertEquals(FileType.VIDEO, sniff(ascii("\0\0\0\bmdat")));
+    }
+
+    @Test
+    void unknownFormatsAreNotRecognised() throws IOException {
+        // Canon raws and M4A audio share their boxes with MP4
+        assertNull(sniff(ftyp("crx ")));
+        assertNull(sniff(ftyp("M4A ")));
+        assertNull(sniff(ascii("RIFF\0\0\0\0WAVE")));
+        assertNull(sniff(ascii("hello, world")));
+        assertNull(sniff(bytes(0xFF, 0xD8)));
+    }
+
+    @Test
+    void misnamedFilesAreSortedByWhatTheyAre() throws IOException {
+        Path video = Files.write(folder.resolve("MVI_0001.JPG"), ftyp("isom"));
+        Path image = Files.write(folder.resolve("IMG_0001"), jpeg());
+        assertEquals(FileType.VIDEO, sniffer.classify(video));
+        assertEquals(FileType.IMAGE, sniffer.classify(image));
+
+        FileClassifier byName = new FileClassifier(false);
+        assertEquals(FileType.IMAGE, byName.classify(video));
+        assertEquals(FileType.OTHER, byName.classify(image));
+    }
+
+    @Test
+    void unrecognisedFilesGoByTheirExtension() throws IOException {
+        Path raw = Files.write(folder.resolve("IMG_0001.mp4"), ftyp("crx "));
+        Path empty = Files.write(folder.resolve("IMG_0002.png"), new byte[0]);
+        assertEquals(FileType.VIDEO, sniffer.classify(raw));
+        assertEquals(FileType.IMAGE, sniffer.classify(empty));
+        assertEquals(FileType.IMAGE, sniffer.classify(folder.resolve("missing.jpg")));
+    }
+
+    /**
+     * Writes the bytes out without an extension, so only their
+     * signature can tell what they are.
+     */
+    private FileType sniff(byte[] head) throws IOException {
+        FileType type = sniffer.classify(Files.write(folder.resolve("file"), head));
+        return type == FileType.OTHER ? null : type;
+    }
+
+    private static byte[] jpeg() {
+        return bytes(0xFF, 0xD8, 0xFF, 0xE1, 0, 16, 'E', 'x', 'i', 'f', 0, 0);
+    }
+
+    private static byte[] ftyp(String brand) {
+        return ascii("\0\0\0\u0014ftyp" + brand + "\0\0\0\0" + brand);
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    private static byte[] bytes(int... values) {
+        byte[] bytes = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            bytes[i] = (byte) values[i];
+        }
+        return bytes;
+    }
+}
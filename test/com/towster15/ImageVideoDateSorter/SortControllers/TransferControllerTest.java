@@ -0,0 +1,91 @@
+package com.towster15.ImageVideoDateSorter.SortControllers;
+
+import com.towster15.ImageVideoDateSorter.Metadata.PackedDate;
+import com.towster15.ImageVideoDateSorter.Sorters.DriveCache;
+import com.towster15.ImageVideoDateSorter.Sorters.SortTask;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Checks which lane files go in, which comes down to what each file
+ * asks for and whether it's on the same drive as where it's going.
+ */
+class TransferControllerTest {
+    private static final Logger LOGGER = Logger.getLogger("TransferControllerTest");
+    private static final int DATE = PackedDate.of(2019, 7, 14);
+
+    @TempDir
+    Path folder;
+
+    @Test
+    void foldersOnOneDriveAreNotCopied() throws IOException {
+        Path source = Files.createDirectory(folder.resolve("source"));
+        Path file = Files.writeString(source.resolve("IMG_0001.JPG"), "image");
+        File destination = Files.createDirectory(folder.resolve("destination")).toFile();
+        assertFalse(TransferController.isCopied(new DriveCache(LOGGER),
+                SortTask.dated(file.toFile(), DATE), false, destination));
+    }
+
+    @Test
+    void fileOnAnotherDriveIsCopied() throws IOException {
+        // Such as a folder within the source that's a drive of its own
+        Path shared = sharedMemory();
+        Path source = Files.createTempDirectory(shared, "source");
+        Path file = Files.writeString(source.resolve("IMG_0001.JPG"), "image");
+        try {
+            assertTrue(TransferController.isCopied(new DriveCache(LOGGER),
+                    SortTask.dated(file.toFile(), DATE), false, folder.toFile()));
+        } finally {
+            Files.delete(file);
+            Files.delete(source);
+        }
+    }
+
+    @Test
+    void replayedMoveToAnotherDriveIsCopied() throws IOException {
+        Path shared = sharedMemory();
+        Path source = Files.createTempDirectory(shared, "source");
+        Path file = Files.writeString(source.resolve("IMG_0001.JPG"), "image");
+        // The folder it's going to hasn't been made yet
+        Path target = folder.resolve("2019").resolve("07 July").resolve("IMG_0001.JPG");
+        try {
+            assertTrue(TransferController.isCopied(new DriveCache(LOGGER),
+                    SortTask.planned(file.toFile(), target, false), false, folder.toFile()));
+            Path sameDrive = source.resolve("2019").resolve("IMG_0001.JPG");
+            assertFalse(TransferController.isCopied(new DriveCache(LOGGER),
+                    SortTask.planned(file.toFile(), sameDrive, false), false, folder.toFile()));
+        } finally {
+            Files.delete(file);
+            Files.delete(source);
+        }
+    }
+
+    @Test
+    void plannedFilesDoWhatThePlanSays() {
+        File file = folder.resolve("IMG_0001.JPG").toFile();
+        Path target = folder.resolve("2019").resolve("IMG_0001.JPG");
+        assertTrue(SortTask.planned(file, target, true).isCopy(false));
+        assertFalse(SortTask.planned(file, target, false).isCopy(true));
+    }
+
+    /**
+     * @return a folder on a different drive to the temporary folder,
+     * or skips the test if there isn't one
+     */
+    private Path sharedMemory() throws IOException {
+        Path shared = Path.of("/dev/shm");
+        assumeTrue(Files.isDirectory(shared) && Files.isWritable(shared)
+                && !Files.getFileStore(shared).equals(Files.getFileStore(folder)));
+        return shared;
+    }
+}
@@ -0,0 +1,143 @@
+package com.towster15.ImageVideoDateSorter.Sorters;
+
+import com.towster15.ImageVideoDateSorter.Metadata.FileProbe;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Compares files that are too big to be told apart by their first
+ * block alone, as that's where the index has the most to get wrong.
+ */
+class DuplicateIndexTest {
+    private static final Logger LOGGER = Logger.getLogger("DuplicateIndexTest");
+    private static final int SIZE = 3 * FileProbe.HEAD_SIZE;
+
+    @TempDir
+    Path folder;
+
+    private final DuplicateIndex index = new DuplicateIndex(LOGGER, DuplicateMode.SKIP);
+
+    @Test
+    void sameSizeWithADifferentTailIsNotACopy() throws IOException {
+        Path first = write("first.jpg", contents(1, 1));
+        Path second = write("second.jpg", contents(1, 2));
+
+        assertNull(add(first));
+        assertNull(add(second));
+    }
+
+    @Test
+    void sameSizeWithADifferentMiddleIsNotACopy() throws IOException {
+        byte[] changed = contents(1, 1);
+        changed[SIZE / 2] ^= 1;
+        Path first = write("first.jpg", contents(1, 1));
+        Path second = write("second.jpg", changed);
+
+        assertNull(add(first));
+        assertNull(add(second));
+    }
+
+    @Test
+    void fileAlreadyInTheFolderIsFound() throws IOException {
+        Path destination = Files.createDirectory(folder.resolve("2019"));
+        Path existing = Files.write(destination.resolve("existing.jpg"), contents(1, 1));
+        Path copy = write("copy.jpg", contents(1, 1));
+
+        index.indexFolder(destination);
+        assertEquals(existing, add(copy));
+    }
+
+    @Test
+    void unreadableFilesDontStopTheRestBeingFound() throws IOException {
+        Path destination = Files.createDirectory(folder.resolve("2019"));
+        // Enough that some are listed before the real file
+        for (int i = 0; i < 20; i++) {
+            Files.createSymbolicLink(destination.resolve("broken" + i + ".jpg"),
+                    folder.resolve("missing" + i + ".jpg"));
+        }
+        Path existing = Files.write(destination.resolve("existing.jpg"), contents(1, 1));
+        Files.write(TransferJournal.partialPath(destination.resolve("unfinished.jpg")),
+                contents(2, 2));
+
+        index.indexFolder(destination);
+        assertEquals(existing, add(write("copy.jpg", contents(1, 1))));
+        assertNull(add(write("other.jpg", contents(2, 2))));
+    }
+
+    @Test
+    void pendingCopyIsWaitedForUntilItsInPlace() throws Exception {
+        Path first = write("first.jpg", contents(1, 1));
+        Path second = write("second.jpg", contents(1, 1));
+        DuplicateIndex.Entry pending = new DuplicateIndex.Entry(first, SIZE);
+        assertNull(index.group(SIZE).findCopyOrAdd(pending));
+
+        CompletableFuture<Path> found = CompletableFuture.supplyAsync(() -> addUnchecked(second));
+        Thread.sleep(100);
+        assertFalse(found.isDone());
+
+        // Moved into place while the second file was waiting
+        Path placed = Files.move(first, Files.createDirectory(folder.resolve("2019"))
+                .resolve("first.jpg"));
+        pending.placedAt(placed);
+        assertEquals(placed, found.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void pendingCopyThatFailsIsNotFound() throws Exception {
+        Path first = write("first.jpg", contents(1, 1));
+        Path second = write("second.jpg", contents(1, 1));
+        DuplicateIndex.Entry pending = new DuplicateIndex.Entry(first, SIZE);
+        assertNull(index.group(SIZE).findCopyOrAdd(pending));
+
+        CompletableFuture<Path> found = CompletableFuture.supplyAsync(() -> addUnchecked(second));
+        pending.failed();
+        assertNull(found.get(10, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Adds a file as a transferer would, marking it as in place where
+     * it already is if there's no copy of it.
+     */
+    private Path add(Path file) throws IOException {
+        DuplicateIndex.Entry entry = new DuplicateIndex.Entry(file, SIZE);
+        Path copy = index.group(SIZE).findCopyOrAdd(entry);
+        if (copy == null) {
+            entry.placedAt(file);
+        }
+        return copy;
+    }
+
+    private Path addUnchecked(Path file) {
+        try {
+            return add(file);
+        } catch (IOException ioEx) {
+            throw new IllegalStateException(ioEx);
+        }
+    }
+
+    private Path write(String name, byte[] contents) throws IOException {
+        return Files.write(folder.resolve(name), contents);
+    }
+
+    /**
+     * @return a file's worth of one byte, ending in another
+     */
+    private static byte[] contents(int fill, int last) {
+        byte[] contents = new byte[SIZE];
+        Arrays.fill(contents, (byte) fill);
+        contents[SIZE - 1] = (byte) last;
+        return contents;
+    }
+}
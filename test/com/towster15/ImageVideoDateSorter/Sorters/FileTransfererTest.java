@@ -0,0 +1,186 @@
+package com.towster15.ImageVideoDateSorter.Sorters;
+
+import com.towster15.ImageVideoDateSorter.Metadata.PackedDate;
+import com.towster15.ImageVideoDateSorter.Metrics.SortMetrics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Moves files into a date folder with duplicates being looked for, as
+ * a sort with {@code imagesorter.duplicates} set would.
+ */
+class FileTransfererTest {
+    private static final Logger LOGGER = Logger.getLogger("FileTransfererTest");
+    private static final int DATE = PackedDate.of(2019, 7, 14);
+
+    @TempDir
+    Path folder;
+    private Path source;
+    private Path destination;
+    private Path dateFolder;
+    private SortMetrics metrics;
+
+    @BeforeEach
+    void makeFolders() throws IOException {
+        source = Files.createDirectory(folder.resolve("source"));
+        destination = Files.createDirectory(folder.resolve("destination"));
+        dateFolder = new DestinationResolver(destination.toFile(), false).dateFolder(DATE);
+        metrics = new SortMetrics(LOGGER);
+    }
+
+    @Test
+    void secondCopyInOneSortIsLeftWhereItIs() throws IOException {
+        FileTransferer transferer = transferer(DuplicateMode.SKIP, null);
+        Path first = file("first.jpg", "same");
+        Path second = file("second.jpg", "same");
+
+        transferer.transfer(SortTask.dated(first.toFile(), DATE));
+        transferer.transfer(SortTask.dated(second.toFile(), DATE));
+
+        assertTrue(Files.exists(dateFolder.resolve("first.jpg")));
+        assertFalse(Files.exists(dateFolder.resolve("second.jpg")));
+        assertTrue(Files.exists(second));
+        assertEquals(1, metrics.getDuplicatesSkipped());
+    }
+
+    @Test
+    void skippedCopyIsJournalled() throws IOException {
+        TransferJournal journal = openJournal();
+        FileTransferer transferer = transferer(DuplicateMode.SKIP, journal);
+        Path first = file("first.jpg", "same");
+        Path second = file("second.jpg", "same");
+
+        transferer.transfer(SortTask.dated(first.toFile(), DATE));
+        transferer.transfer(SortTask.dated(second.toFile(), DATE));
+        journal.close(false);
+
+        // Stopped before the end, so the next sort carries on
+        journal = openJournal();
+        assertTrue(journal.isDone(second.toFile()));
+        journal.close(false);
+    }
+
+    @Test
+    void fileAlreadyInTheDateFolderIsFound() throws IOException {
+        Files.createDirectories(dateFolder);
+        Files.writeString(dateFolder.resolve("IMG_0001.JPG"), "same");
+        Path copy = file("copy.jpg", "same");
+
+        transferer(DuplicateMode.SKIP, null).transfer(SortTask.dated(copy.toFile(), DATE));
+
+        assertFalse(Files.exists(dateFolder.resolve("copy.jpg")));
+        assertTrue(Files.exists(copy));
+        assertEquals(1, metrics.getDuplicatesSkipped());
+    }
+
+    @Test
+    void differentFilesOfTheSameSizeAreBothMoved() throws IOException {
+        FileTransferer transferer = transferer(DuplicateMode.SKIP, null);
+        Path first = file("first.jpg", "abcd");
+        Path second = file("second.jpg", "abce");
+
+        transferer.transfer(SortTask.dated(first.toFile(), DATE));
+        transferer.transfer(SortTask.dated(second.toFile(), DATE));
+
+        assertEquals("abcd", Files.readString(dateFolder.resolve("first.jpg")));
+        assertEquals("abce", Files.readString(dateFolder.resolve("second.jpg")));
+        assertEquals(0, metrics.getDuplicatesSkipped());
+    }
+
+    @Test
+    void copyIsLinkedToTheFileAlreadyThere() throws IOException {
+        FileTransferer transferer = transferer(DuplicateMode.LINK, null);
+        Path first = file("first.jpg", "same");
+        Path second = file("second.jpg", "same");
+
+        transferer.transfer(SortTask.dated(first.toFile(), DATE));
+        transferer.transfer(SortTask.dated(second.toFile(), DATE));
+
+        assertTrue(Files.isSameFile(dateFolder.resolve("first.jpg"),
+                dateFolder.resolve("second.jpg")));
+        assertFalse(Files.exists(second));
+        assertEquals(1, metrics.getDuplicatesLinked());
+    }
+
+    @Test
+    void linkedCopyIsJournalled() throws IOException {
+        TransferJournal journal = openJournal();
+        Path first = file("first.jpg", "same");
+        Path second = file("second.jpg", "same");
+        FileTransferer transferer = transferer(DuplicateMode.LINK, journal, true);
+        transferer.transfer(SortTask.dated(first.toFile(), DATE));
+        transferer.transfer(SortTask.dated(second.toFile(), DATE));
+        journal.close(false);
+
+        // Copying leaves the originals behind, so carrying on sees the
+        // second one again and mustn't link it twice
+        journal = openJournal();
+        assertTrue(journal.isDone(second.toFile()));
+        transferer(DuplicateMode.LINK, journal, true)
+                .transfer(SortTask.dated(second.toFile(), DATE));
+        journal.close(false);
+
+        assertTrue(Files.isSameFile(dateFolder.resolve("first.jpg"),
+                dateFolder.resolve("second.jpg")));
+        assertFalse(Files.exists(dateFolder.resolve("second(1).jpg")));
+        assertEquals(1, metrics.getDuplicatesLinked());
+    }
+
+    @Test
+    void copyThatCantBeLinkedIsMovedInstead() throws IOException {
+        FileTransferer transferer = transferer(DuplicateMode.LINK, null);
+        Path first = file("first.jpg", "same");
+        Path second = file("second.jpg", "same");
+        Path third = file("third.jpg", "same");
+        transferer.transfer(SortTask.dated(first.toFile(), DATE));
+        transferer.transfer(SortTask.dated(second.toFile(), DATE));
+
+        // The index still has the first file's hashes, so the third
+        // is matched to it but there's nothing left to link to
+        Files.delete(dateFolder.resolve("first.jpg"));
+        transferer.transfer(SortTask.dated(third.toFile(), DATE));
+
+        Path moved = dateFolder.resolve("third.jpg");
+        assertTrue(Files.isRegularFile(moved));
+        assertFalse(Files.isSameFile(moved, dateFolder.resolve("second.jpg")));
+        assertArrayEquals("same".getBytes(), Files.readAllBytes(moved));
+        assertFalse(Files.exists(third));
+        assertEquals(0, metrics.getFilesFailed());
+    }
+
+    private FileTransferer transferer(DuplicateMode mode, TransferJournal journal) {
+        return transferer(mode, journal, false);
+    }
+
+    private FileTransferer transferer(DuplicateMode mode, TransferJournal journal,
+                                      boolean copy) {
+        return new FileTransferer(LOGGER, new LinkedBlockingQueue<>(),
+                new DateFolderRegistry(LOGGER, true, metrics),
+                new DestinationResolver(destination.toFile(), false),
+                new DuplicateIndex(LOGGER, mode), destination.toFile(), false, copy,
+                FileCopier.FILES, null, null, journal, null,
+                new SortCancellation(LOGGER, Duration.ofSeconds(10)), metrics);
+    }
+
+    private TransferJournal openJournal() throws IOException {
+        return TransferJournal.open(LOGGER, folder.resolve("journal.bin"), source.toString(),
+                destination.toString());
+    }
+
+    private Path file(String name, String contents) throws IOException {
+        return Files.writeString(source.resolve(name), contents);
+    }
+}
@@ -0,0 +1,79 @@
+package com.towster15.ImageVideoDateSorter.Sorters;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SortPlanTest {
+    @TempDir
+    Path folder;
+
+    @Test
+    void awkwardPathsSurviveTheRoundTrip() throws Exception {
+        Path planFile = folder.resolve("plan.txt");
+        Path[] sources = {
+                folder.resolve("plain.jpg"),
+                folder.resolve("tab\there.jpg"),
+                folder.resolve("new\nline.jpg"),
+                folder.resolve("back\\slash\\t.jpg"),
+                folder.resolve("carriage\rreturn.jpg")
+        };
+        try (SortPlan plan = new SortPlan(planFile)) {
+            for (int i = 0; i < sources.length; i++) {
+                plan.add(sources[i], folder.resolve("2019").resolve("out" + i + "\t.jpg"),
+                        i % 2 == 0);
+            }
+            assertEquals(sources.length, plan.size());
+        }
+
+        List<String> lines = Files.readAllLines(planFile, StandardCharsets.UTF_8);
+        assertEquals(sources.length + 1, lines.size());
+        assertTrue(lines.get(2).contains("tab\\there.jpg"));
+
+        LinkedBlockingQueue<SortTask> queue = new LinkedBlockingQueue<>();
+        assertEquals(sources.length, SortPlan.replay(planFile, queue));
+        for (int i = 0; i < sources.length; i++) {
+            SortTask task = queue.take();
+            assertEquals(sources[i].toAbsolutePath().toFile(), task.file());
+            assertEquals(folder.resolve("2019").resolve("out" + i + "\t.jpg").toAbsolutePath(),
+                    task.target());
+            assertEquals(i % 2 == 0, task.copy());
+        }
+    }
+
+    @Test
+    void notAPlanIsRefused() throws IOException {
+        Path notAPlan = folder.resolve("notes.txt");
+        Files.writeString(notAPlan, "M\t/a\t/b\n");
+        assertThrows(IOException.class,
+                () -> SortPlan.replay(notAPlan, new LinkedBlockingQueue<>()));
+    }
+
+    @Test
+    void damagedLineStopsTheReplay() throws Exception {
+        Path planFile = folder.resolve("plan.txt");
+        try (SortPlan plan = new SortPlan(planFile)) {
+            plan.add(folder.resolve("a.jpg"), folder.resolve("out").resolve("a.jpg"), false);
+        }
+        Files.writeString(planFile, "M\tonly two fields\n",
+                StandardOpenOption.APPEND);
+
+        LinkedBlockingQueue<SortTask> queue = new LinkedBlockingQueue<>();
+        assertThrows(IOException.class, () -> SortPlan.replay(planFile, queue));
+        // The files before the problem are still handed over
+        assertEquals(1, queue.size());
+        assertFalse(queue.peek().copy());
+    }
+}
@@ -0,0 +1,235 @@
+package com.towster15.ImageVideoDateSorter.Sorters;
+
+import com.towster15.ImageVideoDateSorter.Metrics.SortMetrics;
+import com.towster15.ImageVideoDateSorter.Scanners.DirectoryScanner;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Stops sorts part way through by closing the journal without
+ * finishing it, then opens it again as the next sort would.
+ */
+class TransferJournalTest {
+    private static final Logger LOGGER = Logger.getLogger("TransferJournalTest");
+
+    @TempDir
+    Path folder;
+    private Path source;
+    private Path destination;
+    private Path journalFile;
+
+    @BeforeEach
+    void makeFolders() throws IOException {
+        source = Files.createDirectory(folder.resolve("source"));
+        destination = Files.createDirectory(folder.resolve("destination"));
+        journalFile = folder.resolve("journal.bin");
+    }
+
+    @Test
+    void finishedFilesAreDoneNextTime() throws IOException {
+        Path moved = file("moved.jpg");
+        Path notReached = file("later.jpg");
+
+        TransferJournal journal = open();
+        journal.finished(moved, destination.resolve("moved.jpg"), 10);
+        journal.close(false);
+
+        journal = open();
+        assertTrue(journal.isDone(moved.toFile()));
+        assertFalse(journal.isDone(notReached.toFile()));
+        journal.close(true);
+        assertFalse(Files.exists(journalFile));
+    }
+
+    @Test
+    void skippedDuplicatesAreDoneNextTime() throws IOException {
+        Path duplicate = file("duplicate.jpg");
+
+        TransferJournal journal = open();
+        journal.skipped(duplicate, Files.size(duplicate));
+        journal.close(false);
+
+        journal = open();
+        assertTrue(journal.isDone(duplicate.toFile()));
+        assertTrue(Files.exists(duplicate));
+        journal.close(false);
+    }
+
+    @Test
+    void unfinishedCopyIsDeleted() throws IOException {
+        Path original = file("copying.jpg");
+        Path target = destination.resolve("copying.jpg");
+        Path partial = TransferJournal.partialPath(target);
+
+        TransferJournal journal = open();
+        journal.started(original, target, true);
+        Files.writeString(partial, "half");
+        journal.close(false);
+
+        journal = open();
+        assertFalse(Files.exists(partial));
+        assertFalse(journal.isDone(original.toFile()));
+        assertTrue(Files.exists(original));
+        journal.close(false);
+    }
+
+    @Test
+    void copyThatMadeItIntoPlaceIsKept() throws IOException {
+        Path original = file("copied.jpg");
+        Path target = destination.resolve("copied.jpg");
+
+        TransferJournal journal = open();
+        journal.started(original, target, true);
+        Files.copy(original, target, StandardCopyOption.COPY_ATTRIBUTES);
+        // Died before it could be recorded as finished
+        journal.close(false);
+
+        journal = open();
+        assertTrue(journal.isDone(original.toFile()));
+        assertTrue(Files.exists(original));
+        journal.close(false);
+    }
+
+    @Test
+    void moveThatMadeItIntoPlaceDeletesTheOriginal() throws IOException {
+        Path original = file("moving.jpg");
+        Path target = destination.resolve("moving.jpg");
+
+        TransferJournal journal = open();
+        journal.started(original, target, false);
+        Files.copy(original, target, StandardCopyOption.COPY_ATTRIBUTES);
+        journal.close(false);
+
+        journal = open();
+        assertTrue(journal.isDone(original.toFile()));
+        assertFalse(Files.exists(original));
+        journal.close(false);
+    }
+
+    @Test
+    void copyThatDoesNotMatchIsDoneAgain() throws IOException {
+        Path original = file("changed.jpg");
+        Path target = destination.resolve("changed.jpg");
+
+        TransferJournal journal = open();
+        journal.started(original, target, false);
+        Files.writeString(target, "something else entirely");
+        journal.close(false);
+
+        journal = open();
+        assertFalse(journal.isDone(original.toFile()));
+        assertTrue(Files.exists(original));
+        journal.close(false);
+    }
+
+    @Test
+    void journalFromAnotherSortIsStartedAgain() throws IOException {
+        Path moved = file("moved.jpg");
+
+        TransferJournal journal = open();
+        journal.finished(moved, destination.resolve("moved.jpg"), 10);
+        journal.close(false);
+
+        journal = TransferJournal.open(LOGGER, journalFile, source.toString(),
+                folder.resolve("elsewhere").toString());
+        assertFalse(journal.isDone(moved.toFile()));
+        journal.close(false);
+    }
+
+    @Test
+    void journalInUseIsLeftAlone() throws IOException {
+        Path moved = file("moved.jpg");
+
+        TransferJournal journal = open();
+        journal.finished(moved, destination.resolve("moved.jpg"), 10);
+        assertNull(open());
+        journal.close(false);
+
+        journal = open();
+        assertNotNull(journal);
+        assertTrue(journal.isDone(moved.toFile()));
+        journal.close(false);
+    }
+
+    @Test
+    void eachPairOfFoldersHasItsOwnJournal() {
+        Path journalFolder = folder.resolve("journals");
+        Path journal = TransferJournal.fileFor(journalFolder, source.toString(),
+                destination.toString());
+        assertEquals(journalFolder, journal.getParent());
+        assertEquals(journal, TransferJournal.fileFor(journalFolder, source.toString(),
+                destination.toString()));
+        assertNotEquals(journal, TransferJournal.fileFor(journalFolder, source.toString(),
+                folder.resolve("elsewhere").toString()));
+        assertNotEquals(journal, TransferJournal.fileFor(journalFolder, destination.toString(),
+                source.toString()));
+    }
+
+    @Test
+    void aaesFollowImagesMovedBeforeTheSortStopped() throws IOException, InterruptedException {
+        Path image = file("IMG_0001.JPG");
+        Path duplicate = file("IMG_0002.JPG");
+        Path july = Files.createDirectories(destination.resolve("2019").resolve("07 July"));
+        Path target = july.resolve("IMG_0001.JPG");
+
+        TransferJournal journal = open();
+        journal.started(image, target, false);
+        Files.move(image, target);
+        journal.finished(image, target, Files.size(target));
+        journal.skipped(duplicate, Files.size(duplicate));
+        journal.close(false);
+
+        journal = open();
+        Map<String, Path> sortedFolders = journal.getSortedFolders();
+        assertEquals(Map.of("IMG_0001.JPG", july), sortedFolders);
+
+        // The moved image isn't in the source to be dated again
+        BlockingQueue<File> aaes = new LinkedBlockingQueue<>();
+        BlockingQueue<SortTask> transfers = new LinkedBlockingQueue<>();
+        aaes.add(file("IMG_0001.AAE").toFile());
+        aaes.add(file("IMG_0003.AAE").toFile());
+        aaes.add(DirectoryScanner.END_OF_SCAN);
+        aaeSorter sorter = new aaeSorter(LOGGER, aaes, transfers, new ConcurrentHashMap<>(),
+                sortedFolders, destination.toFile(), false, false,
+                new SortCancellation(LOGGER, Duration.ofSeconds(10)), new SortMetrics(LOGGER));
+        sorter.imagesDated();
+        sorter.run();
+        journal.close(false);
+
+        SortTask followed = transfers.take();
+        assertEquals(july.resolve("IMG_0001.AAE"), followed.target());
+        assertFalse(followed.copy());
+        assertEquals("Loose AAEs", transfers.take().folder());
+    }
+
+    private TransferJournal open() throws IOException {
+        return TransferJournal.open(LOGGER, journalFile, source.toString(),
+                destination.toString());
+    }
+
+    private Path file(String name) throws IOException {
+        Path file = source.resolve(name);
+        Files.writeString(file, name);
+        return file;
+    }
+}